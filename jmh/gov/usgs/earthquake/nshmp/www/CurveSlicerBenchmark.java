@@ -0,0 +1,102 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.primitives.Doubles;
+
+import gov.usgs.earthquake.nshmp.data.Interpolator;
+
+/*
+ * Slicing a file of hazard curves at a set of return periods with CurveSlicer
+ * and with the nshmp-haz Interpolator it replaces. Curves are a western US PGA
+ * curve scaled by site so that each is distinct.
+ *
+ * Run with: gradle jmh --args='CurveSlicer'
+ */
+@SuppressWarnings("javadoc")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CurveSlicerBenchmark {
+
+  private static final Interpolator INTERPOLATOR = Interpolator.builder()
+      .logx()
+      .logy()
+      .decreasingX()
+      .build();
+
+  private static final double[] IMLS = {
+      0.0025, 0.0045, 0.0075, 0.0113, 0.0169, 0.0253, 0.0380, 0.0570, 0.0854, 0.128,
+      0.192, 0.288, 0.432, 0.649, 0.973, 1.46, 2.19, 3.28, 4.92, 7.38 };
+
+  private static final double[] RATES = {
+      1.05e-1, 7.02e-2, 4.58e-2, 3.09e-2, 1.98e-2, 1.20e-2, 6.86e-3, 3.66e-3, 1.80e-3, 8.03e-4,
+      3.14e-4, 1.04e-4, 2.80e-5, 5.84e-6, 8.95e-7, 9.41e-8, 6.27e-9, 2.34e-10, 3.79e-12,
+      2.11e-14 };
+
+  @Param({ "2", "8" })
+  public int returnPeriods;
+
+  @Param({ "10000" })
+  public int curves;
+
+  private List<Double> targets;
+  private double[][] values;
+
+  @Setup
+  public void setup() {
+    targets = new ArrayList<>();
+    for (int i = 0; i < returnPeriods; i++) {
+      targets.add(1.0 / (100.0 * Math.pow(2.0, i)));
+    }
+    values = new double[curves][];
+    for (int i = 0; i < curves; i++) {
+      double scale = 0.5 + i / (double) curves;
+      double[] curve = new double[RATES.length];
+      for (int j = 0; j < RATES.length; j++) {
+        curve[j] = RATES[j] * scale;
+      }
+      values[i] = curve;
+    }
+  }
+
+  @Benchmark
+  public void curveSlicer(Blackhole bh) {
+    CurveSlicer slicer = new CurveSlicer(IMLS, targets);
+    double[] out = new double[targets.size()];
+    for (double[] curve : values) {
+      slicer.slice(curve, out);
+      bh.consume(out);
+    }
+  }
+
+  @Benchmark
+  public void interpolator(Blackhole bh) {
+    List<Double> imls = Doubles.asList(IMLS);
+    for (double[] curve : values) {
+      List<Double> curveValues = Doubles.asList(curve);
+      for (double target : targets) {
+        bh.consume(INTERPOLATOR.findX(imls, curveValues, target));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,229 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Line-at-a-time CSV writer with fast numeric formatting.
+ *
+ * <p>Fields are appended to a reusable line buffer and written to the
+ * underlying stream, UTF-8 encoded, by {@link #endLine()}. Numbers are
+ * formatted identically to {@code String.format("%.nf")} and
+ * {@code String.format("%.ne")}: both round half-up from the shortest decimal
+ * representation of a value, as {@code Double.toString} produces it.
+ */
+final class CsvWriter implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final Writer writer;
+  private final StringBuilder line = new StringBuilder(256);
+  private char[] chars = new char[256];
+  private final byte[] digits = new byte[32];
+  private int digitCount;
+  private boolean lineStart = true;
+
+  /**
+   * Create a writer.
+   *
+   * @param out destination; closed when this writer is closed
+   */
+  CsvWriter(OutputStream out) {
+    writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8), BUFFER_SIZE);
+  }
+
+  /** Append a field. */
+  CsvWriter add(String value) {
+    delimit();
+    line.append(value);
+    return this;
+  }
+
+  /** Append a field formatted as {@code %.<precision>f}. */
+  CsvWriter addFixed(double value, int precision) {
+    delimit();
+    appendFixed(value, precision);
+    return this;
+  }
+
+  /** Append a field formatted as {@code %.<precision>e}. */
+  CsvWriter addScientific(double value, int precision) {
+    delimit();
+    appendScientific(value, precision);
+    return this;
+  }
+
+  /** Terminate and write the current line. */
+  void endLine() throws IOException {
+    line.append('\n');
+    int length = line.length();
+    if (length > chars.length) {
+      chars = new char[Math.max(length, chars.length * 2)];
+    }
+    line.getChars(0, length, chars, 0);
+    writer.write(chars, 0, length);
+    line.setLength(0);
+    lineStart = true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+
+  private void delimit() {
+    if (!lineStart) {
+      line.append(',');
+    }
+    lineStart = false;
+  }
+
+  /*
+   * Digits of the absolute value of a finite, non-zero value are decoded into
+   * the digit buffer with leading and trailing zeros removed; the returned
+   * decimal point position is the number of digits before the decimal point
+   * in plain notation, and may be negative or exceed the digit count.
+   */
+  private int decode(double value) {
+    String s = Double.toString(Math.abs(value));
+    int length = s.length();
+    int exponent = 0;
+    int mantissaEnd = s.indexOf('E');
+    if (mantissaEnd == -1) {
+      mantissaEnd = length;
+    } else {
+      exponent = Integer.parseInt(s.substring(mantissaEnd + 1));
+    }
+    digitCount = 0;
+    int point = 0;
+    boolean fraction = false;
+    for (int i = 0; i < mantissaEnd; i++) {
+      char c = s.charAt(i);
+      if (c == '.') {
+        fraction = true;
+        continue;
+      }
+      if (digitCount == 0 && c == '0') {
+        if (fraction) {
+          point--;
+        }
+        continue;
+      }
+      digits[digitCount++] = (byte) (c - '0');
+      if (!fraction) {
+        point++;
+      }
+    }
+    while (digitCount > 0 && digits[digitCount - 1] == 0) {
+      digitCount--;
+    }
+    return point + exponent;
+  }
+
+  /*
+   * Round the decoded digits half-up to the supplied number of digits,
+   * returning 1 if rounding carried into a new leading digit, else 0.
+   */
+  private int round(int keep) {
+    if (keep < 0) {
+      digitCount = 0;
+      return 0;
+    }
+    if (keep >= digitCount) {
+      return 0;
+    }
+    boolean up = digits[keep] >= 5;
+    digitCount = keep;
+    if (!up) {
+      return 0;
+    }
+    for (int i = keep - 1; i >= 0; i--) {
+      if (++digits[i] < 10) {
+        return 0;
+      }
+      digits[i] = 0;
+    }
+    /* all digits carried, or none kept */
+    System.arraycopy(digits, 0, digits, 1, digitCount);
+    digits[0] = 1;
+    digitCount++;
+    return 1;
+  }
+
+  private int digit(int index) {
+    return (index >= 0 && index < digitCount) ? digits[index] : 0;
+  }
+
+  private boolean appendSpecial(double value) {
+    if (Double.isNaN(value)) {
+      line.append("NaN");
+      return true;
+    }
+    if (Double.isInfinite(value)) {
+      line.append(value > 0 ? "Infinity" : "-Infinity");
+      return true;
+    }
+    if (Double.doubleToRawLongBits(value) < 0) {
+      line.append('-');
+    }
+    return false;
+  }
+
+  private void appendFixed(double value, int precision) {
+    if (appendSpecial(value)) {
+      return;
+    }
+    int point = 0;
+    digitCount = 0;
+    if (value != 0.0) {
+      point = decode(value);
+      point += round(point + precision);
+    }
+    if (point <= 0) {
+      line.append('0');
+    } else {
+      for (int i = 0; i < point; i++) {
+        line.append((char) ('0' + digit(i)));
+      }
+    }
+    if (precision > 0) {
+      line.append('.');
+      for (int i = point; i < point + precision; i++) {
+        line.append((char) ('0' + digit(i)));
+      }
+    }
+  }
+
+  private void appendScientific(double value, int precision) {
+    if (appendSpecial(value)) {
+      return;
+    }
+    int exponent = 0;
+    digitCount = 0;
+    if (value != 0.0) {
+      int point = decode(value);
+      point += round(precision + 1);
+      exponent = point - 1;
+    }
+    line.append((char) ('0' + digit(0)));
+    if (precision > 0) {
+      line.append('.');
+      for (int i = 1; i <= precision; i++) {
+        line.append((char) ('0' + digit(i)));
+      }
+    }
+    line.append(exponent < 0 ? "e-" : "e+");
+    int magnitude = Math.abs(exponent);
+    if (magnitude < 10) {
+      line.append('0');
+    }
+    line.append(magnitude);
+  }
+
+}
@@ -0,0 +1,329 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming reader of nshmp-haz {@code curves.csv} files.
+ *
+ * <p>Files consist of optional '#' comment lines, a header of three site
+ * columns (name, lon, and lat, in any order) followed by the curve ground
+ * motions (IMLs), and one row per site of the site columns followed by the
+ * curve values. Rows are tokenized directly from bytes and their values parsed
+ * into primitive buffers that are reused from row to row, so memory use is
+ * independent of file size. Only {@link #name} is allocated per row.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ * try (CurvesReader reader = new CurvesReader(input)) {
+ *   while (reader.next()) {
+ *     // use reader.name, reader.lon, reader.lat, reader.values
+ *   }
+ * }
+ * </pre>
+ */
+final class CurvesReader implements Closeable {
+
+  static final int SITE_COLUMNS = 3;
+
+  static final String NAME = "name";
+  static final String LON = "lon";
+  static final String LAT = "lat";
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /* Exactly representable powers of ten for the fast parsing path. */
+  private static final double[] POW10 = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  private final InputStream in;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private int limit;
+
+  private byte[] token = new byte[64];
+  private int tokenLength;
+
+  /* Index of each site column; -1 if absent. */
+  private final int nameIndex;
+  private final int lonIndex;
+  private final int latIndex;
+
+  /** Curve ground motions from the header. */
+  final double[] imls;
+
+  /** Site name of the current row; {@code null} if absent. */
+  String name;
+
+  /** Site longitude of the current row. */
+  double lon;
+
+  /** Site latitude of the current row. */
+  double lat;
+
+  /** Curve values of the current row; reused from row to row. */
+  final double[] values;
+
+  private int row;
+
+  /**
+   * Create a reader, consuming any leading comments and the header.
+   *
+   * @param in curves file input; closed when this reader is closed
+   * @throws IllegalStateException if the header is missing or malformed
+   */
+  CurvesReader(InputStream in) throws IOException {
+    this.in = in;
+
+    int first = startLine();
+    if (first == -1) {
+      throw new IllegalStateException("Curve file is empty");
+    }
+
+    int[] indices = { -1, -1, -1 };
+    int delimiter = token(first);
+    for (int i = 0; i < SITE_COLUMNS; i++) {
+      String key = new String(token, 0, tokenLength, UTF_8).trim();
+      switch (key) {
+        case NAME:
+          indices[0] = i;
+          break;
+        case LON:
+          indices[1] = i;
+          break;
+        case LAT:
+          indices[2] = i;
+          break;
+        default:
+          throw new IllegalStateException("Unsupported site key: " + key);
+      }
+      if (delimiter != ',') {
+        throw new IllegalStateException("Curve file header has no IMLs");
+      }
+      delimiter = token(read());
+    }
+    nameIndex = indices[0];
+    lonIndex = indices[1];
+    latIndex = indices[2];
+    if (lonIndex == -1 || latIndex == -1) {
+      throw new IllegalStateException("Curve file header missing lon or lat");
+    }
+
+    double[] imls = new double[16];
+    int count = 0;
+    for (;;) {
+      if (count == imls.length) {
+        imls = Arrays.copyOf(imls, count * 2);
+      }
+      imls[count++] = parseToken();
+      if (delimiter != ',') {
+        break;
+      }
+      delimiter = token(read());
+    }
+    this.imls = Arrays.copyOf(imls, count);
+    this.values = new double[count];
+  }
+
+  /**
+   * Advance to the next row.
+   *
+   * @return {@code false} at the end of the file
+   * @throws IllegalStateException if the row is malformed
+   */
+  boolean next() throws IOException {
+    int first = startLine();
+    if (first == -1) {
+      return false;
+    }
+    row++;
+    name = null;
+
+    int delimiter = token(first);
+    for (int i = 0; i < SITE_COLUMNS; i++) {
+      if (i == nameIndex) {
+        name = new String(token, 0, tokenLength, UTF_8);
+      } else if (i == lonIndex) {
+        lon = parseToken();
+      } else {
+        lat = parseToken();
+      }
+      checkDelimiter(delimiter);
+      delimiter = token(read());
+    }
+    for (int i = 0; i < values.length; i++) {
+      values[i] = parseToken();
+      if (i < values.length - 1) {
+        checkDelimiter(delimiter);
+        delimiter = token(read());
+      }
+    }
+    if (delimiter == ',') {
+      throw new IllegalStateException("Too many values in curve file row " + row);
+    }
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private void checkDelimiter(int delimiter) {
+    if (delimiter != ',') {
+      throw new IllegalStateException("Too few values in curve file row " + row);
+    }
+  }
+
+  private int read() throws IOException {
+    if (position == limit) {
+      limit = in.read(buffer, 0, buffer.length);
+      position = 0;
+      if (limit <= 0) {
+        limit = 0;
+        return -1;
+      }
+    }
+    return buffer[position++] & 0xff;
+  }
+
+  /* Skip blank and comment lines; return the first byte of a row or -1. */
+  private int startLine() throws IOException {
+    for (;;) {
+      int b = read();
+      if (b == '\n' || b == '\r') {
+        continue;
+      }
+      if (b == '#') {
+        while ((b = read()) != '\n' && b != -1) {}
+        continue;
+      }
+      return b;
+    }
+  }
+
+  /*
+   * Read a token starting with the supplied byte into the token buffer,
+   * returning the terminating delimiter: ',', '\n', or -1 at end of file.
+   * Carriage returns are ignored.
+   */
+  private int token(int b) throws IOException {
+    tokenLength = 0;
+    for (;; b = read()) {
+      if (b == ',' || b == '\n' || b == -1) {
+        return b;
+      }
+      if (b == '\r') {
+        continue;
+      }
+      if (tokenLength == token.length) {
+        token = Arrays.copyOf(token, tokenLength * 2);
+      }
+      token[tokenLength++] = (byte) b;
+    }
+  }
+
+  private double parseToken() {
+    try {
+      return parseDouble(token, 0, tokenLength);
+    } catch (NumberFormatException e) {
+      throw new IllegalStateException(
+          "Invalid number in curve file row " + row + ": " +
+              new String(token, 0, tokenLength, ISO_8859_1),
+          e);
+    }
+  }
+
+  /**
+   * Parse a decimal number from ASCII bytes. Numbers with at most 15
+   * significant digits and a decimal exponent within ±22, which includes all
+   * nshmp-haz curve output, are converted exactly with a single floating
+   * point operation; all others are delegated to
+   * {@link Double#parseDouble(String)}. Results are identical to
+   * {@code Double.parseDouble} in all cases.
+   */
+  static double parseDouble(byte[] bytes, int offset, int length) {
+    int i = offset;
+    int end = offset + length;
+    boolean negative = false;
+    if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+      negative = bytes[i] == '-';
+      i++;
+    }
+
+    long mantissa = 0;
+    int exponent = 0;
+    int digits = 0;
+    boolean anyDigits = false;
+    boolean decimal = false;
+    for (; i < end; i++) {
+      int b = bytes[i];
+      if (b >= '0' && b <= '9') {
+        anyDigits = true;
+        if (mantissa != 0 || b != '0') {
+          digits++;
+        }
+        if (digits > 15) {
+          return slowParse(bytes, offset, length);
+        }
+        mantissa = mantissa * 10 + (b - '0');
+        if (decimal) {
+          exponent--;
+        }
+      } else if (b == '.' && !decimal) {
+        decimal = true;
+      } else {
+        break;
+      }
+    }
+    if (!anyDigits) {
+      return slowParse(bytes, offset, length);
+    }
+
+    if (i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+      i++;
+      boolean negativeExponent = false;
+      if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+        negativeExponent = bytes[i] == '-';
+        i++;
+      }
+      int exponentValue = 0;
+      int exponentDigits = 0;
+      for (; i < end; i++) {
+        int b = bytes[i];
+        if (b < '0' || b > '9' || exponentDigits > 4) {
+          return slowParse(bytes, offset, length);
+        }
+        exponentValue = exponentValue * 10 + (b - '0');
+        exponentDigits++;
+      }
+      if (exponentDigits == 0) {
+        return slowParse(bytes, offset, length);
+      }
+      exponent += negativeExponent ? -exponentValue : exponentValue;
+    }
+    if (i != end || mantissa >= MAX_EXACT_MANTISSA ||
+        exponent < -22 || exponent > 22) {
+      return slowParse(bytes, offset, length);
+    }
+
+    double value = (exponent < 0)
+        ? mantissa / POW10[-exponent]
+        : mantissa * POW10[exponent];
+    return negative ? -value : value;
+  }
+
+  private static double slowParse(byte[] bytes, int offset, int length) {
+    return Double.parseDouble(new String(bytes, offset, length, ISO_8859_1).trim());
+  }
+
+}
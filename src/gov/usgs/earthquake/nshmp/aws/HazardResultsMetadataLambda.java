@@ -1,32 +1,42 @@
 package gov.usgs.earthquake.nshmp.aws;
 
 import static gov.usgs.earthquake.nshmp.aws.Util.CURVES_FILE;
+import static gov.usgs.earthquake.nshmp.aws.Util.DATE_FMT;
+import static gov.usgs.earthquake.nshmp.aws.Util.GSON;
 import static gov.usgs.earthquake.nshmp.aws.Util.MAP_FILE;
-import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON;
+import static gov.usgs.earthquake.nshmp.aws.Util.errorMessage;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URLDecoder;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.Collectors;
 
+import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
+import com.amazonaws.services.lambda.model.Concurrency;
+import com.amazonaws.services.lambda.model.GetFunctionRequest;
+import com.amazonaws.services.lambda.model.GetFunctionResult;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
-import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.ListObjectsV2Request;
-import com.amazonaws.services.s3.model.ListObjectsV2Result;
-import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.google.common.base.Enums;
+import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 
 import gov.usgs.earthquake.nshmp.aws.Util.LambdaHelper;
 import gov.usgs.earthquake.nshmp.calc.DataType;
@@ -35,24 +45,54 @@ import gov.usgs.earthquake.nshmp.gmm.Gmm;
 import gov.usgs.earthquake.nshmp.gmm.Imt;
 import gov.usgs.earthquake.nshmp.internal.Parsing;
 import gov.usgs.earthquake.nshmp.internal.Parsing.Delimiter;
-import gov.usgs.earthquake.nshmp.www.ServletUtil;
-import gov.usgs.earthquake.nshmp.www.meta.Metadata;
 import gov.usgs.earthquake.nshmp.www.meta.Status;
 
 /**
  * AWS Lambda function to list all hazard results in the nshmp-hazout S3 bucket
  * that contain a map.csv file.
+ *
+ * <p>The listing is persisted as an index alongside the results metadata. When
+ * invoked with S3 object created and removed notifications for the results
+ * bucket, the stored index is patched with the affected curves.csv and map.csv
+ * keys and the metadata regenerated from it, without listing the bucket. Any
+ * other invocation, such as a scheduled one, rebuilds the index from a full
+ * listing.
+ *
+ * <p>S3 does not deliver notifications in order, so the index records the
+ * sequencer of the latest event applied to each key and ignores older events.
+ * Because notifications patch the index with read-modify-write, they are only
+ * applied when the function has a reserved concurrency of one; otherwise each
+ * notification triggers a full rebuild. Checking the reserved concurrency
+ * requires {@code lambda:GetFunction} permission on the function. With
+ * {@link LocalStorage} there is no function to check and notifications are
+ * always applied.
+ *
+ * <p>In both modes, the users listed are those with at least one indexed
+ * curves.csv or map.csv result.
  */
 @SuppressWarnings("unused")
 public class HazardResultsMetadataLambda implements RequestStreamHandler {
 
-  private static final AmazonS3 S3 = AmazonS3ClientBuilder.defaultClient();
+  private static final ObjectStorage STORAGE = ObjectStorage.fromEnvironment();
+  private static final PartitionedListing LISTING = new PartitionedListing(
+      STORAGE,
+      PartitionedListing.DEFAULT_DEPTH);
 
   private static final int IMT_DIR_BACK_FROM_TOTAL = 2;
   private static final int IMT_DIR_BACK_FROM_SOURCE = 4;
   private static final String S3_BUCKET = "nshmp-hazout";
   private static final String RESULT_BUCKET = "nshmp-haz-lambda";
   private static final String RESULT_KEY = "nshmp-haz-aws-results-metadata.json";
+  private static final String INDEX_KEY = "nshmp-haz-aws-results-index.json";
+
+  /* S3 event notification fields. */
+  private static final String RECORDS = "Records";
+  private static final String OBJECT_CREATED = "ObjectCreated:";
+  private static final String OBJECT_REMOVED = "ObjectRemoved:";
+  private static final String SEQUENCER = "sequencer";
+
+  /* Whether this function has a single writer; checked once per container. */
+  private static Boolean singleWriter;
 
   @Override
   public void handleRequest(
@@ -62,72 +102,184 @@ public class HazardResultsMetadataLambda implements RequestStreamHandler {
     LambdaHelper lambdaHelper = new LambdaHelper(input, output, context);
 
     try {
-      Response response = processRequest();
+      Response response = lambdaHelper.requestJson.has(RECORDS)
+          ? processEvents(lambdaHelper)
+          : processRequest();
       String json = GSON.toJson(response, Response.class);
       uploadResults(json);
       output.write(json.getBytes());
       output.close();
     } catch (Exception e) {
       lambdaHelper.logger.log("\nError: " + Throwables.getStackTraceAsString(e) + "\n\n");
-      String message = Metadata.errorMessage("", e, false);
+      String message = errorMessage("", e);
       output.write(message.getBytes());
     }
   }
 
-  private static Response processRequest() {
-    Map<String, CurvesMapResult> curvesMapResults = new HashMap<>();
-    Set<String> users = getUsers();
+  /* Rebuild the index from a full listing of the results bucket. */
+  private static Response processRequest() throws IOException {
+    ResultsIndex index = new ResultsIndex();
+    index.curves.addAll(listObjects(CURVES_FILE));
+    index.map.addAll(listObjects(MAP_FILE));
+    uploadIndex(index);
+    return createResponse(index);
+  }
 
-    for (String file : new String[] { CURVES_FILE, MAP_FILE }) {
-      List<HazardResults> hazardResults = listObjects(users, file);
-      CurvesMapResult result = new CurvesMapResult(users, hazardResults);
-      curvesMapResults.put(file, result);
+  /*
+   * Patch the stored index with S3 object created and removed notifications,
+   * falling back to a full rebuild if there is no stored index or the index
+   * may have more than one writer.
+   */
+  private static Response processEvents(LambdaHelper lambdaHelper) throws IOException {
+    if (!isSingleWriter(lambdaHelper)) {
+      lambdaHelper.logger.log("Reserved concurrency is not one; rebuilding\n");
+      return processRequest();
+    }
+    if (!STORAGE.exists(RESULT_BUCKET, INDEX_KEY)) {
+      lambdaHelper.logger.log("No results index; rebuilding\n");
+      return processRequest();
+    }
+    ResultsIndex index;
+    try (Reader reader = new InputStreamReader(STORAGE.get(RESULT_BUCKET, INDEX_KEY), UTF_8)) {
+      index = GSON.fromJson(reader, ResultsIndex.class);
     }
 
-    Result result = new Result(curvesMapResults.get(CURVES_FILE), curvesMapResults.get(MAP_FILE));
-    return new Response(result);
-  }
-
-  private static List<HazardResults> listObjects(Set<String> users, String file) {
-    ListObjectsV2Request request = new ListObjectsV2Request()
-        .withBucketName(S3_BUCKET)
-        .withDelimiter(file);
-    ListObjectsV2Result s3Result;
-    List<S3Listing> s3Listings = new ArrayList<>();
+    int changes = 0;
+    boolean modified = false;
+    for (JsonElement element : lambdaHelper.requestJson.getAsJsonArray(RECORDS)) {
+      JsonObject record = element.getAsJsonObject();
+      String event = record.get("eventName").getAsString();
+      JsonObject s3 = record.getAsJsonObject("s3");
+      String bucket = s3.getAsJsonObject("bucket").get("name").getAsString();
+      JsonObject object = s3.getAsJsonObject("object");
+      String key = URLDecoder.decode(object.get("key").getAsString(), UTF_8.name());
+      String sequencer = object.has(SEQUENCER) ? object.get(SEQUENCER).getAsString() : null;
+      if (!S3_BUCKET.equals(bucket)) {
+        continue;
+      }
+      Set<String> keys = key.endsWith(CURVES_FILE)
+          ? index.curves
+          : key.endsWith(MAP_FILE) ? index.map : null;
+      if (keys == null) {
+        continue;
+      }
+      String latest = index.sequencers.get(key);
+      if (sequencer != null && latest != null && compareSequencers(sequencer, latest) <= 0) {
+        lambdaHelper.logger.log("Skipping out of order event: " + event + " " + key + "\n");
+        continue;
+      }
+      if (event.startsWith(OBJECT_CREATED)) {
+        try {
+          keyToHazardListing(key);
+        } catch (RuntimeException e) {
+          lambdaHelper.logger.log("Skipping unsupported result: " + key + "\n");
+          continue;
+        }
+        changes += keys.add(key) ? 1 : 0;
+      } else if (event.startsWith(OBJECT_REMOVED)) {
+        changes += keys.remove(key) ? 1 : 0;
+      } else {
+        continue;
+      }
+      if (sequencer != null) {
+        index.sequencers.put(key, sequencer);
+        modified = true;
+      }
+    }
 
-    do {
-      s3Result = S3.listObjectsV2(request);
-      s3Result.getCommonPrefixes()
-          .stream()
-          .map(key -> keyToHazardListing(key))
-          .forEach(listing -> s3Listings.add(listing));
+    lambdaHelper.logger.log("Results index changes: " + changes + "\n");
+    if (changes > 0 || modified) {
+      uploadIndex(index);
+    }
+    return createResponse(index);
+  }
 
-      request.setContinuationToken(s3Result.getNextContinuationToken());
-    } while (s3Result.isTruncated());
+  /*
+   * S3 sequencers are hexadecimal strings of varying length that are
+   * compared after right-padding the shorter with zeros.
+   */
+  static int compareSequencers(String s1, String s2) {
+    int length = Math.max(s1.length(), s2.length());
+    return Strings.padEnd(s1, length, '0').compareTo(Strings.padEnd(s2, length, '0'));
+  }
 
-    return transformS3Listing(users, s3Listings);
+  /*
+   * Read-modify-write of the index is only safe with a single writer, which
+   * requires a reserved concurrency of one. A failed check is not cached.
+   * Local storage is written by a single process, so is not checked.
+   */
+  private static boolean isSingleWriter(LambdaHelper lambdaHelper) {
+    if (STORAGE instanceof LocalStorage) {
+      return true;
+    }
+    if (singleWriter == null) {
+      try {
+        GetFunctionResult function = AWSLambdaClientBuilder.defaultClient().getFunction(
+            new GetFunctionRequest().withFunctionName(lambdaHelper.context.getFunctionName()));
+        Concurrency concurrency = function.getConcurrency();
+        singleWriter = concurrency != null &&
+            Integer.valueOf(1).equals(concurrency.getReservedConcurrentExecutions());
+      } catch (RuntimeException e) {
+        lambdaHelper.logger.log("Unable to check reserved concurrency: " + e + "\n");
+        return false;
+      }
+    }
+    return singleWriter;
   }
 
-  private static List<HazardResults> transformS3Listing(Set<String> users, List<S3Listing> s3Listings) {
-    List<HazardResults> hazardResults = new ArrayList<>();
+  private static Response createResponse(ResultsIndex index) {
+    Set<String> users = new TreeSet<>();
+    users.addAll(users(index.curves));
+    users.addAll(users(index.map));
+    CurvesMapResult curves = new CurvesMapResult(users, transformKeys(users, index.curves));
+    CurvesMapResult map = new CurvesMapResult(users, transformKeys(users, index.map));
+    return new Response(new Result(curves, map));
+  }
 
-    users.forEach(user -> {
-      TreeSet<String> resultDirectories = s3Listings.stream()
-          .filter(listing -> listing.user.equals(user))
-          .map(listing -> listing.resultPrefix)
-          .collect(Collectors.toCollection(TreeSet::new));
+  private static Set<String> listObjects(String file) throws IOException {
+    Queue<String> keys = new ConcurrentLinkedQueue<>();
+    LISTING.forEachPrefix(S3_BUCKET, "", file, keys::add);
+    return new TreeSet<>(keys);
+  }
 
-      resultDirectories.forEach(resultPrefix -> {
-        List<S3Listing> s3Filteredlistings = s3Listings.parallelStream()
-            .filter(listing -> listing.user.equals(user))
-            .filter(listing -> listing.resultPrefix.equals(resultPrefix))
-            .collect(Collectors.toList());
+  static List<HazardResults> transformKeys(Set<String> users, Set<String> keys) {
+    List<S3Listing> s3Listings = keys.stream()
+        .map(key -> keyToHazardListing(key))
+        .collect(Collectors.toList());
+    return transformS3Listing(users, s3Listings);
+  }
 
-        List<HazardListing> listings = s3Filteredlistings.parallelStream()
-            .map(listing -> s3ListingToHazardListing(listing))
-            .collect(Collectors.toList());
+  /*
+   * Listings are grouped by user and then result prefix in a single pass;
+   * results are ordered by user and result prefix and listings retain their
+   * listing order.
+   */
+  static List<HazardResults> transformS3Listing(
+      Set<String> users,
+      List<S3Listing> s3Listings) {
+
+    Map<String, Map<String, List<S3Listing>>> index = new HashMap<>();
+    for (S3Listing listing : s3Listings) {
+      index.computeIfAbsent(listing.user, user -> new TreeMap<>())
+          .computeIfAbsent(listing.resultPrefix, prefix -> new ArrayList<>())
+          .add(listing);
+    }
 
-        S3Listing s3Listing = s3Filteredlistings.get(0);
+    List<HazardResults> hazardResults = new ArrayList<>();
+    for (String user : users) {
+      Map<String, List<S3Listing>> userIndex = index.get(user);
+      if (userIndex == null) {
+        continue;
+      }
+      for (Entry<String, List<S3Listing>> entry : userIndex.entrySet()) {
+        String resultPrefix = entry.getKey();
+        List<S3Listing> s3FilteredListings = entry.getValue();
+        List<HazardListing> listings = new ArrayList<>(s3FilteredListings.size());
+        for (S3Listing listing : s3FilteredListings) {
+          listings.add(s3ListingToHazardListing(listing));
+        }
+
+        S3Listing s3Listing = s3FilteredListings.get(0);
         String path = s3Listing.path.split(resultPrefix)[0];
         String s3Path = s3Listing.user + "/" + path + resultPrefix;
 
@@ -137,8 +289,8 @@ public class HazardResultsMetadataLambda implements RequestStreamHandler {
             resultPrefix,
             s3Path,
             listings));
-      });
-    });
+      }
+    }
 
     return hazardResults;
   }
@@ -147,7 +299,7 @@ public class HazardResultsMetadataLambda implements RequestStreamHandler {
     return new HazardListing(s3Listing.dataType, s3Listing.path, s3Listing.file);
   }
 
-  private static S3Listing keyToHazardListing(String key) {
+  static S3Listing keyToHazardListing(String key) {
     List<String> keys = Parsing.splitToList(key, Delimiter.SLASH);
     HazardDataType<?> dataType = getDataType(keys);
     String user = keys.get(0);
@@ -159,16 +311,10 @@ public class HazardResultsMetadataLambda implements RequestStreamHandler {
     return new S3Listing(user, S3_BUCKET, path, file, dataType);
   }
 
-  private static Set<String> getUsers() {
-    ListObjectsV2Request request = new ListObjectsV2Request()
-        .withBucketName(S3_BUCKET)
-        .withDelimiter("/");
-
-    ListObjectsV2Result listing = S3.listObjectsV2(request);
-
-    return listing.getCommonPrefixes().stream()
-        .map(prefix -> prefix.replace("/", ""))
-        .collect(Collectors.toCollection(TreeSet::new));
+  private static Set<String> users(Set<String> keys) {
+    return keys.stream()
+        .map(key -> key.substring(0, key.indexOf('/')))
+        .collect(Collectors.toSet());
   }
 
   private static HazardDataType<?> getDataType(List<String> keys) {
@@ -199,20 +345,13 @@ public class HazardResultsMetadataLambda implements RequestStreamHandler {
     return dataType;
   }
 
-  private static void uploadResults(String results) {
-    byte[] bytes = results.getBytes();
-    ByteArrayInputStream input = new ByteArrayInputStream(bytes);
-    ObjectMetadata metadata = new ObjectMetadata();
-    metadata.setContentLength(bytes.length);
-    metadata.setContentType("application/json");
-
-    PutObjectRequest request = new PutObjectRequest(
-        RESULT_BUCKET,
-        RESULT_KEY,
-        input,
-        metadata);
+  private static void uploadResults(String results) throws IOException {
+    STORAGE.put(RESULT_BUCKET, RESULT_KEY, results.getBytes(), "application/json");
+  }
 
-    S3.putObject(request);
+  private static void uploadIndex(ResultsIndex index) throws IOException {
+    byte[] json = GSON.toJson(index).getBytes(UTF_8);
+    STORAGE.put(RESULT_BUCKET, INDEX_KEY, json, "application/json");
   }
 
   static class HazardDataType<E extends Enum<E>> {
@@ -229,7 +368,19 @@ public class HazardResultsMetadataLambda implements RequestStreamHandler {
     }
   }
 
-  private static class HazardResults {
+  /*
+   * Persisted listing of result files, keyed as listed with the file name as
+   * delimiter. Sequencers are those of the latest event applied to each key,
+   * including removed keys; a full rebuild clears them. Users are derived from
+   * keys and are not persisted.
+   */
+  private static class ResultsIndex {
+    TreeSet<String> curves = new TreeSet<>();
+    TreeSet<String> map = new TreeSet<>();
+    TreeMap<String, String> sequencers = new TreeMap<>();
+  }
+
+  static class HazardResults {
     final String user;
     final String bucket;
     final String resultPrefix;
@@ -250,7 +401,7 @@ public class HazardResultsMetadataLambda implements RequestStreamHandler {
     }
   }
 
-  private static class HazardListing {
+  static class HazardListing {
     final HazardDataType<?> dataType;
     final String file;
     final String path;
@@ -262,7 +413,7 @@ public class HazardResultsMetadataLambda implements RequestStreamHandler {
     }
   }
 
-  private static class S3Listing {
+  static class S3Listing {
     final String user;
     final String bucket;
     final String path;
@@ -307,7 +458,7 @@ public class HazardResultsMetadataLambda implements RequestStreamHandler {
 
     Response(Result result) {
       status = Status.SUCCESS.toString();
-      date = ZonedDateTime.now().format(ServletUtil.DATE_FMT);
+      date = ZonedDateTime.now().format(DATE_FMT);
       this.result = result;
     }
   }
@@ -1,7 +1,9 @@
 package gov.usgs.earthquake.nshmp.aws;
 
 import static gov.usgs.earthquake.nshmp.aws.Util.CURVES_FILE;
-import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON;
+import static gov.usgs.earthquake.nshmp.aws.Util.DATE_FMT;
+import static gov.usgs.earthquake.nshmp.aws.Util.GSON;
+import static gov.usgs.earthquake.nshmp.aws.Util.errorMessage;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -10,52 +12,51 @@ import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
-import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
-import com.amazonaws.services.ec2.model.DescribeInstancesResult;
-import com.amazonaws.services.ec2.model.Instance;
-import com.amazonaws.services.ec2.model.Reservation;
-import com.amazonaws.services.lambda.AWSLambda;
-import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
-import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.AWSLambdaAsync;
+import com.amazonaws.services.lambda.AWSLambdaAsyncClientBuilder;
 import com.amazonaws.services.lambda.model.InvokeResult;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
-import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.ObjectListing;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Strings;
+import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
 
 import gov.usgs.earthquake.nshmp.aws.Util.LambdaHelper;
 import gov.usgs.earthquake.nshmp.internal.Parsing;
 import gov.usgs.earthquake.nshmp.internal.Parsing.Delimiter;
-import gov.usgs.earthquake.nshmp.www.ServletUtil;
-import gov.usgs.earthquake.nshmp.www.meta.Metadata;
 import gov.usgs.earthquake.nshmp.www.meta.Status;
 
 /**
  * AWS Lambda function to read in hazard results from S3 and to create slices of
  * return periods of interest.
+ *
+ * <p>Each result directory is sliced by an invocation of the slice lambda.
+ * With {@link LocalStorage}, the slice lambda is invoked in-process by a
+ * {@link LocalLambdaClient}, so the full pipeline runs without AWS; the AWS
+ * Lambda client is otherwise created on first use.
  * 
  * @see HazardResultSliceLambda
  */
 @SuppressWarnings("unused")
 public class HazardResultsSlicerLambda implements RequestStreamHandler {
 
-  private static final AmazonS3 S3 = AmazonS3ClientBuilder.defaultClient();
-  private static final AmazonEC2 EC2 = AmazonEC2ClientBuilder.defaultClient();
-  private static final AWSLambda LAMBDA_CLIENT = AWSLambdaClientBuilder.defaultClient();
+  private static final ObjectStorage STORAGE = ObjectStorage.fromEnvironment();
+  private static final PartitionedListing LISTING = new PartitionedListing(
+      STORAGE,
+      PartitionedListing.DEFAULT_DEPTH);
+  private static final Supplier<AWSLambdaAsync> LAMBDA_CLIENT =
+      Suppliers.memoize(AWSLambdaAsyncClientBuilder::defaultClient);
 
   private static final String LAMBDA_CALL = "nshmp-haz-result-slice";
-  private static final String ZIP_LAMBDA_CALL = "nshmp-haz-zip-results";
-  private static final String INSTANCE_STATUS = "terminated";
 
-  private static final int MAX_INSTANCE_CHECK = 100;
-  private static final int INSTANCE_CHECK_TIMEOUT = 10 * 1000;
+  /* Environment variable limiting concurrent slice lambda invocations. */
+  private static final String CONCURRENCY_VARIABLE = "NSHMP_SLICE_CONCURRENCY";
 
   @Override
   public void handleRequest(
@@ -75,7 +76,7 @@ public class HazardResultsSlicerLambda implements RequestStreamHandler {
       output.write(GSON.toJson(response, Response.class).getBytes());
     } catch (Exception e) {
       lambdaHelper.logger.log("\nError: " + Throwables.getStackTraceAsString(e) + "\n\n");
-      String message = Metadata.errorMessage(requestBucket, e, false);
+      String message = errorMessage(requestBucket, e);
       output.write(message.getBytes());
     }
   }
@@ -83,60 +84,54 @@ public class HazardResultsSlicerLambda implements RequestStreamHandler {
   private static Response processRequest(
       LambdaHelper lambdaHelper,
       RequestData request) throws IOException, InterruptedException {
-    ObjectListing objectListing = S3.listObjects(request.bucket, request.key);
-    List<CompletableFuture<Void>> futures = new ArrayList<>();
-
-    objectListing.getObjectSummaries()
-        .parallelStream()
-        .filter(summary -> summary.getKey().endsWith(CURVES_FILE))
-        .forEach(summary -> {
-          String name = summary.getKey();
-          lambdaHelper.logger.log("Reading: " + name + "\n");
-          try {
-            futures.add(processCurveFile(request, lambdaHelper, name));
-          } catch (IOException e) {
-            throw new RuntimeException(e);
-          }
-        });
-
-    futures.forEach(CompletableFuture::join);
-    lambdaHelper.logger.log("Zipping results");
-    zipResults(request);
-    return new Response(request);
-  }
-
-  private static CompletableFuture<Void> processCurveFile(
-      RequestData request,
-      LambdaHelper lambdaHelper,
-      String curvesPath) throws IOException {
-    return readCurveFile(request, curvesPath)
-        .thenAcceptAsync(result -> {
-          checkLambdaResponse(result);
-        });
+    Queue<HazardResultSliceLambda.RequestData> requests = new ConcurrentLinkedQueue<>();
+    LISTING.forEachKey(request.bucket, request.key, key -> {
+      if (key.endsWith(CURVES_FILE)) {
+        requests.add(sliceRequest(request, key));
+      }
+    });
+    List<HazardResultSliceLambda.RequestData> sliceRequests = new ArrayList<>(requests);
+
+    lambdaHelper.logger.log("Slicing " + sliceRequests.size() + " result directories\n");
+    Stopwatch timer = Stopwatch.createStarted();
+    new SliceFanOut(lambdaClient(lambdaHelper), LAMBDA_CALL, maxConcurrency(), lambdaHelper.logger)
+        .invokeAll(sliceRequests);
+    lambdaHelper.logger.log("Slicing complete: " + timer + "\n");
+
+    lambdaHelper.logger.log("Zipping results\n");
+    timer.reset().start();
+    String zipKey = new ResultsZipper(STORAGE, LISTING).zip(request.bucket, request.key);
+    lambdaHelper.logger.log("Zip complete: " + timer + "\n");
+    return new Response(request, zipKey);
   }
 
-  private static CompletableFuture<InvokeResult> readCurveFile(
+  private static HazardResultSliceLambda.RequestData sliceRequest(
       RequestData request,
-      String curvesPath) throws IOException {
+      String curvesPath) {
     List<String> names = Arrays.stream(curvesPath.split("/"))
         .collect(Collectors.toList());
     names.remove(names.size() - 1);
     String key = Parsing.join(names, Delimiter.SLASH);
 
-    HazardResultSliceLambda.RequestData lambdaRequest = HazardResultSliceLambda.RequestData
+    return HazardResultSliceLambda.RequestData
         .builder()
         .bucket(request.bucket)
         .key(key)
         .slices(request.slices)
         .build();
+  }
 
-    InvokeRequest invokeRequest = new InvokeRequest()
-        .withFunctionName(LAMBDA_CALL)
-        .withPayload(GSON.toJson(lambdaRequest));
+  private static AWSLambdaAsync lambdaClient(LambdaHelper lambdaHelper) {
+    return (STORAGE instanceof LocalStorage)
+        ? new LocalLambdaClient(new HazardResultSliceLambda(), LAMBDA_CALL, lambdaHelper.logger)
+        : LAMBDA_CLIENT.get();
+  }
 
-    return CompletableFuture.supplyAsync(() -> {
-      return LAMBDA_CLIENT.invoke(invokeRequest);
-    });
+  private static int maxConcurrency() {
+    String concurrency = System.getenv(CONCURRENCY_VARIABLE);
+    return Strings.isNullOrEmpty(concurrency)
+        ? SliceFanOut.DEFAULT_MAX_CONCURRENCY
+        : Integer.parseInt(concurrency);
   }
 
   private static void checkRequest(RequestData request) {
@@ -154,54 +149,20 @@ public class HazardResultsSlicerLambda implements RequestStreamHandler {
   }
 
   private static void checkBucket(RequestData request) {
-    if (!S3.doesBucketExistV2(request.bucket)) {
+    if (!STORAGE.bucketExists(request.bucket)) {
       throw new RuntimeException(String.format("S3 bucket [%s] does not exist", request.bucket));
     }
   }
 
-  private static void zipResults(RequestData request) throws InterruptedException {
-    InvokeRequest invokeRequest = new InvokeRequest()
-        .withFunctionName(ZIP_LAMBDA_CALL)
-        .withPayload(GSON.toJson(request));
-
-    InvokeResult result = LAMBDA_CLIENT.invoke(invokeRequest);
-    checkLambdaResponse(result);
-
-    ZipResultsResponse response = GSON.fromJson(
-        new String(result.getPayload().array()),
-        ZipResultsResponse.class);
-
-    waitForInstance(response);
-  }
-
-  private static void waitForInstance(ZipResultsResponse response) throws InterruptedException {
-    for (int ii = 0; ii < MAX_INSTANCE_CHECK; ii++) {
-      DescribeInstancesRequest request = new DescribeInstancesRequest()
-          .withInstanceIds(response.result.instanceId);
-
-      DescribeInstancesResult instances = EC2.describeInstances(request);
-      if (isTerminated(instances)) {
-        return;
-      }
-
-      Thread.sleep(INSTANCE_CHECK_TIMEOUT);
-    }
-  }
-
-  private static boolean isTerminated(DescribeInstancesResult instances) {
-    for (Reservation reservation : instances.getReservations()) {
-      for (Instance instance : reservation.getInstances()) {
-        if (INSTANCE_STATUS.equals(instance.getState().getName())) {
-          return true;
-        }
+  static void checkLambdaResponse(InvokeResult result) {
+    try {
+      if (result.getFunctionError() != null) {
+        throw new RuntimeException(String.format(
+            "%s error: %s",
+            result.getFunctionError(),
+            new String(result.getPayload().array())));
       }
-    }
-
-    return false;
-  }
 
-  private static void checkLambdaResponse(InvokeResult result) {
-    try {
       LambdaResponse response = GSON.fromJson(
           new String(result.getPayload().array()),
           LambdaResponse.class);
@@ -219,21 +180,6 @@ public class HazardResultsSlicerLambda implements RequestStreamHandler {
     String message;
   }
 
-  private static class ZipResultsResponse extends LambdaResponse {
-    ZipResult result;
-    ZipRequest request;
-
-    private static class ZipRequest {
-      String bucket;
-      String key;
-    }
-
-    private static class ZipResult {
-      String path;
-      String instanceId;
-    }
-  }
-
   private static class RequestData {
     String bucket;
     String key;
@@ -245,12 +191,14 @@ public class HazardResultsSlicerLambda implements RequestStreamHandler {
     final String date;
     final RequestData request;
     final String outputBucket;
+    final String zip;
 
-    Response(RequestData request) {
+    Response(RequestData request, String zipKey) {
       status = Status.SUCCESS.toString();
-      date = ZonedDateTime.now().format(ServletUtil.DATE_FMT);
+      date = ZonedDateTime.now().format(DATE_FMT);
       this.request = request;
       this.outputBucket = String.format("%s/%s", request.bucket, request.key);
+      this.zip = String.format("%s/%s", request.bucket, zipKey);
     }
   }
 
@@ -0,0 +1,150 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.lambda.AbstractAWSLambdaAsync;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Lambda client that invokes a function in-process.
+ *
+ * <p>Used in place of the AWS Lambda client when lambdas run against
+ * {@link LocalStorage}, so that a lambda that fans out to another, such as
+ * {@link HazardResultsSlicerLambda}, can be run on a workstation. Invocations
+ * run on a pool of one thread per processor and complete as AWS invocations
+ * do: the function response is the result payload, and an exception thrown by
+ * the function is reported as an {@code Unhandled} function error. Only
+ * {@code invokeAsync} is supported.
+ */
+final class LocalLambdaClient extends AbstractAWSLambdaAsync {
+
+  private static final String FUNCTION_ERROR = "Unhandled";
+
+  private static final ExecutorService INVOKE_EXECUTOR = Executors.newFixedThreadPool(
+      Runtime.getRuntime().availableProcessors(),
+      new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("local-lambda-%d")
+          .build());
+
+  private final RequestStreamHandler function;
+  private final String functionName;
+  private final LambdaLogger logger;
+
+  LocalLambdaClient(RequestStreamHandler function, String functionName, LambdaLogger logger) {
+    this.function = function;
+    this.functionName = functionName;
+    this.logger = logger;
+  }
+
+  @Override
+  public Future<InvokeResult> invokeAsync(
+      InvokeRequest request,
+      AsyncHandler<InvokeRequest, InvokeResult> handler) {
+
+    return INVOKE_EXECUTOR.submit(() -> {
+      InvokeResult result;
+      try {
+        result = invokeFunction(request);
+      } catch (Exception e) {
+        if (handler != null) {
+          handler.onError(e);
+        }
+        throw e;
+      }
+      if (handler != null) {
+        handler.onSuccess(request, result);
+      }
+      return result;
+    });
+  }
+
+  private InvokeResult invokeFunction(InvokeRequest request) {
+    ByteBuffer payload = request.getPayload().duplicate();
+    byte[] input = new byte[payload.remaining()];
+    payload.get(input);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    InvokeResult result = new InvokeResult().withStatusCode(200);
+    try {
+      function.handleRequest(new ByteArrayInputStream(input), output, new LocalContext());
+    } catch (Exception e) {
+      output.reset();
+      byte[] message = Util.errorMessage(functionName, e).getBytes();
+      output.write(message, 0, message.length);
+      result.setFunctionError(FUNCTION_ERROR);
+    }
+    return result.withPayload(ByteBuffer.wrap(output.toByteArray()));
+  }
+
+  private final class LocalContext implements Context {
+
+    @Override
+    public String getAwsRequestId() {
+      return null;
+    }
+
+    @Override
+    public String getLogGroupName() {
+      return null;
+    }
+
+    @Override
+    public String getLogStreamName() {
+      return null;
+    }
+
+    @Override
+    public String getFunctionName() {
+      return functionName;
+    }
+
+    @Override
+    public String getFunctionVersion() {
+      return null;
+    }
+
+    @Override
+    public String getInvokedFunctionArn() {
+      return null;
+    }
+
+    @Override
+    public CognitoIdentity getIdentity() {
+      return null;
+    }
+
+    @Override
+    public ClientContext getClientContext() {
+      return null;
+    }
+
+    @Override
+    public int getRemainingTimeInMillis() {
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getMemoryLimitInMB() {
+      return (int) (Runtime.getRuntime().maxMemory() >> 20);
+    }
+
+    @Override
+    public LambdaLogger getLogger() {
+      return logger;
+    }
+  }
+
+}
@@ -0,0 +1,225 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Local filesystem object storage. Each bucket is a subdirectory of a root
+ * directory and each key a '/' delimited path relative to its bucket.
+ *
+ * <p>Objects are read through memory-mapped buffers. Objects are written to a
+ * hidden temporary file that is atomically moved into place on completion, so
+ * readers never see partial objects; hidden files are excluded from listings.
+ */
+final class LocalStorage implements ObjectStorage {
+
+  private static final String TMP_PREFIX = ".";
+  private static final String TMP_SUFFIX = ".tmp";
+
+  private final Path root;
+
+  LocalStorage(Path root) {
+    this.root = root;
+  }
+
+  @Override
+  public boolean bucketExists(String bucket) {
+    return Files.isDirectory(root.resolve(bucket));
+  }
+
+  @Override
+  public void forEachKey(String bucket, String prefix, Consumer<String> consumer)
+      throws IOException {
+    Path base = root.resolve(bucket);
+    Path start = base.resolve(prefix.substring(0, prefix.lastIndexOf('/') + 1));
+    if (!Files.isDirectory(start)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(start)) {
+      paths.filter(Files::isRegularFile)
+          .filter(path -> !path.getFileName().toString().startsWith(TMP_PREFIX))
+          .map(path -> toKey(base, path))
+          .filter(key -> key.startsWith(prefix))
+          .sorted()
+          .forEachOrdered(consumer);
+    }
+  }
+
+  @Override
+  public Set<String> listLevel(
+      String bucket,
+      String prefix,
+      String delimiter,
+      Consumer<String> keys) throws IOException {
+    Set<String> prefixes = new LinkedHashSet<>();
+    for (String key : listKeys(bucket, prefix)) {
+      int index = key.indexOf(delimiter, prefix.length());
+      if (index == -1) {
+        keys.accept(key);
+      } else {
+        prefixes.add(key.substring(0, index + delimiter.length()));
+      }
+    }
+    return prefixes;
+  }
+
+  @Override
+  public boolean exists(String bucket, String key) {
+    return Files.isRegularFile(resolve(bucket, key));
+  }
+
+  @Override
+  public InputStream get(String bucket, String key) throws IOException {
+    Path path = resolve(bucket, key);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        return new BufferedInputStream(Files.newInputStream(path));
+      }
+      return new MappedInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    } catch (NoSuchFileException e) {
+      throw new IllegalArgumentException(
+          String.format("Object [%s/%s] does not exist", bucket, key), e);
+    }
+  }
+
+  @Override
+  public void put(String bucket, String key, byte[] content, String contentType)
+      throws IOException {
+    try (Output output = create(bucket, key, contentType)) {
+      output.write(content);
+    }
+  }
+
+  @Override
+  public Output create(String bucket, String key, String contentType) throws IOException {
+    Path path = resolve(bucket, key);
+    Files.createDirectories(path.getParent());
+    Path tmp = Files.createTempFile(path.getParent(), TMP_PREFIX, TMP_SUFFIX);
+    return new FileOutput(path, tmp);
+  }
+
+  private Path resolve(String bucket, String key) {
+    Path base = root.resolve(bucket).normalize();
+    Path path = base.resolve(key).normalize();
+    if (!path.startsWith(base)) {
+      throw new IllegalArgumentException("Invalid key: " + key);
+    }
+    return path;
+  }
+
+  private static String toKey(Path base, Path path) {
+    String key = base.relativize(path).toString();
+    return path.getFileSystem().getSeparator().equals("/")
+        ? key
+        : key.replace(path.getFileSystem().getSeparator(), "/");
+  }
+
+  private static final class FileOutput extends Output {
+
+    private final Path path;
+    private final Path tmp;
+    private final OutputStream out;
+    private boolean closed;
+
+    FileOutput(Path path, Path tmp) throws IOException {
+      this.path = path;
+      this.tmp = tmp;
+      this.out = new BufferedOutputStream(Files.newOutputStream(tmp));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        out.close();
+        Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    }
+
+    @Override
+    void abort() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        out.close();
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    }
+  }
+
+  private static final class MappedInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    MappedInputStream(MappedByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) {
+      int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+
+}
@@ -0,0 +1,110 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.google.common.base.Strings;
+
+/**
+ * Bucket and key addressed object storage used by the hazard result lambdas.
+ *
+ * <p>Storage is S3 by default. Setting the {@code nshmp.storage.dir} system
+ * property, or the {@code NSHMP_STORAGE_DIR} environment variable, to a local
+ * directory selects {@link LocalStorage} instead, in which each bucket is a
+ * subdirectory; this allows lambdas to be run and profiled against nshmp-haz
+ * output on a workstation.
+ */
+interface ObjectStorage {
+
+  /** System property that selects local storage. */
+  String STORAGE_DIR_PROPERTY = "nshmp.storage.dir";
+
+  /** Environment variable that selects local storage. */
+  String STORAGE_DIR_VARIABLE = "NSHMP_STORAGE_DIR";
+
+  /** Return whether a bucket exists. */
+  boolean bucketExists(String bucket);
+
+  /**
+   * Supply the keys of all objects in a bucket that start with a prefix, in
+   * lexicographic order, to a consumer as they are listed.
+   */
+  void forEachKey(String bucket, String prefix, Consumer<String> consumer) throws IOException;
+
+  /**
+   * Return the keys of all objects in a bucket that start with a prefix, in
+   * lexicographic order.
+   */
+  default List<String> listKeys(String bucket, String prefix) throws IOException {
+    List<String> keys = new ArrayList<>();
+    forEachKey(bucket, prefix, keys::add);
+    return keys;
+  }
+
+  /**
+   * List one level of keys that start with a prefix. Keys that do not contain
+   * a delimiter following the prefix are supplied to a consumer. The distinct
+   * leading portions of all other keys, each up to and including the first
+   * delimiter that follows the prefix, are returned in the manner of S3 common
+   * prefixes.
+   */
+  Set<String> listLevel(
+      String bucket,
+      String prefix,
+      String delimiter,
+      Consumer<String> keys) throws IOException;
+
+  /**
+   * Return the common prefixes of keys that start with a prefix.
+   *
+   * @see #listLevel(String, String, String, Consumer)
+   */
+  default Set<String> listPrefixes(String bucket, String prefix, String delimiter)
+      throws IOException {
+    return listLevel(bucket, prefix, delimiter, key -> {});
+  }
+
+  /** Return whether an object exists. */
+  boolean exists(String bucket, String key) throws IOException;
+
+  /** Open an object for reading. */
+  InputStream get(String bucket, String key) throws IOException;
+
+  /** Write an object. */
+  void put(String bucket, String key, byte[] content, String contentType) throws IOException;
+
+  /**
+   * Open an object for streamed writing. The object is written when the
+   * returned stream is closed and discarded if it is aborted.
+   */
+  Output create(String bucket, String key, String contentType) throws IOException;
+
+  /** Output stream of an object that is written, or discarded, as a whole. */
+  abstract class Output extends OutputStream {
+
+    /** Discard the object; the stream is closed without writing it. */
+    abstract void abort() throws IOException;
+  }
+
+  /**
+   * Return local storage if a storage directory is configured, otherwise S3
+   * using the default client.
+   */
+  static ObjectStorage fromEnvironment() {
+    String dir = System.getProperty(STORAGE_DIR_PROPERTY);
+    if (Strings.isNullOrEmpty(dir)) {
+      dir = System.getenv(STORAGE_DIR_VARIABLE);
+    }
+    return Strings.isNullOrEmpty(dir)
+        ? new S3Storage(AmazonS3ClientBuilder.defaultClient())
+        : new LocalStorage(Paths.get(dir));
+  }
+
+}
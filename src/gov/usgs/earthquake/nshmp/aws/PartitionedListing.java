@@ -0,0 +1,160 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Concurrent listing of large key hierarchies.
+ *
+ * <p>A listing is partitioned by descending {@code depth} '/' delimited levels
+ * below a prefix, which for hazard results is user and then result directory.
+ * Each level is listed for all of its partitions concurrently, and the
+ * partitions of the last level are then paged through concurrently, so listing
+ * time scales with parallelism rather than with the total number of keys.
+ *
+ * <p>Keys, or common prefixes, are supplied to consumers as they are listed,
+ * from multiple threads and in no particular order; consumers must be thread
+ * safe.
+ */
+final class PartitionedListing {
+
+  /** User and result directory. */
+  static final int DEFAULT_DEPTH = 2;
+
+  private static final int PARALLELISM = 16;
+  private static final String SEPARATOR = "/";
+
+  private static final ExecutorService LIST_EXECUTOR = Executors.newFixedThreadPool(
+      PARALLELISM,
+      new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("list-%d")
+          .build());
+
+  private final ObjectStorage storage;
+  private final int depth;
+
+  PartitionedListing(ObjectStorage storage, int depth) {
+    checkArgument(depth >= 0, "Invalid depth [%s]", depth);
+    this.storage = storage;
+    this.depth = depth;
+  }
+
+  /** Supply every key that starts with a prefix to a consumer. */
+  void forEachKey(String bucket, String prefix, Consumer<String> consumer) throws IOException {
+    forEach(bucket, prefix, null, consumer);
+  }
+
+  /**
+   * Supply the common prefixes, for a delimiter, of every key that starts with
+   * a prefix to a consumer.
+   *
+   * @see ObjectStorage#listLevel(String, String, String, Consumer)
+   */
+  void forEachPrefix(
+      String bucket,
+      String prefix,
+      String delimiter,
+      Consumer<String> consumer) throws IOException {
+    forEach(bucket, prefix, delimiter, consumer);
+  }
+
+  /** Return every key that starts with a prefix, in no particular order. */
+  List<String> listKeys(String bucket, String prefix) throws IOException {
+    ConcurrentLinkedQueue<String> keys = new ConcurrentLinkedQueue<>();
+    forEachKey(bucket, prefix, keys::add);
+    return new ArrayList<>(keys);
+  }
+
+  /*
+   * A null delimiter lists keys. Keys found directly within a partition while
+   * descending are supplied as is, or as their common prefix for the
+   * delimiter if they contain it.
+   */
+  private void forEach(
+      String bucket,
+      String prefix,
+      String delimiter,
+      Consumer<String> consumer) throws IOException {
+
+    Consumer<String> levelKeys = (delimiter == null)
+        ? consumer
+        : key -> {
+          int index = key.indexOf(delimiter, prefix.length());
+          if (index != -1) {
+            consumer.accept(key.substring(0, index + delimiter.length()));
+          }
+        };
+
+    List<String> partitions = new ArrayList<>();
+    partitions.add(prefix);
+    for (int level = 0; level < depth && !partitions.isEmpty(); level++) {
+      List<Set<String>> children = invokeAll(
+          partitions,
+          partition -> storage.listLevel(bucket, partition, SEPARATOR, levelKeys));
+      partitions = new ArrayList<>();
+      for (Set<String> set : children) {
+        partitions.addAll(set);
+      }
+    }
+
+    invokeAll(partitions, partition -> {
+      if (delimiter == null) {
+        storage.forEachKey(bucket, partition, consumer);
+      } else {
+        storage.listPrefixes(bucket, partition, delimiter).forEach(consumer);
+      }
+      return null;
+    });
+  }
+
+  private interface PartitionTask<T> {
+    T list(String partition) throws IOException;
+  }
+
+  private static <T> List<T> invokeAll(List<String> partitions, PartitionTask<T> task)
+      throws IOException {
+    List<Future<T>> futures = new ArrayList<>(partitions.size());
+    for (String partition : partitions) {
+      Callable<T> callable = () -> task.list(partition);
+      futures.add(LIST_EXECUTOR.submit(callable));
+    }
+    List<T> results = new ArrayList<>(partitions.size());
+    try {
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Listing interrupted", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    } finally {
+      for (Future<T> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return results;
+  }
+
+}
@@ -0,0 +1,75 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import static gov.usgs.earthquake.nshmp.aws.Util.CURVES_FILE;
+import static gov.usgs.earthquake.nshmp.aws.Util.MAP_FILE;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streaming zip archive of hazard results.
+ *
+ * <p>Every curves.csv and map.csv object below a result key is copied, in key
+ * order, into a zip archive written alongside the result key as
+ * {@code <key>.zip}. Entries are named relative to the parent of the result
+ * key, so the archive unpacks to a single result directory. Objects are
+ * streamed through a fixed size buffer into a storage output, which for S3 is
+ * a multipart upload, so memory use is independent of the size and number of
+ * results.
+ */
+final class ResultsZipper {
+
+  static final String ZIP_EXTENSION = ".zip";
+  static final String CONTENT_TYPE = "application/zip";
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final ObjectStorage storage;
+  private final PartitionedListing listing;
+
+  ResultsZipper(ObjectStorage storage, PartitionedListing listing) {
+    this.storage = storage;
+    this.listing = listing;
+  }
+
+  /**
+   * Zip the results below a key.
+   *
+   * @return the key of the zip archive
+   */
+  String zip(String bucket, String key) throws IOException {
+    String directory = key.endsWith("/") ? key.substring(0, key.length() - 1) : key;
+    String zipKey = directory + ZIP_EXTENSION;
+    int nameStart = directory.lastIndexOf('/') + 1;
+
+    List<String> keys = listing.listKeys(bucket, directory + "/");
+    keys.removeIf(k -> !(k.endsWith(CURVES_FILE) || k.endsWith(MAP_FILE)));
+    Collections.sort(keys);
+
+    ObjectStorage.Output output = storage.create(bucket, zipKey, CONTENT_TYPE);
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      ZipOutputStream zip = new ZipOutputStream(output);
+      for (String resultKey : keys) {
+        zip.putNextEntry(new ZipEntry(resultKey.substring(nameStart)));
+        try (InputStream input = storage.get(bucket, resultKey)) {
+          int n;
+          while ((n = input.read(buffer)) != -1) {
+            zip.write(buffer, 0, n);
+          }
+        }
+        zip.closeEntry();
+      }
+      zip.close();
+    } catch (IOException | RuntimeException e) {
+      output.abort();
+      throw e;
+    }
+    return zipKey;
+  }
+
+}
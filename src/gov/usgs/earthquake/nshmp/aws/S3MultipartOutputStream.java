@@ -0,0 +1,183 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Output stream that writes an S3 object in parts.
+ *
+ * <p>Bytes are buffered until a part is full and the part is then uploaded in
+ * the background while writing continues. At most {@code MAX_PARTS_IN_FLIGHT}
+ * parts are uploading at any time, so memory use is bounded regardless of
+ * object size. Objects no larger than one part are written with a single put
+ * request when the stream is closed.
+ *
+ * <p>{@link #close()} completes the upload; a stream that fails part-way
+ * should instead be {@link #abort() aborted} so that S3 discards the parts
+ * already uploaded.
+ */
+final class S3MultipartOutputStream extends ObjectStorage.Output {
+
+  /* S3 parts, other than the last, must be at least 5 MiB. */
+  static final int PART_SIZE = 8 << 20;
+  static final int MAX_PARTS_IN_FLIGHT = 2;
+
+  private static final ExecutorService UPLOAD_EXECUTOR = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("s3-upload-%d")
+          .build());
+
+  private final AmazonS3 s3;
+  private final String bucket;
+  private final String key;
+  private final String contentType;
+
+  private byte[] buffer = new byte[PART_SIZE];
+  private int count;
+
+  private String uploadId;
+  private int partNumber;
+  private final Deque<Future<PartETag>> inFlight = new ArrayDeque<>();
+  private final List<PartETag> parts = new ArrayList<>();
+  private boolean closed;
+
+  S3MultipartOutputStream(AmazonS3 s3, String bucket, String key, String contentType) {
+    this.s3 = s3;
+    this.bucket = bucket;
+    this.key = key;
+    this.contentType = contentType;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    checkState(!closed, "Stream is closed");
+    if (count == buffer.length) {
+      uploadPart();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    checkState(!closed, "Stream is closed");
+    while (length > 0) {
+      if (count == buffer.length) {
+        uploadPart();
+      }
+      int n = Math.min(length, buffer.length - count);
+      System.arraycopy(bytes, offset, buffer, count, n);
+      count += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  /** Complete the upload. */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (uploadId == null) {
+        ObjectMetadata metadata = metadata();
+        metadata.setContentLength(count);
+        s3.putObject(new PutObjectRequest(
+            bucket,
+            key,
+            new ByteArrayInputStream(buffer, 0, count),
+            metadata));
+      } else {
+        if (count > 0) {
+          uploadPart();
+        }
+        while (!inFlight.isEmpty()) {
+          awaitPart();
+        }
+        s3.completeMultipartUpload(
+            new CompleteMultipartUploadRequest(bucket, key, uploadId, parts));
+      }
+    } catch (IOException | RuntimeException e) {
+      abort();
+      throw e;
+    } finally {
+      buffer = null;
+    }
+  }
+
+  /** Abandon the upload, discarding any parts already uploaded. */
+  @Override
+  void abort() {
+    closed = true;
+    buffer = null;
+    for (Future<PartETag> part : inFlight) {
+      part.cancel(true);
+    }
+    inFlight.clear();
+    if (uploadId != null) {
+      s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+      uploadId = null;
+    }
+  }
+
+  private ObjectMetadata metadata() {
+    ObjectMetadata metadata = new ObjectMetadata();
+    metadata.setContentType(contentType);
+    return metadata;
+  }
+
+  /* Hand the buffer to an upload task and continue with a new buffer. */
+  private void uploadPart() throws IOException {
+    if (uploadId == null) {
+      uploadId = s3.initiateMultipartUpload(
+          new InitiateMultipartUploadRequest(bucket, key, metadata())).getUploadId();
+    }
+    while (inFlight.size() >= MAX_PARTS_IN_FLIGHT) {
+      awaitPart();
+    }
+    UploadPartRequest request = new UploadPartRequest()
+        .withBucketName(bucket)
+        .withKey(key)
+        .withUploadId(uploadId)
+        .withPartNumber(++partNumber)
+        .withInputStream(new ByteArrayInputStream(buffer, 0, count))
+        .withPartSize(count);
+    inFlight.add(UPLOAD_EXECUTOR.submit(() -> s3.uploadPart(request).getPartETag()));
+    buffer = closed ? null : new byte[PART_SIZE];
+    count = 0;
+  }
+
+  private void awaitPart() throws IOException {
+    try {
+      parts.add(inFlight.remove().get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted uploading " + key, e);
+    } catch (ExecutionException e) {
+      throw new IOException("Error uploading " + key, e.getCause());
+    }
+  }
+
+}
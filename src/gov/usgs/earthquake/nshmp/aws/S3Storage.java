@@ -0,0 +1,101 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * S3 object storage. Listings follow continuation tokens and so are not
+ * limited to the first 1000 keys.
+ */
+final class S3Storage implements ObjectStorage {
+
+  private final AmazonS3 s3;
+
+  S3Storage(AmazonS3 s3) {
+    this.s3 = s3;
+  }
+
+  @Override
+  public boolean bucketExists(String bucket) {
+    return s3.doesBucketExistV2(bucket);
+  }
+
+  @Override
+  public void forEachKey(String bucket, String prefix, Consumer<String> consumer) {
+    ListObjectsV2Request request = new ListObjectsV2Request()
+        .withBucketName(bucket)
+        .withPrefix(prefix);
+    ListObjectsV2Result result;
+
+    do {
+      result = s3.listObjectsV2(request);
+      for (S3ObjectSummary summary : result.getObjectSummaries()) {
+        consumer.accept(summary.getKey());
+      }
+      request.setContinuationToken(result.getNextContinuationToken());
+    } while (result.isTruncated());
+  }
+
+  @Override
+  public Set<String> listLevel(
+      String bucket,
+      String prefix,
+      String delimiter,
+      Consumer<String> keys) {
+    ListObjectsV2Request request = new ListObjectsV2Request()
+        .withBucketName(bucket)
+        .withPrefix(prefix)
+        .withDelimiter(delimiter);
+    ListObjectsV2Result result;
+    Set<String> prefixes = new LinkedHashSet<>();
+
+    do {
+      result = s3.listObjectsV2(request);
+      prefixes.addAll(result.getCommonPrefixes());
+      for (S3ObjectSummary summary : result.getObjectSummaries()) {
+        keys.accept(summary.getKey());
+      }
+      request.setContinuationToken(result.getNextContinuationToken());
+    } while (result.isTruncated());
+
+    return prefixes;
+  }
+
+  @Override
+  public boolean exists(String bucket, String key) {
+    return s3.doesObjectExist(bucket, key);
+  }
+
+  @Override
+  public InputStream get(String bucket, String key) {
+    return s3.getObject(bucket, key).getObjectContent();
+  }
+
+  @Override
+  public void put(String bucket, String key, byte[] content, String contentType) {
+    ObjectMetadata metadata = new ObjectMetadata();
+    metadata.setContentLength(content.length);
+    metadata.setContentType(contentType);
+    s3.putObject(new PutObjectRequest(
+        bucket,
+        key,
+        new ByteArrayInputStream(content),
+        metadata));
+  }
+
+  @Override
+  public Output create(String bucket, String key, String contentType) {
+    return new S3MultipartOutputStream(s3, bucket, key, contentType);
+  }
+
+}
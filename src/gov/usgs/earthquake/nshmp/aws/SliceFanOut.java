@@ -0,0 +1,215 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static gov.usgs.earthquake.nshmp.aws.Util.GSON;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.lambda.AWSLambdaAsync;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.amazonaws.services.lambda.model.TooManyRequestsException;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bounded, asynchronous invocation of the slice lambda for many result
+ * directories.
+ *
+ * <p>At most {@code maxConcurrency} invocations are outstanding at any time;
+ * submission blocks until a permit is available. Invocations that are
+ * throttled, or fail with an error that AWS deems retryable, are retried with
+ * exponentially increasing, jittered delays up to {@code MAX_ATTEMPTS} times.
+ * Every request is accounted for: {@link #invokeAll(List)} waits for all
+ * invocations to succeed or fail and throws if any failed.
+ */
+final class SliceFanOut {
+
+  static final int DEFAULT_MAX_CONCURRENCY = 50;
+  static final int MAX_ATTEMPTS = 8;
+
+  private static final long BASE_BACKOFF_MILLIS = 200;
+  private static final long MAX_BACKOFF_MILLIS = 20 * 1000;
+
+  private static final ScheduledExecutorService RETRY_EXECUTOR =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("slice-retry-%d")
+              .build());
+
+  private final AWSLambdaAsync client;
+  private final String function;
+  private final int maxConcurrency;
+  private final LambdaLogger logger;
+
+  SliceFanOut(AWSLambdaAsync client, String function, int maxConcurrency, LambdaLogger logger) {
+    checkArgument(maxConcurrency > 0, "Invalid concurrency [%s]", maxConcurrency);
+    this.client = client;
+    this.function = function;
+    this.maxConcurrency = maxConcurrency;
+    this.logger = logger;
+  }
+
+  /**
+   * Invoke the slice lambda for each request and wait for all invocations to
+   * complete.
+   *
+   * @return the outcome of each invocation, in completion order
+   * @throws IllegalStateException if any invocation failed
+   */
+  List<Outcome> invokeAll(List<HazardResultSliceLambda.RequestData> requests)
+      throws InterruptedException {
+
+    Semaphore permits = new Semaphore(maxConcurrency);
+    CountDownLatch done = new CountDownLatch(requests.size());
+    Queue<Outcome> outcomes = new ConcurrentLinkedQueue<>();
+
+    for (HazardResultSliceLambda.RequestData request : requests) {
+      permits.acquire();
+      Invocation invocation = new Invocation(request, outcome -> {
+        outcomes.add(outcome);
+        logger.log(outcome + "\n");
+        permits.release();
+        done.countDown();
+      });
+      invocation.attempt();
+    }
+    done.await();
+
+    List<Outcome> failures = new ArrayList<>();
+    for (Outcome outcome : outcomes) {
+      if (outcome.error != null) {
+        failures.add(outcome);
+      }
+    }
+    if (!failures.isEmpty()) {
+      IllegalStateException e = new IllegalStateException(String.format(
+          "Slicing failed for %s of %s result directories: %s",
+          failures.size(),
+          requests.size(),
+          failures));
+      for (Outcome failure : failures) {
+        e.addSuppressed(failure.error);
+      }
+      throw e;
+    }
+    return new ArrayList<>(outcomes);
+  }
+
+  /* Full jitter: uniform in [0, min(max, base * 2^attempt)). */
+  private static long backoff(int attempt) {
+    long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+    return ThreadLocalRandom.current().nextLong(ceiling);
+  }
+
+  private static boolean isRetryable(Exception e) {
+    if (e instanceof TooManyRequestsException) {
+      return true;
+    }
+    if (e instanceof SdkBaseException) {
+      SdkBaseException sdkException = (SdkBaseException) e;
+      return RetryUtils.isThrottlingException(sdkException) ||
+          RetryUtils.isRetryableServiceException(sdkException);
+    }
+    return false;
+  }
+
+  private interface Completion {
+    void complete(Outcome outcome);
+  }
+
+  private final class Invocation implements AsyncHandler<InvokeRequest, InvokeResult> {
+
+    final HazardResultSliceLambda.RequestData request;
+    final InvokeRequest invokeRequest;
+    final Completion completion;
+    final Stopwatch timer = Stopwatch.createStarted();
+    int attempts;
+
+    Invocation(HazardResultSliceLambda.RequestData request, Completion completion) {
+      this.request = request;
+      this.completion = completion;
+      this.invokeRequest = new InvokeRequest()
+          .withFunctionName(function)
+          .withPayload(GSON.toJson(request));
+    }
+
+    void attempt() {
+      attempts++;
+      try {
+        client.invokeAsync(invokeRequest, this);
+      } catch (Exception e) {
+        onError(e);
+      }
+    }
+
+    @Override
+    public void onSuccess(InvokeRequest invokeRequest, InvokeResult result) {
+      try {
+        HazardResultsSlicerLambda.checkLambdaResponse(result);
+        finish(null);
+      } catch (Exception e) {
+        finish(e);
+      }
+    }
+
+    @Override
+    public void onError(Exception e) {
+      if (attempts < MAX_ATTEMPTS && isRetryable(e)) {
+        RETRY_EXECUTOR.schedule(this::attempt, backoff(attempts), TimeUnit.MILLISECONDS);
+        return;
+      }
+      finish(e);
+    }
+
+    private void finish(Exception error) {
+      completion.complete(new Outcome(
+          request.key,
+          timer.elapsed(TimeUnit.MILLISECONDS),
+          attempts,
+          error));
+    }
+  }
+
+  /** Result of slicing a single result directory. */
+  static final class Outcome {
+
+    final String key;
+    final long millis;
+    final int attempts;
+    final transient Exception error;
+
+    Outcome(String key, long millis, int attempts, Exception error) {
+      this.key = key;
+      this.millis = millis;
+      this.attempts = attempts;
+      this.error = error;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %s [%.3f s, %s attempt%s]",
+          (error == null) ? "Sliced" : "Failed",
+          key,
+          millis / 1000.0,
+          attempts,
+          (attempts == 1) ? "" : "s") +
+          ((error == null) ? "" : " " + error.getMessage());
+    }
+  }
+
+}
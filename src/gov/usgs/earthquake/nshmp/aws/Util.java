@@ -5,17 +5,61 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.time.format.DateTimeFormatter;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
+import gov.usgs.earthquake.nshmp.gmm.Imt;
+import gov.usgs.earthquake.nshmp.www.meta.Status;
+import gov.usgs.earthquake.nshmp.www.meta.Util.DoubleSerializer;
+import gov.usgs.earthquake.nshmp.www.meta.Util.EnumSerializer;
+
 public class Util {
-  
+
   static final String CURVES_FILE = "curves.csv";
   static final String MAP_FILE = "map.csv";
 
+  /*
+   * Serialization and formatting equivalent to ServletUtil for the types the
+   * lambdas use, sharing the meta.Util serializers, which have no servlet
+   * dependencies. Lambdas must not reference ServletUtil, or Metadata, whose
+   * static initialization creates the web service thread pools.
+   */
+
+  static final DateTimeFormatter DATE_FMT = DateTimeFormatter.ofPattern(
+      "yyyy-MM-dd'T'HH:mm:ssXXX");
+
+  static final Gson GSON = new GsonBuilder()
+      .registerTypeAdapter(Imt.class, new EnumSerializer<Imt>())
+      .registerTypeAdapter(Double.class, new DoubleSerializer())
+      .disableHtmlEscaping()
+      .setPrettyPrinting()
+      .serializeNulls()
+      .create();
+
+  /** Return a JSON error message for a request. */
+  static String errorMessage(String request, Throwable e) {
+    return GSON.toJson(new Error(request, e));
+  }
+
+  @SuppressWarnings("unused")
+  private static class Error {
+
+    final String status = Status.ERROR.toString();
+    final String request;
+    final String message;
+
+    private Error(String request, Throwable e) {
+      this.request = request;
+      this.message = e.getMessage() + " (see logs)";
+    }
+  }
+
   /**
    * Parse the Lambda function {@code InputStream} into an {@code JsonObject}.
    */
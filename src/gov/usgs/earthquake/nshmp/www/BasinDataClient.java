@@ -0,0 +1,201 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import gov.usgs.earthquake.nshmp.calc.Site;
+
+/**
+ * Basin data service client.
+ *
+ * <p>Supplying a basin service URL to {@link Site.Builder} results in the
+ * service being checked and queried each time a site is built. This client
+ * instead fetches z1.0 and z2.5 terms directly so that they can be supplied to
+ * a site builder explicitly. It reuses keep-alive connections (response bodies
+ * are always fully consumed), caches terms by location (quantized to
+ * {@value #QUANTUM}°), and stops calling the service for a short time after
+ * repeated failures. A request for basin terms fails if the service cannot be
+ * reached, or is being skipped after repeated failures, so that a calculation
+ * never silently proceeds without the basin terms it asked for.
+ *
+ * <p>A basin host of {@code "stub"} creates a client that returns fixed
+ * nominal terms without making any network calls, for offline testing.
+ *
+ * @author Peter Powers
+ */
+final class BasinDataClient {
+
+  static final String STUB_HOST = "stub";
+  static final double QUANTUM = 0.001;
+
+  private static final int CACHE_SIZE = 10000;
+  private static final int CONNECT_TIMEOUT = 2000;
+  private static final int READ_TIMEOUT = 5000;
+  private static final int FAILURE_THRESHOLD = 3;
+  private static final long OPEN_DURATION = TimeUnit.SECONDS.toNanos(30);
+
+  /* Clients are shared by URL so that services share a cache. */
+  private static final ConcurrentMap<String, BasinDataClient> CLIENTS =
+      new ConcurrentHashMap<>();
+
+  private final String serviceUrl;
+  private final Cache<Long, Terms> cache;
+  private final AtomicInteger failures = new AtomicInteger();
+  private final AtomicLong openUntil = new AtomicLong();
+
+  private BasinDataClient(String serviceUrl) {
+    this.serviceUrl = serviceUrl;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(CACHE_SIZE)
+        .build();
+  }
+
+  /**
+   * Return the client for the supplied basin host (e.g.
+   * "https://earthquake.usgs.gov") and service path (e.g.
+   * "/nshmp-site-ws/basin"), or a stub client if host is {@value #STUB_HOST}.
+   *
+   * @param host of basin data service
+   * @param path of basin data service
+   */
+  static BasinDataClient create(String host, String path) {
+    checkArgument(!host.isEmpty(), "Empty basin host");
+    String serviceUrl = host.equals(STUB_HOST) ? STUB_HOST : host + path;
+    return CLIENTS.computeIfAbsent(serviceUrl, BasinDataClient::new);
+  }
+
+  /**
+   * Return the basin terms at a location. Terms are NaN if the location is
+   * outside a basin model.
+   *
+   * @param latitude of site
+   * @param longitude of site
+   * @throws IllegalStateException if the basin service is unavailable
+   */
+  Terms terms(double latitude, double longitude) {
+    if (serviceUrl.equals(STUB_HOST)) {
+      return Terms.STUB;
+    }
+    long latKey = Math.round(latitude / QUANTUM);
+    long lonKey = Math.round(longitude / QUANTUM);
+    Long key = (latKey << 32) ^ (lonKey & 0xffffffffL);
+    Terms terms = cache.getIfPresent(key);
+    if (terms != null) {
+      return terms;
+    }
+    if (isOpen()) {
+      throw new IllegalStateException(
+          "Basin data service unavailable after repeated failures: " + serviceUrl);
+    }
+    try {
+      return cache.get(key, () -> fetch(latKey * QUANTUM, lonKey * QUANTUM));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      recordFailure();
+      throw new IllegalStateException("Basin data service error: " + serviceUrl, e.getCause());
+    }
+  }
+
+  private boolean isOpen() {
+    return System.nanoTime() - openUntil.get() < 0;
+  }
+
+  private void recordFailure() {
+    if (failures.incrementAndGet() >= FAILURE_THRESHOLD) {
+      openUntil.set(System.nanoTime() + OPEN_DURATION);
+      failures.set(0);
+    }
+  }
+
+  private Terms fetch(double latitude, double longitude) throws IOException {
+    URL url = new URL(String.format(
+        Locale.US,
+        "%s?latitude=%.3f&longitude=%.3f",
+        serviceUrl, latitude, longitude));
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT);
+    connection.setReadTimeout(READ_TIMEOUT);
+    connection.setRequestProperty("Accept", "application/json");
+
+    int code = connection.getResponseCode();
+    if (code != HttpURLConnection.HTTP_OK) {
+      /* Drain error stream so the connection may be reused. */
+      try (InputStream error = connection.getErrorStream()) {
+        if (error != null) {
+          ByteStreams.exhaust(error);
+        }
+      }
+      throw new IOException("Basin service returned HTTP " + code);
+    }
+
+    try (InputStream in = connection.getInputStream();
+        Reader reader = new InputStreamReader(in, UTF_8)) {
+      JsonElement json = new JsonParser().parse(reader);
+      ByteStreams.exhaust(in);
+      failures.set(0);
+      return parse(json);
+    }
+  }
+
+  /*
+   * Expected response:
+   * { "status": ..., "response": { "z1p0": { "value": ... }, "z2p5": {...} } }
+   * Missing or null values are treated as NaN.
+   */
+  private static Terms parse(JsonElement json) {
+    if (!json.isJsonObject()) {
+      throw new IllegalStateException("Unexpected basin service response");
+    }
+    JsonElement response = json.getAsJsonObject().get("response");
+    if (response == null || !response.isJsonObject()) {
+      throw new IllegalStateException("Missing basin service response");
+    }
+    JsonObject terms = response.getAsJsonObject();
+    return new Terms(value(terms, "z1p0"), value(terms, "z2p5"));
+  }
+
+  private static double value(JsonObject terms, String key) {
+    JsonElement term = terms.get(key);
+    if (term != null && term.isJsonObject()) {
+      term = term.getAsJsonObject().get("value");
+    }
+    return (term == null || term.isJsonNull()) ? Double.NaN : term.getAsDouble();
+  }
+
+  /** Basin depth terms, in km. */
+  static final class Terms {
+
+    /* Nominal terms returned in stub mode. */
+    static final Terms STUB = new Terms(0.5, 2.0);
+
+    final double z1p0;
+    final double z2p5;
+
+    Terms(double z1p0, double z2p5) {
+      this.z1p0 = z1p0;
+      this.z2p5 = z2p5;
+    }
+  }
+
+}
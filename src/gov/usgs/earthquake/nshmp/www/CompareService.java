@@ -0,0 +1,369 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON;
+import static gov.usgs.earthquake.nshmp.www.ServletUtil.emptyRequest;
+import static gov.usgs.earthquake.nshmp.www.Util.readDouble;
+import static gov.usgs.earthquake.nshmp.www.Util.readDoubles;
+import static gov.usgs.earthquake.nshmp.www.Util.readValueList;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.LATITUDE;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.LONGITUDE;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.MODEL;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.RETURNPERIOD;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.VS30;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Doubles;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import gov.usgs.earthquake.nshmp.calc.Vs30;
+import gov.usgs.earthquake.nshmp.data.Interpolator;
+import gov.usgs.earthquake.nshmp.data.XySequence;
+import gov.usgs.earthquake.nshmp.gmm.Imt;
+import gov.usgs.earthquake.nshmp.www.HazardService2.HazardCurves;
+import gov.usgs.earthquake.nshmp.www.ServletUtil.TimedTask;
+import gov.usgs.earthquake.nshmp.www.meta.Metadata;
+import gov.usgs.earthquake.nshmp.www.meta.Status;
+
+/**
+ * Hazard model comparison service.
+ *
+ * <p>Computes hazard for two or more models at a site and returns, for each
+ * IMT common to all models, the curves of each model aligned to common ground
+ * motions, the ground motions of each model at one or more return periods, and
+ * the ratio and percent difference of each model relative to the first.
+ *
+ * @author Peter Powers
+ */
+@SuppressWarnings("unused")
+@WebServlet(
+    name = "Model Comparison Service",
+    description = "USGS NSHMP Hazard Model Comparison",
+    urlPatterns = "/compare")
+public final class CompareService extends NshmpServlet {
+
+  /*
+   * Developer notes:
+   *
+   * Hazard for each model is computed concurrently on DRIVER_EXECUTOR through
+   * the HazardService2 hazard cache, so that comparisons share work with one
+   * another and with /haz requests for the same model and site. Requests are
+   * run on TASK_EXECUTOR as for other hazard services.
+   *
+   * Curves are aligned to the ground motions of the first (reference) model
+   * that fall within the range of every model, interpolating the other models
+   * in log-log space. Ground motions at return periods are sliced with
+   * CurveSlicer, as in the map services. Ratios are model/reference and percent differences are
+   * 100 * (model - reference) / reference; non-finite values are null.
+   */
+
+  static final int MAX_MODELS = Model.values().length;
+
+  private static final List<Double> DEFAULT_RETURN_PERIODS = ImmutableList.of(475.0, 2475.0);
+
+  private static final Interpolator INTERPOLATOR = Interpolator.builder()
+      .logx()
+      .logy()
+      .build();
+
+  private static final UsageDocument USAGE = UsageDocument.of(() -> GSON.toJson(new Usage()));
+
+  @Override
+  protected void doGet(
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws ServletException, IOException {
+
+    UrlHelper urlHelper = urlHelper(request, response);
+
+    if (emptyRequest(request)) {
+      urlHelper.writeResponse(USAGE);
+      return;
+    }
+
+    try {
+      RequestData requestData = buildRequestData(request.getParameterMap());
+
+      /* Submit as task to job executor */
+      CompareTask task = new CompareTask(urlHelper.url, getServletContext(), requestData);
+      Result result = ServletUtil.TASK_EXECUTOR.submit(task).get();
+      GSON.toJson(result, response.getWriter());
+
+    } catch (Exception e) {
+      String message = Metadata.errorMessage(urlHelper.url, e, false);
+      response.getWriter().print(message);
+      getServletContext().log(urlHelper.url, e);
+    }
+  }
+
+  /* Reduce parameter map key-value pairs. */
+  static RequestData buildRequestData(Map<String, String[]> paramMap) {
+    return new RequestData(
+        readValueList(MODEL, paramMap, Model.class),
+        readDouble(LONGITUDE, paramMap),
+        readDouble(LATITUDE, paramMap),
+        Vs30.fromValue(readDouble(VS30, paramMap)),
+        paramMap.containsKey(RETURNPERIOD.toString())
+            ? readDoubles(RETURNPERIOD, paramMap)
+            : DEFAULT_RETURN_PERIODS);
+  }
+
+  private static class CompareTask extends TimedTask<Result> {
+
+    final RequestData data;
+
+    CompareTask(String url, ServletContext context, RequestData data) {
+      super(url, context);
+      this.data = data;
+    }
+
+    @Override
+    Result calc() throws Exception {
+      List<ListenableFuture<HazardCurves>> futures = new ArrayList<>();
+      for (Model model : data.models) {
+        HazardService2.RequestData modelData = new HazardService2.RequestData(
+            ImmutableList.of(model),
+            data.longitude,
+            data.latitude,
+            data.vs30);
+        futures.add(ServletUtil.DRIVER_EXECUTOR.submit(
+            () -> HazardService2.cachedCurves(modelData, context)));
+      }
+      List<HazardCurves> modelCurves = Futures.allAsList(futures).get();
+
+      ImmutableList.Builder<Response> responses = ImmutableList.builder();
+      for (Imt imt : data.imts) {
+        List<XySequence> curves = new ArrayList<>();
+        for (HazardCurves model : modelCurves) {
+          curves.add(XySequence.create(
+              model.imls.get(imt),
+              model.totals.get(imt).yValues()));
+        }
+        responses.add(compare(data, imt, curves));
+      }
+      Object server = Metadata.serverData(ServletUtil.THREAD_COUNT, timer);
+      return new Result(url, server, responses.build());
+    }
+  }
+
+  /* Compare the curves of each model, in request order, for an IMT. */
+  private static Response compare(RequestData data, Imt imt, List<XySequence> curves) {
+
+    /* Reference ground motions within the range of all models. */
+    double min = Double.NEGATIVE_INFINITY;
+    double max = Double.POSITIVE_INFINITY;
+    for (XySequence curve : curves) {
+      min = Math.max(min, curve.x(0));
+      max = Math.min(max, curve.x(curve.size() - 1));
+    }
+    List<Double> imls = new ArrayList<>();
+    for (double iml : curves.get(0).xValues()) {
+      if (iml >= min && iml <= max) {
+        imls.add(iml);
+      }
+    }
+    double[] xs = Doubles.toArray(imls);
+
+    List<Double> rates = new ArrayList<>();
+    for (double returnPeriod : data.returnPeriods) {
+      rates.add(1.0 / returnPeriod);
+    }
+
+    List<double[]> modelRates = new ArrayList<>();
+    List<double[]> modelMotions = new ArrayList<>();
+    for (XySequence curve : curves) {
+      double[] curveRates = new double[xs.length];
+      for (int i = 0; i < xs.length; i++) {
+        curveRates[i] = INTERPOLATOR.findY(curve.xValues(), curve.yValues(), xs[i]);
+      }
+      modelRates.add(curveRates);
+      double[] motions = new double[rates.size()];
+      new CurveSlicer(Doubles.toArray(curve.xValues()), rates)
+          .slice(Doubles.toArray(curve.yValues()), motions);
+      modelMotions.add(motions);
+    }
+
+    ImmutableList.Builder<Series> curveSeries = ImmutableList.builder();
+    ImmutableList.Builder<Series> motionSeries = ImmutableList.builder();
+    for (int i = 0; i < data.models.size(); i++) {
+      String model = data.models.get(i).toString();
+      curveSeries.add(Series.create(model, modelRates.get(i), modelRates.get(0)));
+      motionSeries.add(Series.create(model, modelMotions.get(i), modelMotions.get(0)));
+    }
+
+    return new Response(
+        new ResponseData(data, imt),
+        new Comparison(xs, curveSeries.build()),
+        new Comparison(Doubles.toArray(data.returnPeriods), motionSeries.build()));
+  }
+
+  /*
+   * Request data is immutable; models are compared against the first model.
+   * IMTs are those common to all models.
+   */
+  static final class RequestData {
+
+    final List<Model> models;
+    final Set<Imt> imts;
+    final double longitude;
+    final double latitude;
+    final Vs30 vs30;
+    final List<Double> returnPeriods;
+
+    RequestData(
+        List<Model> models,
+        double longitude,
+        double latitude,
+        Vs30 vs30,
+        List<Double> returnPeriods) {
+
+      checkArgument(models.size() >= 2, "At least two models are required");
+      checkArgument(models.size() <= MAX_MODELS, "Too many models %s", models);
+      EnumSet<Imt> imts = EnumSet.copyOf(models.get(0).imts);
+      for (Model model : models) {
+        imts.retainAll(model.imts);
+      }
+      checkArgument(!imts.isEmpty(), "Models %s have no IMTs in common", models);
+      checkArgument(
+          returnPeriods.size() <= DeaggService.MAX_RETURN_PERIODS,
+          "Comparisons are limited to %s return periods",
+          DeaggService.MAX_RETURN_PERIODS);
+      for (double returnPeriod : returnPeriods) {
+        checkArgument(returnPeriod > 0.0, "Invalid return period [%s]", returnPeriod);
+      }
+
+      this.models = ImmutableList.copyOf(models);
+      this.imts = Sets.immutableEnumSet(imts);
+      this.longitude = longitude;
+      this.latitude = latitude;
+      this.vs30 = vs30;
+      this.returnPeriods = ImmutableList.copyOf(returnPeriods);
+    }
+  }
+
+  /* Values of a model and their ratio and percent difference to reference. */
+  private static final class Series {
+
+    final String model;
+    final List<Double> values;
+    final List<Double> ratio;
+    final List<Double> difference;
+
+    private Series(String model, List<Double> values, List<Double> ratio,
+        List<Double> difference) {
+      this.model = model;
+      this.values = values;
+      this.ratio = ratio;
+      this.difference = difference;
+    }
+
+    static Series create(String model, double[] values, double[] reference) {
+      List<Double> valueList = new ArrayList<>(values.length);
+      List<Double> ratioList = new ArrayList<>(values.length);
+      List<Double> differenceList = new ArrayList<>(values.length);
+      for (int i = 0; i < values.length; i++) {
+        double ratio = values[i] / reference[i];
+        valueList.add(finiteOrNull(values[i]));
+        ratioList.add(finiteOrNull(ratio));
+        differenceList.add(finiteOrNull(100.0 * (ratio - 1.0)));
+      }
+      return new Series(model, valueList, ratioList, differenceList);
+    }
+
+    private static Double finiteOrNull(double value) {
+      return Double.isFinite(value) ? value : null;
+    }
+  }
+
+  private static final class Comparison {
+
+    final double[] xvalues;
+    final List<Series> data;
+
+    Comparison(double[] xvalues, List<Series> data) {
+      this.xvalues = xvalues;
+      this.data = data;
+    }
+  }
+
+  private static final class ResponseData {
+
+    final List<Model> models;
+    final String reference;
+    final double longitude;
+    final double latitude;
+    final Vs30 vs30;
+    final Imt imt;
+
+    ResponseData(RequestData request, Imt imt) {
+      this.models = request.models;
+      this.reference = request.models.get(0).toString();
+      this.longitude = request.longitude;
+      this.latitude = request.latitude;
+      this.vs30 = request.vs30;
+      this.imt = imt;
+    }
+  }
+
+  /*
+   * Curves are annual rates at common ground motions (g); return period
+   * values are ground motions (g) at each return period (yr).
+   */
+  private static final class Response {
+
+    final ResponseData metadata;
+    final Comparison curves;
+    final Comparison returnperiods;
+
+    Response(ResponseData metadata, Comparison curves, Comparison returnperiods) {
+      this.metadata = metadata;
+      this.curves = curves;
+      this.returnperiods = returnperiods;
+    }
+  }
+
+  private static final class Result {
+
+    final String status = Status.SUCCESS.toString();
+    final String date = ZonedDateTime.now().format(ServletUtil.DATE_FMT);
+    final String url;
+    final Object server;
+    final List<Response> response;
+
+    Result(String url, Object server, List<Response> response) {
+      this.url = url;
+      this.server = server;
+      this.response = response;
+    }
+  }
+
+  private static final class Usage {
+
+    final String status = Status.USAGE.toString();
+    final String description = "Compare hazard models at a site";
+    final List<String> syntax = ImmutableList.of(
+        "%s://%s/nshmp-haz-ws/compare?model={model},{model}[,...]" +
+            "&longitude={longitude}&latitude={latitude}&vs30={vs30}" +
+            "[&returnperiod={returnPeriod}]");
+    final String parameters = "Models are compared to the first model; see the /haz " +
+        "service for supported models and vs30 values. Return periods default to 475 " +
+        "and 2475 years.";
+  }
+
+}
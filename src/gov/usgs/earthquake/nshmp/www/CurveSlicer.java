@@ -0,0 +1,89 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Log-log slicing of hazard curves that share ground motions (IMLs).
+ *
+ * <p>Returns the ground motion at which a curve reaches each of a set of target
+ * values, interpolating linearly in log(ground motion)–log(value) space, as
+ * {@code Interpolator.builder().logx().logy().decreasingX()} does. The logs of
+ * the ground motions and targets are computed once, at construction, and each
+ * curve is then sliced at every target in a single forward scan, computing the
+ * logs of only those curve values that bound a target. Targets beyond the
+ * range of a curve are extrapolated from its first or last segment.
+ *
+ * <p>Curves that fall to zero are not extrapolated: a target below the last
+ * non-zero value of a curve yields the ground motion of that value.
+ *
+ * <p>This is the single slicing kernel for the hazard services and the AWS
+ * slicing lambdas, so that a ground motion at a return period is the same
+ * wherever it is computed.
+ *
+ * <p>Instances are immutable; {@link #slice(double[], double[])} does not
+ * allocate.
+ */
+public final class CurveSlicer {
+
+  private final double[] logImls;
+
+  /* Log targets, decreasing, and their index in request order. */
+  private final double[] logTargets;
+  private final int[] order;
+
+  /**
+   * Create a slicer.
+   *
+   * @param imls curve ground motions, increasing
+   * @param targets curve values at which to slice, in any order
+   */
+  public CurveSlicer(double[] imls, List<Double> targets) {
+    checkArgument(imls.length > 1, "Curves must have at least two values");
+    logImls = new double[imls.length];
+    for (int i = 0; i < imls.length; i++) {
+      logImls[i] = Math.log(imls[i]);
+    }
+
+    int size = targets.size();
+    Integer[] indices = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      indices[i] = i;
+    }
+    Arrays.sort(indices, (i, j) -> Double.compare(targets.get(j), targets.get(i)));
+    logTargets = new double[size];
+    order = new int[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = indices[i];
+      logTargets[i] = Math.log(targets.get(indices[i]));
+    }
+  }
+
+  /**
+   * Slice a curve.
+   *
+   * @param values curve values at each ground motion, decreasing
+   * @param out receives the ground motion at each target, in the order
+   *        supplied at construction
+   */
+  public void slice(double[] values, double[] out) {
+    int last = logImls.length - 2;
+    int i = 0;
+    double y1 = Math.log(values[0]);
+    double y2 = Math.log(values[1]);
+    for (int t = 0; t < logTargets.length; t++) {
+      double y = logTargets[t];
+      while (i < last && y2 >= y) {
+        i++;
+        y1 = y2;
+        y2 = Math.log(values[i + 1]);
+      }
+      double x1 = logImls[i];
+      double x = x1 + (y - y1) * (logImls[i + 1] - x1) / (y2 - y1);
+      out[order[t]] = Math.exp(x);
+    }
+  }
+
+}
@@ -4,9 +4,14 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.MODEL_CACHE_CONTEXT_ID;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.emptyRequest;
+import static gov.usgs.earthquake.nshmp.www.Util.parseDouble;
+import static gov.usgs.earthquake.nshmp.www.Util.parseValue;
 import static gov.usgs.earthquake.nshmp.www.Util.readBoolean;
 import static gov.usgs.earthquake.nshmp.www.Util.readDouble;
+import static gov.usgs.earthquake.nshmp.www.Util.readValueList;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.BASIN;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.COMPACT;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.IMT;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.LATITUDE;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.LONGITUDE;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.MODEL;
@@ -14,13 +19,12 @@ import static gov.usgs.earthquake.nshmp.www.Util.Key.VS30;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
 import java.time.ZonedDateTime;
-import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 
@@ -32,6 +36,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 
 import gov.usgs.earthquake.nshmp.calc.CalcConfig;
 import gov.usgs.earthquake.nshmp.calc.Deaggregation;
@@ -61,10 +66,7 @@ public final class DeaggEpsilonService extends NshmpServlet {
   /* Developer notes: See HazardService. */
 
   private LoadingCache<Model, HazardModel> modelCache;
-  private URL basinUrl;
-
-  private static final String USAGE = SourceServices.GSON.toJson(
-      new SourceServices.ResponseData());
+  private BasinDataClient basinClient;
 
   @Override
   @SuppressWarnings("unchecked")
@@ -82,12 +84,9 @@ public final class DeaggEpsilonService extends NshmpServlet {
       Properties props = new Properties();
       props.load(config);
       if (props.containsKey("basin_host")) {
-        /*
-         * TODO Site builder tests if service is working, which may be
-         * inefficient for single call services.
-         */
-        URL url = new URL(props.getProperty("basin_host") + "/nshmp-site-ws/basin/local-data");
-        this.basinUrl = url;
+        this.basinClient = BasinDataClient.create(
+            props.getProperty("basin_host"),
+            "/nshmp-site-ws/basin/local-data");
       }
     } catch (IOException | NullPointerException e) {
       throw new ServletException(e);
@@ -103,15 +102,16 @@ public final class DeaggEpsilonService extends NshmpServlet {
     UrlHelper urlHelper = urlHelper(request, response);
 
     if (emptyRequest(request)) {
-      urlHelper.writeResponse(USAGE);
+      urlHelper.writeResponse(SourceServices.usage());
       return;
     }
 
     try {
       RequestData requestData = buildRequestData(request);
+      boolean compact = readBoolean(COMPACT, request, false);
 
       /* Submit as task to job executor */
-      Deagg2Task task = new Deagg2Task(urlHelper.url, getServletContext(), requestData);
+      Deagg2Task task = new Deagg2Task(urlHelper.url, getServletContext(), requestData, compact);
       Result result = ServletUtil.TASK_EXECUTOR.submit(task).get();
       GSON.toJson(result, response.getWriter());
 
@@ -126,44 +126,34 @@ public final class DeaggEpsilonService extends NshmpServlet {
   static RequestData buildRequestData(HttpServletRequest request) {
 
     try {
-
       /* process query '?' request */
-      List<Model> models = readModelsFromQuery(request);
-      double lon = readDouble(LONGITUDE, request);
-      double lat = readDouble(LATITUDE, request);
-      Map<Imt, Double> imtImls = readImtsFromQuery(request);
-      double vs30 = readDouble(VS30, request);
-      boolean basin = readBoolean(BASIN, request);
-
-      return new RequestData(
-          models,
-          lon,
-          lat,
-          imtImls,
-          vs30,
-          basin);
-
+      return buildRequestData(request.getParameterMap());
+    } catch (IllegalArgumentException iae) {
+      throw iae;
     } catch (Exception e) {
       throw new IllegalArgumentException("Error parsing request URL", e);
     }
   }
 
-  private static List<Model> readModelsFromQuery(HttpServletRequest request) {
-    String[] ids = Util.readValues(MODEL, request);
-    return Arrays.stream(ids)
-        .map(Model::valueOf)
-        .distinct()
-        .collect(ImmutableList.toImmutableList());
+  /* Reduce parameter map key-value pairs. */
+  static RequestData buildRequestData(Map<String, String[]> paramMap) {
+    return new RequestData(
+        readValueList(MODEL, paramMap, Model.class),
+        readDouble(LONGITUDE, paramMap),
+        readDouble(LATITUDE, paramMap),
+        readImts(paramMap),
+        readDouble(VS30, paramMap),
+        readBoolean(BASIN, paramMap));
   }
 
   /* Create map of IMT to deagg IML. */
-  private static Map<Imt, Double> readImtsFromQuery(HttpServletRequest request) {
+  private static Map<Imt, Double> readImts(Map<String, String[]> paramMap) {
     EnumMap<Imt, Double> imtImls = new EnumMap<>(Imt.class);
-    for (Entry<String, String[]> param : request.getParameterMap().entrySet()) {
+    for (Entry<String, String[]> param : paramMap.entrySet()) {
       if (isImtParam(param.getKey())) {
         imtImls.put(
-            Imt.valueOf(param.getKey()),
-            Double.valueOf(param.getValue()[0]));
+            parseValue(IMT, param.getKey(), Imt.class),
+            parseDouble(IMT, param.getValue()[0]));
       }
     }
     return imtImls;
@@ -176,10 +166,12 @@ public final class DeaggEpsilonService extends NshmpServlet {
   private class Deagg2Task extends TimedTask<Result> {
 
     RequestData data;
+    boolean compact;
 
-    Deagg2Task(String url, ServletContext context, RequestData data) {
+    Deagg2Task(String url, ServletContext context, RequestData data, boolean compact) {
       super(url, context);
       this.data = data;
+      this.compact = compact;
     }
 
     @Override
@@ -190,6 +182,7 @@ public final class DeaggEpsilonService extends NshmpServlet {
           .requestData(data)
           .url(url)
           .timer(timer)
+          .compact(compact)
           .deagg(deagg)
           .build();
     }
@@ -201,19 +194,20 @@ public final class DeaggEpsilonService extends NshmpServlet {
    * We're opting here to fetch basin terms ourselves. If we were to set the
    * basin provider in the config, which requires additions to config, the URL
    * is tested every time a site is created for a servlet request. While this
-   * worked for maps it's not good here.
-   * 
-   * Site has logic for parsing the basin service response, which perhaps it
-   * shouldn't. TODO is it worth decomposing data objects and services
+   * worked for maps it's not good here. Basin terms are supplied by a shared,
+   * caching BasinDataClient instead.
    */
   Deaggregation calcDeagg(RequestData data) {
     Location loc = Location.create(data.latitude, data.longitude);
 
-    Site site = Site.builder()
-        .location(Location.create(data.latitude, data.longitude))
-        .basinDataProvider(data.basin ? this.basinUrl : null)
-        .vs30(data.vs30)
-        .build();
+    Site.Builder siteBuilder = Site.builder()
+        .location(loc)
+        .vs30(data.vs30);
+    if (data.basin && basinClient != null) {
+      BasinDataClient.Terms basinTerms = basinClient.terms(data.latitude, data.longitude);
+      siteBuilder.z1p0(basinTerms.z1p0).z2p5(basinTerms.z2p5);
+    }
+    Site site = siteBuilder.build();
 
     Hazard[] hazards = new Hazard[data.models.size()];
     for (int i = 0; i < data.models.size(); i++) {
@@ -233,6 +227,11 @@ public final class DeaggEpsilonService extends NshmpServlet {
     return HazardCalcs.hazard(model, config, site, ServletUtil.CALC_EXECUTOR);
   }
 
+  /*
+   * Request data is immutable and hashable and may be used as a canonical
+   * request key by caches. Model order is retained as it determines the order
+   * of hazard merging.
+   */
   static final class RequestData {
 
     final List<Model> models;
@@ -250,13 +249,35 @@ public final class DeaggEpsilonService extends NshmpServlet {
         double vs30,
         boolean basin) {
 
-      this.models = models;
+      this.models = ImmutableList.copyOf(models);
       this.latitude = latitude;
       this.longitude = longitude;
-      this.imtImls = imtImls;
+      this.imtImls = Maps.immutableEnumMap(imtImls);
       this.vs30 = vs30;
       this.basin = basin;
     }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof RequestData)) {
+        return false;
+      }
+      RequestData that = (RequestData) obj;
+      return models.equals(that.models) &&
+          Double.compare(latitude, that.latitude) == 0 &&
+          Double.compare(longitude, that.longitude) == 0 &&
+          imtImls.equals(that.imtImls) &&
+          Double.compare(vs30, that.vs30) == 0 &&
+          basin == that.basin;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(models, latitude, longitude, imtImls, vs30, basin);
+    }
   }
 
   private static final class ResponseData {
@@ -314,12 +335,18 @@ public final class DeaggEpsilonService extends NshmpServlet {
       Timer timer;
       RequestData request;
       Deaggregation deagg;
+      boolean compact;
 
       Builder deagg(Deaggregation deagg) {
         this.deagg = deagg;
         return this;
       }
 
+      Builder compact(boolean compact) {
+        this.compact = compact;
+        return this;
+      }
+
       Builder url(String url) {
         this.url = url;
         return this;
@@ -340,7 +367,9 @@ public final class DeaggEpsilonService extends NshmpServlet {
 
         for (Imt imt : request.imtImls.keySet()) {
           ResponseData responseData = new ResponseData(deagg, request, imt);
-          Object deaggs = deagg.toJsonCompact(imt);
+          Object deaggs = compact
+            ? SparseDeagg.encode(deagg.toJsonCompact(imt))
+            : deagg.toJsonCompact(imt);
           Response response = new Response(responseData, deaggs);
           responseListBuilder.add(response);
         }
@@ -1,12 +1,19 @@
 package gov.usgs.earthquake.nshmp.www;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.emptyRequest;
+import static gov.usgs.earthquake.nshmp.www.Util.readBoolean;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.COMPACT;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -16,6 +23,8 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import gov.usgs.earthquake.nshmp.calc.Deaggregation;
 import gov.usgs.earthquake.nshmp.calc.Hazard;
@@ -46,7 +55,19 @@ import gov.usgs.earthquake.nshmp.www.meta.Status;
         "/deagg/*" })
 public final class DeaggService extends NshmpServlet {
 
-  /* Developer notes: See HazardService. */
+  /*
+   * Developer notes: See HazardService.
+   * 
+   * Multiple return periods may be requested, as repeated or comma-delimited
+   * values. Hazard is computed once and the deaggregations at each return
+   * period are run concurrently on the DRIVER_EXECUTOR, each distributing its
+   * work over the CALC_EXECUTOR. Responses are returned for each return
+   * period, in request order, and each IMT.
+   */
+
+  static final int MAX_RETURN_PERIODS = 10;
+
+  private static final UsageDocument USAGE = UsageDocument.of(Metadata.DEAGG_USAGE);
 
   @Override
   protected void doGet(
@@ -59,7 +80,7 @@ public final class DeaggService extends NshmpServlet {
     Optional<String> pathInfo = Optional.ofNullable(request.getPathInfo());
 
     if (emptyRequest(request)) {
-      urlHelper.writeResponse(Metadata.DEAGG_USAGE);
+      urlHelper.writeResponse(USAGE);
       return;
     }
 
@@ -78,22 +99,24 @@ public final class DeaggService extends NshmpServlet {
     }
 
     RequestData requestData;
+    boolean compact = false;
     try {
       if (query != null) {
         /* process query '?' request */
-        requestData = HazardService.buildRequest(request);
+        requestData = buildRequest(request.getParameterMap());
+        compact = readBoolean(COMPACT, request, false);
       } else {
         /* process slash-delimited request */
         List<String> params = Parsing.splitToList(pathInfo.get(), Delimiter.SLASH);
         if (params.size() < 7) {
-          urlHelper.writeResponse(Metadata.DEAGG_USAGE);
+          urlHelper.writeResponse(USAGE);
           return;
         }
         requestData = HazardService.buildRequest(params);
       }
 
       /* Submit as task to job executor */
-      DeaggTask task = new DeaggTask(urlHelper.url, getServletContext(), requestData);
+      DeaggTask task = new DeaggTask(urlHelper.url, getServletContext(), requestData, compact);
       Result result = ServletUtil.TASK_EXECUTOR.submit(task).get();
       String resultStr = GSON.toJson(result);
       response.getWriter().print(resultStr);
@@ -105,33 +128,95 @@ public final class DeaggService extends NshmpServlet {
     }
   }
 
+  /*
+   * Compute and write the result for a query parameter map. Used by the
+   * JobService, which runs jobs on its own executor.
+   */
+  static void writeResult(
+      Map<String, String[]> paramMap,
+      String url,
+      ServletContext context,
+      Writer writer) throws Exception {
+
+    RequestData requestData = buildRequest(paramMap);
+    boolean compact = readCompact(paramMap);
+    Result result = new DeaggTask(url, context, requestData, compact).call();
+    GSON.toJson(result, writer);
+  }
+
+  /*
+   * Reduce query string key-value pairs as for hazard, additionally checking
+   * the deagg return periods. Also used to validate deagg jobs.
+   */
+  static RequestData buildRequest(Map<String, String[]> paramMap) {
+    RequestData requestData = HazardService.buildRequest(paramMap);
+    checkReturnPeriods(requestData.returnPeriods);
+    return requestData;
+  }
+
+  /* Whether the sparse encoding is requested; false if absent. */
+  static boolean readCompact(Map<String, String[]> paramMap) {
+    return paramMap.containsKey(COMPACT.toString()) && Util.readBoolean(COMPACT, paramMap);
+  }
+
+  private static void checkReturnPeriods(List<Double> returnPeriods) {
+    checkArgument(!returnPeriods.isEmpty(), "Missing return period");
+    checkArgument(
+        returnPeriods.size() <= MAX_RETURN_PERIODS,
+        "Deagg requests are limited to %s return periods",
+        MAX_RETURN_PERIODS);
+  }
+
   private static class DeaggTask extends TimedTask<Result> {
 
     RequestData data;
+    boolean compact;
 
-    DeaggTask(String url, ServletContext context, RequestData data) {
+    DeaggTask(String url, ServletContext context, RequestData data, boolean compact) {
       super(url, context);
       this.data = data;
+      this.compact = compact;
     }
 
     @Override
     Result calc() throws Exception {
 
       Hazard hazard = HazardService.calcHazard(data, context);
-      Deaggregation deagg = HazardCalcs.deaggReturnPeriod(
-          hazard,
-          data.returnPeriod.getAsDouble(),
-          ServletUtil.CALC_EXECUTOR);
+      List<Deaggregation> deaggs = deaggReturnPeriods(hazard, data.returnPeriods);
 
       return new Result.Builder()
           .requestData(data)
           .url(url)
           .timer(timer)
-          .deagg(deagg)
+          .compact(compact)
+          .deaggs(deaggs)
           .build();
     }
   }
 
+  /*
+   * Deaggregate hazard at each return period, returning deaggregations in
+   * return period order. Also used by DeaggService2.
+   */
+  static List<Deaggregation> deaggReturnPeriods(Hazard hazard, List<Double> returnPeriods)
+      throws InterruptedException, ExecutionException {
+
+    checkReturnPeriods(returnPeriods);
+
+    if (returnPeriods.size() == 1) {
+      return ImmutableList.of(HazardCalcs.deaggReturnPeriod(
+          hazard,
+          returnPeriods.get(0),
+          ServletUtil.CALC_EXECUTOR));
+    }
+    List<ListenableFuture<Deaggregation>> futures = new ArrayList<>();
+    for (double returnPeriod : returnPeriods) {
+      futures.add(ServletUtil.DRIVER_EXECUTOR.submit(
+          () -> HazardCalcs.deaggReturnPeriod(hazard, returnPeriod, ServletUtil.CALC_EXECUTOR)));
+    }
+    return Futures.allAsList(futures).get();
+  }
+
   private static final class ResponseData {
 
     final Edition edition;
@@ -146,13 +231,13 @@ public final class DeaggService extends NshmpServlet {
     final String εlabel = "% Contribution to Hazard";
     final Object εbins;
 
-    ResponseData(Deaggregation deagg, RequestData request, Imt imt) {
+    ResponseData(Deaggregation deagg, RequestData request, Imt imt, double returnPeriod) {
       this.edition = request.edition;
       this.region = request.region;
       this.longitude = request.longitude;
       this.latitude = request.latitude;
       this.imt = imt;
-      this.returnperiod = request.returnPeriod.getAsDouble();
+      this.returnperiod = returnPeriod;
       this.vs30 = request.vs30;
       this.εbins = deagg.εBins();
     }
@@ -190,10 +275,17 @@ public final class DeaggService extends NshmpServlet {
       String url;
       Timer timer;
       RequestData request;
-      Deaggregation deagg;
+      List<Deaggregation> deaggs;
+      boolean compact;
+
+      /* Deaggregations in request return period order. */
+      Builder deaggs(List<Deaggregation> deaggs) {
+        this.deaggs = deaggs;
+        return this;
+      }
 
-      Builder deagg(Deaggregation deagg) {
-        this.deagg = deagg;
+      Builder compact(boolean compact) {
+        this.compact = compact;
         return this;
       }
 
@@ -215,14 +307,21 @@ public final class DeaggService extends NshmpServlet {
       Result build() {
 
         ImmutableList.Builder<Response> responseListBuilder = ImmutableList.builder();
-        for (Imt imt : request.imts) {
-          ResponseData responseData = new ResponseData(
-              deagg,
-              request,
-              imt);
-          Object deaggs = deagg.toJson(imt);
-          Response response = new Response(responseData, deaggs);
-          responseListBuilder.add(response);
+        for (int i = 0; i < deaggs.size(); i++) {
+          Deaggregation deagg = deaggs.get(i);
+          double returnPeriod = request.returnPeriods.get(i);
+          for (Imt imt : request.imts) {
+            ResponseData responseData = new ResponseData(
+                deagg,
+                request,
+                imt,
+                returnPeriod);
+            Object deaggJson = compact
+                ? SparseDeagg.encode(deagg.toJson(imt))
+                : deagg.toJson(imt);
+            Response response = new Response(responseData, deaggJson);
+            responseListBuilder.add(response);
+          }
         }
         List<Response> responseList = responseListBuilder.build();
         Object server = Metadata.serverData(ServletUtil.THREAD_COUNT, timer);
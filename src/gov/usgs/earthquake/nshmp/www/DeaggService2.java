@@ -4,10 +4,18 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.MODEL_CACHE_CONTEXT_ID;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.emptyRequest;
+import static gov.usgs.earthquake.nshmp.www.Util.parseBoolean;
+import static gov.usgs.earthquake.nshmp.www.Util.parseDouble;
+import static gov.usgs.earthquake.nshmp.www.Util.parseDoubles;
+import static gov.usgs.earthquake.nshmp.www.Util.parseValueList;
+import static gov.usgs.earthquake.nshmp.www.Util.parseValues;
 import static gov.usgs.earthquake.nshmp.www.Util.readBoolean;
 import static gov.usgs.earthquake.nshmp.www.Util.readDouble;
-import static gov.usgs.earthquake.nshmp.www.Util.readValue;
+import static gov.usgs.earthquake.nshmp.www.Util.readDoubles;
+import static gov.usgs.earthquake.nshmp.www.Util.readValueList;
+import static gov.usgs.earthquake.nshmp.www.Util.readValues;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.BASIN;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.COMPACT;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.IMT;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.LATITUDE;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.LONGITUDE;
@@ -17,13 +25,14 @@ import static gov.usgs.earthquake.nshmp.www.Util.Key.VS30;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
 import java.time.ZonedDateTime;
-import java.util.Arrays;
-import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -33,6 +42,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
 
 import gov.usgs.earthquake.nshmp.calc.CalcConfig;
 import gov.usgs.earthquake.nshmp.calc.Deaggregation;
@@ -67,10 +77,7 @@ public final class DeaggService2 extends NshmpServlet {
   /* Developer notes: See HazardService. */
 
   private LoadingCache<Model, HazardModel> modelCache;
-  private URL basinUrl;
-
-  private static final String USAGE = SourceServices.GSON.toJson(
-      new SourceServices.ResponseData());
+  private BasinDataClient basinClient;
 
   @Override
   @SuppressWarnings("unchecked")
@@ -88,12 +95,9 @@ public final class DeaggService2 extends NshmpServlet {
       Properties props = new Properties();
       props.load(config);
       if (props.containsKey("basin_host")) {
-        /*
-         * TODO Site builder tests if service is working, which may be
-         * inefficient for single call services.
-         */
-        URL url = new URL(props.getProperty("basin_host") + "/nshmp-site-ws/basin");
-        this.basinUrl = url;
+        this.basinClient = BasinDataClient.create(
+            props.getProperty("basin_host"),
+            "/nshmp-site-ws/basin");
       }
     } catch (IOException | NullPointerException e) {
       throw new ServletException(e);
@@ -109,15 +113,16 @@ public final class DeaggService2 extends NshmpServlet {
     UrlHelper urlHelper = urlHelper(request, response);
 
     if (emptyRequest(request)) {
-      urlHelper.writeResponse(USAGE);
+      urlHelper.writeResponse(SourceServices.usage());
       return;
     }
 
     try {
       RequestData requestData = buildRequestData(request);
+      boolean compact = readBoolean(COMPACT, request, false);
 
       /* Submit as task to job executor */
-      Deagg2Task task = new Deagg2Task(urlHelper.url, getServletContext(), requestData);
+      Deagg2Task task = new Deagg2Task(urlHelper.url, getServletContext(), requestData, compact);
       Result result = ServletUtil.TASK_EXECUTOR.submit(task).get();
       GSON.toJson(result, response.getWriter());
 
@@ -133,85 +138,64 @@ public final class DeaggService2 extends NshmpServlet {
 
     try {
 
-      List<Model> models;
-      double lon;
-      double lat;
-      Imt imt;
-      double vs30;
-      double returnPeriod;
-      boolean basin;
-
       if (request.getQueryString() != null) {
         /* process query '?' request */
-        models = readModelsFromQuery(request);
-        lon = readDouble(LONGITUDE, request);
-        lat = readDouble(LATITUDE, request);
-        imt = readValue(IMT, request, Imt.class);
-        vs30 = readDouble(VS30, request);
-        returnPeriod = readDouble(RETURNPERIOD, request);
-        basin = readBoolean(BASIN, request);
-
-      } else {
-        /* process slash-delimited request */
-        List<String> params = Parsing.splitToList(
-            request.getPathInfo(),
-            Delimiter.SLASH);
-        models = readModelsFromString(params.get(0));
-        lon = Double.valueOf(params.get(1));
-        lat = Double.valueOf(params.get(2));
-        imt = Imt.valueOf(params.get(3));
-        vs30 = Double.valueOf(params.get(4));
-        returnPeriod = Double.valueOf(params.get(5));
-        basin = Boolean.valueOf(params.get(6));
+        return buildRequestData(request.getParameterMap());
       }
 
+      /* process slash-delimited request */
+      List<String> params = Parsing.splitToList(
+          request.getPathInfo(),
+          Delimiter.SLASH);
       return new RequestData(
-          models,
-          lon,
-          lat,
-          imt,
-          vs30,
-          returnPeriod,
-          basin);
-
+          parseValueList(MODEL, params.get(0), Model.class),
+          parseDouble(LONGITUDE, params.get(1)),
+          parseDouble(LATITUDE, params.get(2)),
+          parseValues(IMT, params.get(3), Imt.class),
+          parseDouble(VS30, params.get(4)),
+          parseDoubles(RETURNPERIOD, params.get(5)),
+          parseBoolean(BASIN, params.get(6)));
+
+    } catch (IllegalArgumentException iae) {
+      throw iae;
     } catch (Exception e) {
       throw new IllegalArgumentException("Error parsing request URL", e);
     }
   }
 
-  private static List<Model> readModelsFromString(String models) {
-    return Parsing.splitToList(models, Delimiter.COMMA).stream()
-        .map(Model::valueOf)
-        .distinct()
-        .collect(ImmutableList.toImmutableList());
-  }
-
-  private static List<Model> readModelsFromQuery(HttpServletRequest request) {
-    String[] ids = Util.readValues(MODEL, request);
-    return Arrays.stream(ids)
-        .map(Model::valueOf)
-        .distinct()
-        .collect(ImmutableList.toImmutableList());
+  /* Reduce parameter map key-value pairs. */
+  static RequestData buildRequestData(Map<String, String[]> paramMap) {
+    return new RequestData(
+        readValueList(MODEL, paramMap, Model.class),
+        readDouble(LONGITUDE, paramMap),
+        readDouble(LATITUDE, paramMap),
+        readValues(IMT, paramMap, Imt.class),
+        readDouble(VS30, paramMap),
+        readDoubles(RETURNPERIOD, paramMap),
+        readBoolean(BASIN, paramMap));
   }
 
   private class Deagg2Task extends TimedTask<Result> {
 
     RequestData data;
+    boolean compact;
 
-    Deagg2Task(String url, ServletContext context, RequestData data) {
+    Deagg2Task(String url, ServletContext context, RequestData data, boolean compact) {
       super(url, context);
       this.data = data;
+      this.compact = compact;
     }
 
     @Override
     Result calc() throws Exception {
-      Deaggregation deagg = calcDeagg(data);
+      List<Deaggregation> deaggs = calcDeaggs(data);
 
       return new Result.Builder()
           .requestData(data)
           .url(url)
           .timer(timer)
-          .deagg(deagg)
+          .compact(compact)
+          .deaggs(deaggs)
           .build();
     }
   }
@@ -222,67 +206,97 @@ public final class DeaggService2 extends NshmpServlet {
    * We're opting here to fetch basin terms ourselves. If we were to set the
    * basin provider in the config, which requires additions to config, the URL
    * is tested every time a site is created for a servlet request. While this
-   * worked for maps it's not good here.
+   * worked for maps it's not good here. Basin terms are supplied by a shared,
+   * caching BasinDataClient instead.
    * 
-   * Site has logic for parsing the basin service response, which perhaps it
-   * shouldn't. TODO is it worth decomposing data objects and services
+   * Hazard is computed once for all requested IMTs and deaggregated at each
+   * requested return period; see DeaggService.
    */
-  Deaggregation calcDeagg(RequestData data) {
+  List<Deaggregation> calcDeaggs(RequestData data)
+      throws InterruptedException, ExecutionException {
     Location loc = Location.create(data.latitude, data.longitude);
 
-    Site site = Site.builder()
-        .location(Location.create(data.latitude, data.longitude))
-        .basinDataProvider(data.basin ? this.basinUrl : null)
-        .vs30(data.vs30)
-        .build();
+    Site.Builder siteBuilder = Site.builder()
+        .location(loc)
+        .vs30(data.vs30);
+    if (data.basin && basinClient != null) {
+      BasinDataClient.Terms basinTerms = basinClient.terms(data.latitude, data.longitude);
+      siteBuilder.z1p0(basinTerms.z1p0).z2p5(basinTerms.z2p5);
+    }
+    Site site = siteBuilder.build();
 
     Hazard[] hazards = new Hazard[data.models.size()];
     for (int i = 0; i < data.models.size(); i++) {
       HazardModel model = modelCache.getUnchecked(data.models.get(i));
-      hazards[i] = process(model, site, data.imt);
+      hazards[i] = process(model, site, data.imts);
     }
     Hazard hazard = Hazard.merge(hazards);
-    return HazardCalcs.deaggReturnPeriod(
-        hazard,
-        data.returnPeriod,
-        ServletUtil.CALC_EXECUTOR);
+    return DeaggService.deaggReturnPeriods(hazard, data.returnPeriods);
   }
 
-  private static Hazard process(HazardModel model, Site site, Imt imt) {
+  private static Hazard process(HazardModel model, Site site, Set<Imt> imts) {
     CalcConfig config = CalcConfig.Builder
         .copyOf(model.config())
-        .imts(EnumSet.of(imt))
+        .imts(imts)
         .build();
     return HazardCalcs.hazard(model, config, site, ServletUtil.CALC_EXECUTOR);
   }
 
+  /*
+   * Request data is immutable and hashable and may be used as a canonical
+   * request key by caches. Model order is retained as it determines the order
+   * of hazard merging.
+   */
   static final class RequestData {
 
     final List<Model> models;
     final double latitude;
     final double longitude;
-    final Imt imt;
+    final Set<Imt> imts;
     final double vs30;
-    final double returnPeriod;
+    final List<Double> returnPeriods;
     final boolean basin;
 
     RequestData(
         List<Model> models,
         double longitude,
         double latitude,
-        Imt imt,
+        Set<Imt> imts,
         double vs30,
-        double returnPeriod,
+        List<Double> returnPeriods,
         boolean basin) {
 
-      this.models = models;
+      this.models = ImmutableList.copyOf(models);
       this.latitude = latitude;
       this.longitude = longitude;
-      this.imt = imt;
+      this.imts = Sets.immutableEnumSet(imts);
       this.vs30 = vs30;
-      this.returnPeriod = returnPeriod;
+      this.returnPeriods = ImmutableList.copyOf(returnPeriods);
       this.basin = basin;
     }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof RequestData)) {
+        return false;
+      }
+      RequestData that = (RequestData) obj;
+      return models.equals(that.models) &&
+          Double.compare(latitude, that.latitude) == 0 &&
+          Double.compare(longitude, that.longitude) == 0 &&
+          imts.equals(that.imts) &&
+          Double.compare(vs30, that.vs30) == 0 &&
+          returnPeriods.equals(that.returnPeriods) &&
+          basin == that.basin;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(models, latitude, longitude, imts, vs30, returnPeriods, basin);
+    }
   }
 
   private static final class ResponseData {
@@ -298,13 +312,13 @@ public final class DeaggService2 extends NshmpServlet {
     final String εlabel = "% Contribution to Hazard";
     final Object εbins;
 
-    ResponseData(Deaggregation deagg, RequestData request, Imt imt) {
+    ResponseData(Deaggregation deagg, RequestData request, Imt imt, double returnPeriod) {
       this.models = request.models;
       this.longitude = request.longitude;
       this.latitude = request.latitude;
       this.imt = imt;
       this.vs30 = request.vs30;
-      this.returnperiod = request.returnPeriod;
+      this.returnperiod = returnPeriod;
       this.εbins = deagg.εBins();
     }
   }
@@ -339,10 +353,17 @@ public final class DeaggService2 extends NshmpServlet {
       String url;
       Timer timer;
       RequestData request;
-      Deaggregation deagg;
+      List<Deaggregation> deaggs;
+      boolean compact;
+
+      /* Deaggregations in request return period order. */
+      Builder deaggs(List<Deaggregation> deaggs) {
+        this.deaggs = deaggs;
+        return this;
+      }
 
-      Builder deagg(Deaggregation deagg) {
-        this.deagg = deagg;
+      Builder compact(boolean compact) {
+        this.compact = compact;
         return this;
       }
 
@@ -364,14 +385,22 @@ public final class DeaggService2 extends NshmpServlet {
       Result build() {
 
         ImmutableList.Builder<Response> responseListBuilder = ImmutableList.builder();
-        Imt imt = request.imt;
-        ResponseData responseData = new ResponseData(
-            deagg,
-            request,
-            imt);
-        Object deaggs = deagg.toJson(imt);
-        Response response = new Response(responseData, deaggs);
-        responseListBuilder.add(response);
+        for (int i = 0; i < deaggs.size(); i++) {
+          Deaggregation deagg = deaggs.get(i);
+          double returnPeriod = request.returnPeriods.get(i);
+          for (Imt imt : request.imts) {
+            ResponseData responseData = new ResponseData(
+                deagg,
+                request,
+                imt,
+                returnPeriod);
+            Object deaggJson = compact
+                ? SparseDeagg.encode(deagg.toJson(imt))
+                : deagg.toJson(imt);
+            Response response = new Response(responseData, deaggJson);
+            responseListBuilder.add(response);
+          }
+        }
 
         List<Response> responseList = responseListBuilder.build();
         Object server = Metadata.serverData(ServletUtil.THREAD_COUNT, timer);
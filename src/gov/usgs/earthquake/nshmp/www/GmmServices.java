@@ -1,29 +1,37 @@
 package gov.usgs.earthquake.nshmp.www;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static gov.usgs.earthquake.nshmp.ResponseSpectra.spectra;
 import static gov.usgs.earthquake.nshmp.gmm.GmmInput.Field.VSINF;
 import static gov.usgs.earthquake.nshmp.gmm.Imt.AI;
 import static gov.usgs.earthquake.nshmp.gmm.Imt.PGV;
+import static gov.usgs.earthquake.nshmp.www.Util.parseValue;
 import static gov.usgs.earthquake.nshmp.www.Util.readValue;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.IMT;
 import static gov.usgs.earthquake.nshmp.www.meta.Metadata.errorMessage;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Type;
 import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.servlet.ServletException;
@@ -32,6 +40,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.base.Enums;
+import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
@@ -42,6 +51,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonWriter;
 
 import gov.usgs.earthquake.nshmp.GroundMotions;
 import gov.usgs.earthquake.nshmp.GroundMotions.DistanceResult;
@@ -71,12 +81,14 @@ public class GmmServices extends NshmpServlet {
   private static final long serialVersionUID = 1L;
 
   private static final Gson GSON;
+  private static final Map<Service, UsageDocument> USAGE;
 
   private static final String GMM_KEY = "gmm";
   private static final String RMIN_KEY = "rMin";
   private static final String RMAX_KEY = "rMax";
   private static final String IMT_KEY = "imt";
   private static final int ROUND = 5;
+  private static final int MAX_POST_IN_FLIGHT = 4 * ServletUtil.THREAD_COUNT;
 
   static {
     GSON = new GsonBuilder()
@@ -88,6 +100,12 @@ public class GmmServices extends NshmpServlet {
         .registerTypeAdapter(Imt.class, new Util.EnumSerializer<Imt>())
         .registerTypeAdapter(Constraints.class, new Util.ConstraintsSerializer())
         .create();
+
+    /* Gmm metadata is static; serialize once per service. */
+    USAGE = new EnumMap<>(Service.class);
+    for (Service service : Service.values()) {
+      USAGE.put(service, UsageDocument.of(GSON.toJson(new Metadata(service))));
+    }
   }
 
   @Override
@@ -129,57 +147,167 @@ public class GmmServices extends NshmpServlet {
       /* At a minimum, Gmms must be defined. */
       if (!hasGMM(request, service, urlHelper)) return;
 
-      String[] gmmParams = request.getParameterValues(GMM_KEY);
+      String header = nextLine(requestReader);
+      checkState(header != null, "Post data is empty");
+      PostColumns columns = new PostColumns(
+          buildGmmSet(request.getParameterMap()),
+          Parsing.splitToList(header, Delimiter.COMMA));
 
-      List<String> requestData = requestReader.lines().collect(Collectors.toList());
+      processPost(service, columns, requestReader, response.getWriter(), urlHelper);
 
-      if (requestData.isEmpty()) {
-        throw new IllegalStateException("Post data is empty");
+    } catch (Exception e) {
+      getServletContext().log(urlHelper.url, e);
+      if (response.isCommitted()) {
+        /* Partial output; an unterminated response signals the failure. */
+        throw new IOException(e);
       }
+      response.resetBuffer();
+      String message = errorMessage(urlHelper.url, e, false);
+      response.getWriter().print(message);
+    }
+  }
 
-      List<String> keys = Parsing.splitToList(requestData.get(0), Delimiter.COMMA);
-
-      ResponseDataPost svcResponse = new ResponseDataPost(service, urlHelper);
-
-      List<ResponseData> gmmResponses = requestData.subList(1, requestData.size())
-          .parallelStream()
-          .filter((line) -> !line.startsWith("#") && !line.trim().isEmpty())
-          .map((line) -> {
-            List<String> values = Parsing.splitToList(line, Delimiter.COMMA);
-
-            Map<String, String[]> params = new HashMap<>();
-            params.put(GMM_KEY, gmmParams);
-
-            int index = 0;
+  /*
+   * Process POST data lines, streaming each result as it and all prior lines
+   * complete. Lines are parsed on the request thread and evaluated on the
+   * GMM_EXECUTOR with at most MAX_POST_IN_FLIGHT lines outstanding, so memory
+   * use is independent of the number of lines.
+   */
+  private static void processPost(
+      Service service,
+      PostColumns columns,
+      BufferedReader reader,
+      Writer writer,
+      UrlHelper urlHelper) throws IOException, InterruptedException, ExecutionException {
+
+    ResponseDataPost svcResponse = new ResponseDataPost(service, urlHelper);
+    JsonWriter json = GSON.newJsonWriter(writer);
+    json.beginObject();
+    json.name("name").value(svcResponse.name);
+    json.name("status").value(svcResponse.status);
+    json.name("date").value(svcResponse.date);
+    json.name("url").value(svcResponse.url);
+    json.name("server");
+    GSON.toJson(svcResponse.server, svcResponse.server.getClass(), json);
+    json.name("response");
+    json.beginArray();
+
+    Deque<Future<ResponseData>> pending = new ArrayDeque<>();
+    try {
+      String line;
+      while ((line = nextLine(reader)) != null) {
+        RequestData request = columns.request(Parsing.splitToList(line, Delimiter.COMMA));
+        pending.add(ServletUtil.GMM_EXECUTOR.submit(
+            () -> processRequest(service, request, urlHelper, false)));
+        if (pending.size() >= MAX_POST_IN_FLIGHT) {
+          GSON.toJson(pending.remove().get(), ResponseData.class, json);
+          json.flush();
+        }
+      }
+      while (!pending.isEmpty()) {
+        GSON.toJson(pending.remove().get(), ResponseData.class, json);
+      }
+    } finally {
+      for (Future<ResponseData> future : pending) {
+        future.cancel(true);
+      }
+    }
 
-            for (String key : keys) {
-              String value = values.get(index);
-              if ("null".equals(value.toLowerCase())) continue;
+    json.endArray();
+    json.endObject();
+    json.flush();
+  }
 
-              params.put(key, new String[] { value });
-              index++;
-            }
+  /* Next data line, skipping blank lines and comments; null at end. */
+  private static String nextLine(BufferedReader reader) throws IOException {
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (!line.startsWith("#") && !line.trim().isEmpty()) {
+        return line;
+      }
+    }
+    return null;
+  }
 
-            return processRequest(service, params, urlHelper);
-          })
-          .collect(Collectors.toList());
+  /*
+   * CSV column keys of POST data, resolved once per request. The GMM set and
+   * resolved input fields are shared by all lines; each line is read directly
+   * into a GmmInput builder. Empty and "null" values are skipped, leaving the
+   * default for that field.
+   */
+  private static final class PostColumns {
+
+    final Set<Gmm> gmms;
+    final List<String> keys;
+    final Field[] fields;
+
+    PostColumns(Set<Gmm> gmms, List<String> keys) {
+      this.gmms = gmms;
+      this.keys = keys;
+      this.fields = new Field[keys.size()];
+      for (int i = 0; i < fields.length; i++) {
+        String key = keys.get(i);
+        if (!isRequestKey(key)) {
+          fields[i] = Field.fromString(key);
+        }
+      }
+    }
 
-      svcResponse.setResponse(gmmResponses);
-      response.getWriter().print(GSON.toJson(svcResponse));
-    } catch (Exception e) {
-      String message = errorMessage(urlHelper.url, e, false);
-      response.getWriter().print(message);
-      e.printStackTrace();
+    RequestData request(List<String> values) {
+      checkArgument(
+          values.size() == keys.size(),
+          "Expected %s values in line: %s", keys.size(), values);
+
+      Builder builder = GmmInput.builder().withDefaults();
+      Imt imt = null;
+      double rMin = Double.NaN;
+      double rMax = Double.NaN;
+      for (int i = 0; i < fields.length; i++) {
+        String value = values.get(i);
+        if (value.isEmpty() || "null".equalsIgnoreCase(value)) {
+          continue;
+        }
+        if (fields[i] != null) {
+          builder.set(fields[i], value);
+          continue;
+        }
+        switch (keys.get(i)) {
+          case IMT_KEY:
+            imt = parseValue(IMT, value, Imt.class);
+            break;
+          case RMIN_KEY:
+            rMin = Double.valueOf(value);
+            break;
+          case RMAX_KEY:
+            rMax = Double.valueOf(value);
+            break;
+          default:
+            break;
+        }
+      }
+      GmmInput input = builder.build();
+      return (imt == null)
+          ? new RequestData(gmms, input)
+          : new RequestDataDistance(gmms, input, imt.toString(), rMin, rMax);
     }
   }
 
+  private static boolean isRequestKey(String key) {
+    return key.equals(GMM_KEY) || key.equals(IMT_KEY) ||
+        key.equals(RMAX_KEY) || key.equals(RMIN_KEY);
+  }
+
   static class RequestData {
     Set<Gmm> gmms;
     GmmInput input;
 
     RequestData(Map<String, String[]> params) {
-      this.gmms = buildGmmSet(params);
-      this.input = buildInput(params);
+      this(buildGmmSet(params), buildInput(params));
+    }
+
+    RequestData(Set<Gmm> gmms, GmmInput input) {
+      this.gmms = gmms;
+      this.input = input;
     }
   }
 
@@ -194,7 +322,17 @@ public class GmmServices extends NshmpServlet {
         double rMin,
         double rMax) {
 
-      super(params);
+      this(buildGmmSet(params), buildInput(params), imt, rMin, rMax);
+    }
+
+    RequestDataDistance(
+        Set<Gmm> gmms,
+        GmmInput input,
+        String imt,
+        double rMin,
+        double rMax) {
+
+      super(gmms, input);
 
       this.imt = imt;
       minDistance = rMin;
@@ -304,15 +442,51 @@ public class GmmServices extends NshmpServlet {
       Service service,
       Map<String, String[]> params,
       UrlHelper urlHelper) {
+
+    RequestData request;
+    switch (service) {
+      case DISTANCE:
+      case HW_FW:
+        request = new RequestDataDistance(
+            params,
+            readValue(IMT, params, Imt.class).toString(),
+            Double.valueOf(params.get(RMIN_KEY)[0]),
+            Double.valueOf(params.get(RMAX_KEY)[0]));
+        break;
+      case SPECTRA:
+        request = new RequestData(params);
+        break;
+      default:
+        throw new IllegalStateException("Service not supported [" + service + "]");
+    }
+    return processRequest(service, request, urlHelper, true);
+  }
+
+  /*
+   * If parallel, GMMs are evaluated concurrently on the GMM_EXECUTOR. POST
+   * lines are themselves evaluated on the GMM_EXECUTOR and so must not block
+   * on it; they are processed serially.
+   */
+  static ResponseData processRequest(
+      Service service,
+      RequestData request,
+      UrlHelper urlHelper,
+      boolean parallel) {
     ResponseData svcResponse = null;
 
     switch (service) {
       case DISTANCE:
       case HW_FW:
-        svcResponse = processRequestDistance(service, params);
+        checkArgument(
+            request instanceof RequestDataDistance,
+            "Missing distance service key: " + IMT_KEY);
+        svcResponse = processRequestDistance(
+            service,
+            (RequestDataDistance) request,
+            parallel);
         break;
       case SPECTRA:
-        svcResponse = processRequestSpectra(service, params);
+        svcResponse = processRequestSpectra(service, request, parallel);
         break;
       default:
         throw new IllegalStateException("Service not supported [" + service + "]");
@@ -323,37 +497,99 @@ public class GmmServices extends NshmpServlet {
   }
 
   static ResponseData processRequestDistance(
-      Service service, Map<String, String[]> params) {
+      Service service, RequestDataDistance request, boolean parallel) {
 
     boolean isLogSpace = service.equals(Service.DISTANCE) ? true : false;
-    Imt imt = readValue(IMT, params, Imt.class);
-    double rMin = Double.valueOf(params.get(RMIN_KEY)[0]);
-    double rMax = Double.valueOf(params.get(RMAX_KEY)[0]);
-
-    RequestDataDistance request = new RequestDataDistance(
-        params, imt.toString(), rMin, rMax);
+    Imt imt = Imt.valueOf(request.imt);
+    double rMin = request.minDistance;
+    double rMax = request.maxDistance;
 
-    DistanceResult result = GroundMotions.distanceGroundMotions(
-        request.gmms, request.input, imt, rMin, rMax, isLogSpace);
+    GmmResult result = evaluate(request.gmms, parallel, gmms -> {
+      DistanceResult distance = GroundMotions.distanceGroundMotions(
+          gmms, request.input, imt, rMin, rMax, isLogSpace);
+      return new GmmResult(distance.distance, distance.means, distance.sigmas);
+    });
 
     ResponseData response = new ResponseData(service, request);
-    response.setXY(result.distance, result.means, result.sigmas);
+    response.setXY(result.xs, result.means, result.sigmas);
 
     return response;
   }
 
   private static ResponseData processRequestSpectra(
-      Service service, Map<String, String[]> params) {
+      Service service, RequestData request, boolean parallel) {
 
-    RequestData request = new RequestData(params);
-    MultiResult result = spectra(request.gmms, request.input, false);
+    GmmResult result = evaluate(request.gmms, parallel, gmms -> {
+      MultiResult spectra = spectra(gmms, request.input, false);
+      return new GmmResult(spectra.periods, spectra.means, spectra.sigmas);
+    });
 
     ResponseData response = new ResponseData(service, request);
-    response.setXY(result.periods, result.means, result.sigmas);
+    response.setXY(result.xs, result.means, result.sigmas);
 
     return response;
   }
 
+  /*
+   * Evaluate each GMM separately, concurrently on the GMM_EXECUTOR if
+   * parallel, collecting results in GMM order so that responses do not depend
+   * on completion order.
+   */
+  private static GmmResult evaluate(
+      Set<Gmm> gmms,
+      boolean parallel,
+      Function<Set<Gmm>, GmmResult> function) {
+
+    if (!parallel || gmms.size() < 2) {
+      return function.apply(gmms);
+    }
+    Map<Gmm, Future<GmmResult>> futures = new EnumMap<>(Gmm.class);
+    for (Gmm gmm : gmms) {
+      futures.put(gmm, ServletUtil.GMM_EXECUTOR.submit(
+          () -> function.apply(EnumSet.of(gmm))));
+    }
+    GmmResult result = new GmmResult(
+        new EnumMap<>(Gmm.class),
+        new EnumMap<>(Gmm.class),
+        new EnumMap<>(Gmm.class));
+    try {
+      for (Entry<Gmm, Future<GmmResult>> entry : futures.entrySet()) {
+        Gmm gmm = entry.getKey();
+        GmmResult gmmResult = entry.getValue().get();
+        result.xs.put(gmm, gmmResult.xs.get(gmm));
+        result.means.put(gmm, gmmResult.means.get(gmm));
+        result.sigmas.put(gmm, gmmResult.sigmas.get(gmm));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      futures.values().forEach(future -> future.cancel(true));
+    }
+    return result;
+  }
+
+  /* x-values, means, and sigmas by GMM. */
+  private static final class GmmResult {
+
+    final Map<Gmm, List<Double>> xs;
+    final Map<Gmm, List<Double>> means;
+    final Map<Gmm, List<Double>> sigmas;
+
+    GmmResult(
+        Map<Gmm, List<Double>> xs,
+        Map<Gmm, List<Double>> means,
+        Map<Gmm, List<Double>> sigmas) {
+
+      this.xs = xs;
+      this.means = means;
+      this.sigmas = sigmas;
+    }
+  }
+
   static Set<Gmm> buildGmmSet(Map<String, String[]> params) {
     checkArgument(params.containsKey(GMM_KEY),
         "Missing ground motion model key: " + GMM_KEY);
@@ -368,9 +604,7 @@ public class GmmServices extends NshmpServlet {
 
     Builder builder = GmmInput.builder().withDefaults();
     for (Entry<String, String[]> entry : params.entrySet()) {
-      if (entry.getKey().equals(GMM_KEY) || entry.getKey().equals(IMT_KEY) ||
-          entry.getKey().equals(RMAX_KEY) || entry.getKey().equals(RMIN_KEY))
-        continue;
+      if (isRequestKey(entry.getKey())) continue;
       Field id = Field.fromString(entry.getKey());
       String value = entry.getValue()[0];
       if (value.equals("")) {
@@ -693,8 +927,7 @@ public class GmmServices extends NshmpServlet {
     String gmmParam = request.getParameter(GMM_KEY);
     if (gmmParam != null) return true;
 
-    String usage = GSON.toJson(new Metadata(service));
-    urlHelper.writeResponse(usage);
+    urlHelper.writeResponse(USAGE.get(service));
     return false;
   }
 
@@ -0,0 +1,620 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON;
+import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON_COMPACT;
+import static gov.usgs.earthquake.nshmp.www.Util.readDouble;
+import static gov.usgs.earthquake.nshmp.www.Util.readValue;
+import static gov.usgs.earthquake.nshmp.www.Util.readValueList;
+import static gov.usgs.earthquake.nshmp.www.Util.readValues;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.EDITION;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.IMT;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.MODEL;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.REGION;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.VS30;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.ZonedDateTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import gov.usgs.earthquake.nshmp.calc.Hazard;
+import gov.usgs.earthquake.nshmp.calc.Vs30;
+import gov.usgs.earthquake.nshmp.data.XySequence;
+import gov.usgs.earthquake.nshmp.gmm.Imt;
+import gov.usgs.earthquake.nshmp.internal.Parsing;
+import gov.usgs.earthquake.nshmp.internal.Parsing.Delimiter;
+import gov.usgs.earthquake.nshmp.www.ServletUtil.Timer;
+import gov.usgs.earthquake.nshmp.www.meta.Edition;
+import gov.usgs.earthquake.nshmp.www.meta.Metadata;
+import gov.usgs.earthquake.nshmp.www.meta.Region;
+import gov.usgs.earthquake.nshmp.www.meta.Status;
+
+/**
+ * Batch hazard curve service.
+ *
+ * <p>Sites are POSTed as CSV ({@code longitude,latitude[,name]} with an
+ * optional header row) or, if the request content type is JSON, as a GeoJSON
+ * FeatureCollection of points with optional {@code name} or {@code title}
+ * properties. Other content types, notably form encoded bodies, which a
+ * servlet container would consume as parameters, are rejected. The hazard
+ * model is identified by query parameters, either {@code model} (one or more,
+ * as for {@code /haz}) or {@code edition} and {@code region} (as for
+ * {@code /hazard}, with optional {@code imt}), together with {@code vs30}.
+ *
+ * <p>Results are streamed as newline-delimited JSON (NDJSON): one line per
+ * site, written as soon as the site completes (and therefore not necessarily
+ * in request order), followed by a single summary line carrying the request
+ * status. Sites are read incrementally and only a bounded number are in flight
+ * at any time so memory use does not grow with batch size.
+ *
+ * @author Peter Powers
+ */
+@WebServlet(
+    name = "Hazard Batch Service",
+    description = "USGS NSHMP Batch Hazard Curve Calculator",
+    urlPatterns = "/hazard-batch")
+public final class HazardBatchService extends NshmpServlet {
+
+  /*
+   * Developer notes:
+   *
+   * Each site calculation blocks on work submitted to CALC_EXECUTOR and so is
+   * run on DRIVER_EXECUTOR. The number of sites in flight is limited to the
+   * number of calc threads, which is sufficient to keep CALC_EXECUTOR busy
+   * across the serial portions of each site calculation.
+   *
+   * Batches are not submitted to TASK_EXECUTOR; doing so would block all other
+   * hazard and deagg requests for the duration of a batch. Instead, at most
+   * MAX_BATCHES batches, including batch jobs and hazard maps, run at a time;
+   * further batches wait for a permit. This bounds the total number of sites, and therefore
+   * retained hazard results, in flight.
+   */
+
+  static final int MAX_SITES = 10000;
+  static final String NDJSON_CONTENT_TYPE = "application/x-ndjson; charset=UTF-8";
+
+  private static final int MAX_IN_FLIGHT = ServletUtil.THREAD_COUNT;
+  private static final int MAX_BATCHES = 2;
+  static final Semaphore BATCH_PERMITS = new Semaphore(MAX_BATCHES, true);
+
+  private static final Set<String> CSV_TYPES = ImmutableSet.of(
+      "text/csv",
+      "text/plain",
+      "application/csv");
+
+  private static final Set<String> GEOJSON_TYPES = ImmutableSet.of(
+      "application/json",
+      "application/geo+json",
+      "application/vnd.geo+json");
+
+  private static final UsageDocument USAGE = UsageDocument.of(() -> GSON.toJson(new Usage()));
+
+  @Override
+  protected void doGet(
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws ServletException, IOException {
+
+    urlHelper(request, response).writeResponse(USAGE);
+  }
+
+  @Override
+  protected void doPost(
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws ServletException, IOException {
+
+    UrlHelper urlHelper = urlHelper(request, response);
+
+    /*
+     * Check the content type before reading parameters; a form encoded body
+     * would otherwise be consumed as parameters, leaving no sites.
+     */
+    BatchRequest batch;
+    boolean geoJson;
+    try {
+      geoJson = isGeoJson(request.getContentType());
+      batch = BatchRequest.fromParameters(request.getParameterMap());
+    } catch (Exception e) {
+      String message = Metadata.errorMessage(urlHelper.url, e, false);
+      response.getWriter().print(message);
+      getServletContext().log(urlHelper.url, e);
+      return;
+    }
+
+    if (request.getCharacterEncoding() == null) {
+      request.setCharacterEncoding("UTF-8");
+    }
+
+    response.setContentType(NDJSON_CONTENT_TYPE);
+    try {
+      process(
+          batch,
+          readSites(request.getReader(), geoJson),
+          response.getWriter(),
+          urlHelper.url,
+          getServletContext());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      getServletContext().log(urlHelper.url, e);
+    }
+  }
+
+  /**
+   * Return whether a batch request body of the supplied content type is
+   * GeoJSON. A missing content type is treated as CSV.
+   *
+   * @param contentType of request body
+   * @throws IllegalArgumentException if the content type is neither CSV nor
+   *         JSON
+   */
+  static boolean isGeoJson(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    String mediaType = contentType.split(";")[0].trim().toLowerCase(Locale.US);
+    if (GEOJSON_TYPES.contains(mediaType)) {
+      return true;
+    }
+    checkArgument(
+        CSV_TYPES.contains(mediaType),
+        "Unsupported batch content type [%s]; use text/csv or application/json",
+        contentType);
+    return false;
+  }
+
+  /**
+   * Compute hazard for a stream of sites, writing one NDJSON line per site and
+   * a summary line. Malformed input stops processing of further sites and is
+   * reported in the summary line; failures of individual site calculations are
+   * reported in the corresponding site line. Blocks until a batch permit is
+   * available.
+   *
+   * @param batch request
+   * @param sites to process
+   * @param writer for results
+   * @param url of request
+   * @param context servlet context
+   */
+  static void process(
+      BatchRequest batch,
+      Iterator<BatchSite> sites,
+      Writer writer,
+      String url,
+      ServletContext context) throws IOException, InterruptedException {
+
+    BATCH_PERMITS.acquire();
+    try {
+      processSites(batch, sites, writer, url, context);
+    } finally {
+      BATCH_PERMITS.release();
+    }
+  }
+
+  private static void processSites(
+      BatchRequest batch,
+      Iterator<BatchSite> sites,
+      Writer writer,
+      String url,
+      ServletContext context) throws IOException, InterruptedException {
+
+    Timer timer = ServletUtil.timer().start();
+    CompletionService<SiteResult> completion =
+        new ExecutorCompletionService<>(ServletUtil.DRIVER_EXECUTOR);
+
+    int count = 0;
+    int inFlight = 0;
+    int failed = 0;
+    String error = null;
+
+    try {
+      while (sites.hasNext()) {
+        BatchSite site = sites.next();
+        checkArgument(count < MAX_SITES, "Batch exceeds maximum of %s sites", MAX_SITES);
+        count++;
+        completion.submit(() -> SiteResult.create(batch, site, context));
+        inFlight++;
+
+        /* Write completed sites; block while at capacity. */
+        Future<SiteResult> done;
+        while ((done = (inFlight < MAX_IN_FLIGHT)
+            ? completion.poll()
+            : completion.take()) != null) {
+          failed += write(done, writer);
+          inFlight--;
+        }
+      }
+    } catch (IllegalArgumentException | UncheckedIOException e) {
+      error = e.getMessage();
+    }
+
+    while (inFlight > 0) {
+      failed += write(completion.take(), writer);
+      inFlight--;
+    }
+
+    Summary summary = new Summary(url, count, failed, error, timer);
+    writer.write(GSON_COMPACT.toJson(summary));
+    writer.write('\n');
+    writer.flush();
+  }
+
+  /* Write a completed site and return 1 if it failed, 0 otherwise. */
+  private static int write(Future<SiteResult> done, Writer writer)
+      throws IOException, InterruptedException {
+    SiteResult result;
+    try {
+      result = done.get();
+    } catch (ExecutionException e) {
+      /* Site results capture their own failures. */
+      throw new IllegalStateException(e.getCause());
+    }
+    writer.write(GSON_COMPACT.toJson(result));
+    writer.write('\n');
+    writer.flush();
+    return (result.error == null) ? 0 : 1;
+  }
+
+  /*
+   * Batch model and site class parameters. Either a model or an edition and
+   * region must be supplied.
+   */
+  static final class BatchRequest {
+
+    final List<Model> models;
+    final Edition edition;
+    final Region region;
+    final Set<Imt> imts;
+    final Vs30 vs30;
+
+    private BatchRequest(
+        List<Model> models,
+        Edition edition,
+        Region region,
+        Set<Imt> imts,
+        Vs30 vs30) {
+
+      this.models = models;
+      this.edition = edition;
+      this.region = region;
+      this.imts = imts;
+      this.vs30 = vs30;
+    }
+
+    static BatchRequest fromParameters(Map<String, String[]> paramMap) {
+      Vs30 vs30 = Vs30.fromValue(readDouble(VS30, paramMap));
+      if (paramMap.containsKey(MODEL.toString())) {
+        return new BatchRequest(
+            readValueList(MODEL, paramMap, Model.class),
+            null,
+            null,
+            null,
+            vs30);
+      }
+      Edition edition = readValue(EDITION, paramMap, Edition.class);
+      Region region = readValue(REGION, paramMap, Region.class);
+      Set<Imt> imts = paramMap.containsKey(IMT.toString())
+          ? readValues(IMT, paramMap, Imt.class)
+          : Metadata.commonImts(edition, region);
+      return new BatchRequest(null, edition, region, imts, vs30);
+    }
+
+    Hazard calcHazard(BatchSite site, ServletContext context)
+        throws InterruptedException, ExecutionException {
+      if (models != null) {
+        return HazardService2.calcHazard(
+            new HazardService2.RequestData(models, site.longitude, site.latitude, vs30),
+            context);
+      }
+      return HazardService.calcHazard(
+          new HazardService.RequestData(
+              edition,
+              ServletUtil.checkRegion(region, site.longitude),
+              site.longitude,
+              site.latitude,
+              imts,
+              vs30,
+              ImmutableList.of()),
+          context);
+    }
+  }
+
+  static final class BatchSite {
+
+    final String name;
+    final double longitude;
+    final double latitude;
+
+    BatchSite(String name, double longitude, double latitude) {
+      this.name = name;
+      this.longitude = longitude;
+      this.latitude = latitude;
+    }
+  }
+
+  /**
+   * Return an iterator over the sites in a CSV or GeoJSON request body. Sites
+   * are read as the iterator advances. Malformed input results in an
+   * {@code IllegalArgumentException}, and read errors in an
+   * {@code UncheckedIOException}, when the offending site is reached.
+   *
+   * @param reader for request body
+   * @param geoJson {@code true} if the body is GeoJSON, {@code false} for CSV
+   */
+  static Iterator<BatchSite> readSites(BufferedReader reader, boolean geoJson) {
+    return geoJson ? new GeoJsonSites(reader) : new CsvSites(reader);
+  }
+
+  /*
+   * CSV site reader. An optional header row may identify longitude, latitude,
+   * and name columns in any order; otherwise columns are assumed to be
+   * longitude, latitude, and an optional name. Blank lines and lines starting
+   * with '#' are skipped.
+   */
+  private static final class CsvSites extends AbstractIterator<BatchSite> {
+
+    private final BufferedReader reader;
+    private int lonIndex = 0;
+    private int latIndex = 1;
+    private int nameIndex = 2;
+    private boolean first = true;
+    private int lineNumber = 0;
+
+    CsvSites(BufferedReader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    protected BatchSite computeNext() {
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lineNumber++;
+          String trimmed = line.trim();
+          if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            continue;
+          }
+          List<String> values = Parsing.splitToList(trimmed, Delimiter.COMMA);
+          if (first) {
+            first = false;
+            if (isHeader(values)) {
+              readHeader(values);
+              continue;
+            }
+          }
+          return site(values);
+        }
+        return endOfData();
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    }
+
+    private static boolean isHeader(List<String> values) {
+      try {
+        Double.parseDouble(values.get(0));
+        return false;
+      } catch (NumberFormatException nfe) {
+        return true;
+      }
+    }
+
+    private void readHeader(List<String> keys) {
+      lonIndex = -1;
+      latIndex = -1;
+      nameIndex = -1;
+      for (int i = 0; i < keys.size(); i++) {
+        String key = keys.get(i).toLowerCase();
+        if (key.equals("lon") || key.equals("longitude")) {
+          lonIndex = i;
+        } else if (key.equals("lat") || key.equals("latitude")) {
+          latIndex = i;
+        } else if (key.equals("name") || key.equals("title")) {
+          nameIndex = i;
+        }
+      }
+      checkArgument(
+          lonIndex >= 0 && latIndex >= 0,
+          "CSV header must identify longitude and latitude columns");
+    }
+
+    private BatchSite site(List<String> values) {
+      try {
+        return new BatchSite(
+            (nameIndex >= 0 && nameIndex < values.size()) ? values.get(nameIndex) : null,
+            Double.parseDouble(values.get(lonIndex)),
+            Double.parseDouble(values.get(latIndex)));
+      } catch (IndexOutOfBoundsException | NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid site on line " + lineNumber);
+      }
+    }
+  }
+
+  /*
+   * GeoJSON site reader. Features are parsed one at a time from the
+   * 'features' array of a FeatureCollection; other members are skipped.
+   */
+  private static final class GeoJsonSites extends AbstractIterator<BatchSite> {
+
+    private final JsonReader reader;
+    private final JsonParser parser = new JsonParser();
+    private boolean started = false;
+    private int index = 0;
+
+    GeoJsonSites(BufferedReader reader) {
+      this.reader = new JsonReader(reader);
+    }
+
+    @Override
+    protected BatchSite computeNext() {
+      try {
+        if (!started) {
+          started = true;
+          reader.beginObject();
+          while (true) {
+            checkArgument(reader.hasNext(), "GeoJSON 'features' array not found");
+            if (reader.nextName().equals("features")) {
+              break;
+            }
+            reader.skipValue();
+          }
+          reader.beginArray();
+        }
+        if (!reader.hasNext()) {
+          return endOfData();
+        }
+        return site(parser.parse(reader));
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      } catch (IllegalStateException | JsonParseException e) {
+        throw new IllegalArgumentException("Invalid GeoJSON: " + e.getMessage());
+      }
+    }
+
+    private BatchSite site(JsonElement element) {
+      int featureIndex = index++;
+      try {
+        JsonObject feature = element.getAsJsonObject();
+        JsonObject geometry = feature.getAsJsonObject("geometry");
+        checkArgument(
+            geometry.get("type").getAsString().equals("Point"),
+            "Feature [%s] is not a Point", featureIndex);
+        JsonArray coordinates = geometry.getAsJsonArray("coordinates");
+        return new BatchSite(
+            name(feature),
+            coordinates.get(0).getAsDouble(),
+            coordinates.get(1).getAsDouble());
+      } catch (IllegalArgumentException iae) {
+        throw iae;
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Invalid feature [" + featureIndex + "]");
+      }
+    }
+
+    private static String name(JsonObject feature) {
+      JsonElement properties = feature.get("properties");
+      if (properties == null || !properties.isJsonObject()) {
+        return null;
+      }
+      JsonObject props = properties.getAsJsonObject();
+      JsonElement name = props.has("name") ? props.get("name") : props.get("title");
+      return (name == null || name.isJsonNull()) ? null : name.getAsString();
+    }
+  }
+
+  /* Null fields are omitted from NDJSON output. */
+  private static final class SiteResult {
+
+    final String name;
+    final double longitude;
+    final double latitude;
+    final List<SiteCurve> curves;
+    final String error;
+
+    private SiteResult(BatchSite site, List<SiteCurve> curves, String error) {
+      this.name = site.name;
+      this.longitude = site.longitude;
+      this.latitude = site.latitude;
+      this.curves = curves;
+      this.error = error;
+    }
+
+    static SiteResult create(BatchRequest batch, BatchSite site, ServletContext context) {
+      try {
+        Hazard hazard = batch.calcHazard(site, context);
+        ImmutableList.Builder<SiteCurve> curves = ImmutableList.builder();
+        for (Entry<Imt, XySequence> entry : hazard.curves().entrySet()) {
+          Imt imt = entry.getKey();
+          curves.add(new SiteCurve(
+              imt,
+              hazard.config().hazard.modelCurve(imt).xValues(),
+              entry.getValue().yValues()));
+        }
+        return new SiteResult(site, curves.build(), null);
+      } catch (Exception e) {
+        context.log("Batch site failure: " + site.longitude + "," + site.latitude, e);
+        return new SiteResult(site, null, e.getMessage());
+      }
+    }
+  }
+
+  private static final class SiteCurve {
+
+    final Imt imt;
+    final List<Double> xvalues;
+    final List<Double> yvalues;
+
+    SiteCurve(Imt imt, List<Double> xvalues, List<Double> yvalues) {
+      this.imt = imt;
+      this.xvalues = xvalues;
+      this.yvalues = yvalues;
+    }
+  }
+
+  @SuppressWarnings("unused")
+  private static final class Summary {
+
+    final String status;
+    final String date = ZonedDateTime.now().format(ServletUtil.DATE_FMT);
+    final String url;
+    final int sites;
+    final int failed;
+    final String message;
+    final Object server;
+
+    Summary(String url, int sites, int failed, String message, Timer timer) {
+      this.status = (message == null) ? Status.SUCCESS.toString() : Status.ERROR.toString();
+      this.url = url;
+      this.sites = sites;
+      this.failed = failed;
+      this.message = message;
+      this.server = Metadata.serverData(ServletUtil.THREAD_COUNT, timer);
+    }
+  }
+
+  @SuppressWarnings("unused")
+  private static final class Usage {
+
+    final String status = Status.USAGE.toString();
+    final String description = "Compute hazard curves for a batch of sites";
+    final List<String> syntax = ImmutableList.of(
+        "POST %s://%s/nshmp-haz-ws/hazard-batch?model={model}&vs30={vs30}",
+        "POST %s://%s/nshmp-haz-ws/hazard-batch" +
+            "?edition={edition}&region={region}&vs30={vs30}[&imt={imt}]");
+    final String body = "CSV (text/csv; longitude,latitude[,name]; optional header row) " +
+        "or GeoJSON (application/json; a FeatureCollection of points)";
+    final String response = "NDJSON; one line per site in order of completion, " +
+        "followed by a summary line";
+    final int maxSites = MAX_SITES;
+  }
+
+}
@@ -0,0 +1,590 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON;
+import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON_COMPACT;
+import static gov.usgs.earthquake.nshmp.www.ServletUtil.emptyRequest;
+import static gov.usgs.earthquake.nshmp.www.Util.parseValue;
+import static gov.usgs.earthquake.nshmp.www.Util.readDouble;
+import static gov.usgs.earthquake.nshmp.www.Util.readDoubles;
+import static gov.usgs.earthquake.nshmp.www.Util.readValue;
+import static gov.usgs.earthquake.nshmp.www.Util.readValueList;
+import static gov.usgs.earthquake.nshmp.www.Util.readValues;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.FORMAT;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.IMT;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.MAXLATITUDE;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.MAXLONGITUDE;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.MINLATITUDE;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.MINLONGITUDE;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.MODEL;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.RETURNPERIOD;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.SPACING;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.VS30;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Doubles;
+
+import gov.usgs.earthquake.nshmp.calc.Hazard;
+import gov.usgs.earthquake.nshmp.calc.Vs30;
+import gov.usgs.earthquake.nshmp.gmm.Imt;
+import gov.usgs.earthquake.nshmp.www.meta.Metadata;
+import gov.usgs.earthquake.nshmp.www.meta.Region;
+import gov.usgs.earthquake.nshmp.www.meta.Status;
+
+/**
+ * Gridded hazard map service.
+ *
+ * <p>Computes hazard curves at the nodes of a regular grid over a bounding box
+ * and returns the ground motions at one or more return periods for each node,
+ * either as CSV (one row per node, as in the {@code map.csv} files produced by
+ * the AWS slicing lambdas) or as a GeoJSON FeatureCollection of points.
+ *
+ * @author Peter Powers
+ */
+@WebServlet(
+    name = "Hazard Map Service",
+    description = "USGS NSHMP Gridded Hazard Map Calculator",
+    urlPatterns = "/hazard-map")
+public final class HazardMapService extends NshmpServlet {
+
+  /*
+   * Developer notes:
+   *
+   * Grid nodes are computed as in HazardBatchService: each node blocks on
+   * CALC_EXECUTOR and so is run on DRIVER_EXECUTOR, with the number of nodes
+   * in flight limited to the number of calc threads. Rows are written in
+   * order of completion, one line per node, so that job progress may be
+   * tracked by counting lines. The bounding box defaults to the region of the
+   * first model and must lie within it.
+   *
+   * Curves are sliced with CurveSlicer, as in HazardResultSliceLambda; return
+   * periods are converted to annual rates.
+   *
+   * Completed maps are cached by request, bounded by total node count, so
+   * that repeat requests (e.g. a job followed by a page reload) are served
+   * without recomputation.
+   *
+   * Synchronous GET requests are throttled per IP, as hazard and deagg
+   * requests are, and limited to MAX_SYNC_SITES nodes; larger grids must be
+   * submitted as map jobs. Map calculations, whether synchronous or jobs,
+   * share the HazardBatchService permits so that the number of grids and
+   * batches running at once is bounded.
+   */
+
+  static final int MAX_SITES = HazardBatchService.MAX_SITES;
+  static final int MAX_SYNC_SITES = 100;
+  static final String CSV_CONTENT_TYPE = "text/csv; charset=UTF-8";
+  static final String GEOJSON_CONTENT_TYPE = "application/geo+json; charset=UTF-8";
+
+  private static final int MAX_IN_FLIGHT = ServletUtil.THREAD_COUNT;
+  private static final int MAX_CACHED_SITES = 200000;
+
+  private static final Cache<MapRequest, List<MapNode>> CACHE = CacheBuilder.newBuilder()
+      .maximumWeight(MAX_CACHED_SITES)
+      .weigher((MapRequest request, List<MapNode> nodes) -> nodes.size())
+      .expireAfterAccess(1, TimeUnit.HOURS)
+      .build();
+
+  private static final UsageDocument USAGE = UsageDocument.of(() -> GSON.toJson(new Usage()));
+
+  @Override
+  protected void doGet(
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws ServletException, IOException {
+
+    UrlHelper urlHelper = urlHelper(request, response);
+
+    if (emptyRequest(request)) {
+      urlHelper.writeResponse(USAGE);
+      return;
+    }
+
+    if (!ServletUtil.checkRequestIp(request)) {
+      String message = Metadata.tooManyRequestsMessage(urlHelper.url);
+      response.setHeader("Cache-Control", "no-store, no-cache, must-revalidate");
+      response.getWriter().print(message);
+      return;
+    }
+
+    MapRequest map;
+    try {
+      map = MapRequest.fromParameters(request.getParameterMap());
+      checkArgument(
+          map.size() <= MAX_SYNC_SITES,
+          "Map grid of %s nodes exceeds synchronous maximum of %s; " +
+              "submit larger grids with POST /jobs?type=map",
+          map.size(), MAX_SYNC_SITES);
+    } catch (Exception e) {
+      String message = Metadata.errorMessage(urlHelper.url, e, false);
+      response.getWriter().print(message);
+      getServletContext().log(urlHelper.url, e);
+      return;
+    }
+
+    response.setContentType(map.format.contentType);
+    try {
+      process(map, response.getWriter(), getServletContext());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      getServletContext().log(urlHelper.url, e);
+    } catch (ExecutionException e) {
+      getServletContext().log(urlHelper.url, e);
+      if (!response.isCommitted()) {
+        response.resetBuffer();
+        response.setContentType("application/json; charset=UTF-8");
+        String message = Metadata.errorMessage(urlHelper.url, e.getCause(), false);
+        response.getWriter().print(message);
+      }
+    }
+  }
+
+  /**
+   * Compute a hazard map, writing one line per grid node. Completed maps are
+   * written from cache; otherwise this method blocks until a batch permit is
+   * available.
+   *
+   * @param map request
+   * @param writer for results
+   * @param context servlet context
+   */
+  static void process(
+      MapRequest map,
+      Writer writer,
+      ServletContext context) throws IOException, InterruptedException, ExecutionException {
+
+    map.format.writeHeader(map, writer);
+    List<MapNode> cached = CACHE.getIfPresent(map);
+    if (cached != null) {
+      for (int i = 0; i < cached.size(); i++) {
+        map.format.writeNode(map, cached.get(i), i == 0, writer);
+      }
+      map.format.writeFooter(writer);
+      writer.flush();
+      return;
+    }
+
+    HazardBatchService.BATCH_PERMITS.acquire();
+    try {
+      compute(map, writer, context);
+    } finally {
+      HazardBatchService.BATCH_PERMITS.release();
+    }
+  }
+
+  private static void compute(
+      MapRequest map,
+      Writer writer,
+      ServletContext context) throws IOException, InterruptedException, ExecutionException {
+
+    CompletionService<MapNode> completion =
+        new ExecutorCompletionService<>(ServletUtil.DRIVER_EXECUTOR);
+    List<MapNode> nodes = new ArrayList<>(map.size());
+    int inFlight = 0;
+
+    try {
+      for (int i = 0; i < map.latitudes.size(); i++) {
+        double latitude = map.latitudes.get(i);
+        for (int j = 0; j < map.longitudes.size(); j++) {
+          double longitude = map.longitudes.get(j);
+          completion.submit(() -> MapNode.create(map, longitude, latitude, context));
+          inFlight++;
+
+          /* Write completed nodes; block while at capacity. */
+          Future<MapNode> done;
+          while ((done = (inFlight < MAX_IN_FLIGHT)
+              ? completion.poll()
+              : completion.take()) != null) {
+            inFlight--;
+            write(map, done.get(), nodes, writer);
+          }
+        }
+      }
+      while (inFlight > 0) {
+        inFlight--;
+        write(map, completion.take().get(), nodes, writer);
+      }
+    } finally {
+      /* Drain any outstanding nodes following a failure. */
+      for (; inFlight > 0; inFlight--) {
+        completion.take();
+      }
+    }
+
+    map.format.writeFooter(writer);
+    writer.flush();
+    CACHE.put(map, ImmutableList.copyOf(nodes));
+  }
+
+  private static void write(
+      MapRequest map,
+      MapNode node,
+      List<MapNode> nodes,
+      Writer writer) throws IOException {
+
+    map.format.writeNode(map, node, nodes.isEmpty(), writer);
+    writer.flush();
+    nodes.add(node);
+  }
+
+  /*
+   * Request data is immutable and hashable and is used as the map cache key.
+   */
+  static final class MapRequest {
+
+    final List<Model> models;
+    final double minlatitude;
+    final double maxlatitude;
+    final double minlongitude;
+    final double maxlongitude;
+    final double spacing;
+    final Vs30 vs30;
+    final Set<Imt> imts;
+    final List<Double> returnPeriods;
+    final MapFormat format;
+
+    /* Derived rates and grid nodes; not part of equals/hashCode. */
+    final List<Double> rates;
+    final List<Double> latitudes;
+    final List<Double> longitudes;
+
+    MapRequest(
+        List<Model> models,
+        double minlatitude,
+        double maxlatitude,
+        double minlongitude,
+        double maxlongitude,
+        double spacing,
+        Vs30 vs30,
+        Set<Imt> imts,
+        List<Double> returnPeriods,
+        MapFormat format) {
+
+      checkArgument(!models.isEmpty(), "No models specified");
+      Region region = models.get(0).region;
+      checkArgument(
+          minlatitude <= maxlatitude && minlongitude <= maxlongitude,
+          "Invalid bounding box");
+      checkArgument(
+          minlatitude >= region.minlatitude && maxlatitude <= region.maxlatitude &&
+              minlongitude >= region.minlongitude && maxlongitude <= region.maxlongitude,
+          "Bounding box is outside %s region", region.label);
+      checkArgument(spacing > 0.0, "Invalid spacing [%s]", spacing);
+      checkArgument(!returnPeriods.isEmpty(), "Missing return period");
+      checkArgument(
+          returnPeriods.size() <= DeaggService.MAX_RETURN_PERIODS,
+          "Map requests are limited to %s return periods",
+          DeaggService.MAX_RETURN_PERIODS);
+
+      Set<Imt> modelImts = Sets.newEnumSet(models.get(0).imts, Imt.class);
+      for (Model model : models) {
+        modelImts.retainAll(model.imts);
+      }
+      Set<Imt> mapImts = imts.isEmpty() ? modelImts : imts;
+      checkArgument(
+          modelImts.containsAll(mapImts),
+          "IMTs %s not supported by models %s", mapImts, models);
+
+      this.models = ImmutableList.copyOf(models);
+      this.minlatitude = minlatitude;
+      this.maxlatitude = maxlatitude;
+      this.minlongitude = minlongitude;
+      this.maxlongitude = maxlongitude;
+      this.spacing = spacing;
+      this.vs30 = vs30;
+      this.imts = Sets.immutableEnumSet(mapImts);
+      this.returnPeriods = ImmutableList.copyOf(returnPeriods);
+      this.format = format;
+
+      List<Double> rates = new ArrayList<>();
+      for (double returnPeriod : returnPeriods) {
+        rates.add(1.0 / returnPeriod);
+      }
+      this.rates = ImmutableList.copyOf(rates);
+      this.latitudes = nodes(minlatitude, maxlatitude, spacing);
+      this.longitudes = nodes(minlongitude, maxlongitude, spacing);
+      checkArgument(
+          size() <= MAX_SITES,
+          "Map grid of %s nodes exceeds maximum of %s",
+          size(), MAX_SITES);
+    }
+
+    static MapRequest fromParameters(Map<String, String[]> paramMap) {
+      List<Model> models = readValueList(MODEL, paramMap, Model.class);
+      checkArgument(!models.isEmpty(), "No models specified");
+      Region region = models.get(0).region;
+      return new MapRequest(
+          models,
+          readBound(MINLATITUDE, paramMap, region.minlatitude),
+          readBound(MAXLATITUDE, paramMap, region.maxlatitude),
+          readBound(MINLONGITUDE, paramMap, region.minlongitude),
+          readBound(MAXLONGITUDE, paramMap, region.maxlongitude),
+          readDouble(SPACING, paramMap),
+          Vs30.fromValue(readDouble(VS30, paramMap)),
+          paramMap.containsKey(IMT.toString())
+              ? readValues(IMT, paramMap, Imt.class)
+              : EnumSet.noneOf(Imt.class),
+          readDoubles(RETURNPERIOD, paramMap),
+          paramMap.containsKey(FORMAT.toString())
+              ? parseValue(
+                  FORMAT,
+                  readValue(FORMAT, paramMap).toUpperCase(Locale.US),
+                  MapFormat.class)
+              : MapFormat.CSV);
+    }
+
+    private static double readBound(
+        Util.Key key,
+        Map<String, String[]> paramMap,
+        double defaultValue) {
+      return paramMap.containsKey(key.toString()) ? readDouble(key, paramMap) : defaultValue;
+    }
+
+    /* Grid nodes from min to max, inclusive, computed by index to avoid drift. */
+    private static List<Double> nodes(double min, double max, double spacing) {
+      int count = (int) Math.floor((max - min) / spacing + 1e-6) + 1;
+      ImmutableList.Builder<Double> nodes = ImmutableList.builder();
+      for (int i = 0; i < count; i++) {
+        nodes.add(Math.round((min + i * spacing) * 1e6) / 1e6);
+      }
+      return nodes.build();
+    }
+
+    int size() {
+      return latitudes.size() * longitudes.size();
+    }
+
+    /* Column labels of the form IMT-returnPeriod, e.g. PGA-2475. */
+    List<String> columns() {
+      List<String> columns = new ArrayList<>();
+      for (Imt imt : imts) {
+        for (double returnPeriod : returnPeriods) {
+          columns.add(imt.name() + "-" + formatReturnPeriod(returnPeriod));
+        }
+      }
+      return columns;
+    }
+
+    private static String formatReturnPeriod(double returnPeriod) {
+      return (returnPeriod == Math.rint(returnPeriod))
+          ? Long.toString((long) returnPeriod)
+          : Double.toString(returnPeriod);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof MapRequest)) {
+        return false;
+      }
+      MapRequest that = (MapRequest) obj;
+      return models.equals(that.models) &&
+          Double.compare(minlatitude, that.minlatitude) == 0 &&
+          Double.compare(maxlatitude, that.maxlatitude) == 0 &&
+          Double.compare(minlongitude, that.minlongitude) == 0 &&
+          Double.compare(maxlongitude, that.maxlongitude) == 0 &&
+          Double.compare(spacing, that.spacing) == 0 &&
+          vs30 == that.vs30 &&
+          imts.equals(that.imts) &&
+          returnPeriods.equals(that.returnPeriods) &&
+          format == that.format;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(
+          models,
+          minlatitude,
+          maxlatitude,
+          minlongitude,
+          maxlongitude,
+          spacing,
+          vs30,
+          imts,
+          returnPeriods,
+          format);
+    }
+  }
+
+  /* Ground motions at a grid node, ordered by IMT and then return period. */
+  static final class MapNode {
+
+    final double longitude;
+    final double latitude;
+    final double[] values;
+
+    private MapNode(double longitude, double latitude, double[] values) {
+      this.longitude = longitude;
+      this.latitude = latitude;
+      this.values = values;
+    }
+
+    static MapNode create(
+        MapRequest map,
+        double longitude,
+        double latitude,
+        ServletContext context) throws InterruptedException, ExecutionException {
+
+      Hazard hazard = HazardService2.calcHazard(
+          new HazardService2.RequestData(map.models, longitude, latitude, map.vs30, map.imts),
+          context);
+      int rateCount = map.rates.size();
+      double[] values = new double[map.imts.size() * rateCount];
+      double[] imtValues = new double[rateCount];
+      int index = 0;
+      for (Imt imt : map.imts) {
+        CurveSlicer slicer = new CurveSlicer(
+            Doubles.toArray(HazardService2.imls(hazard, imt)),
+            map.rates);
+        slicer.slice(Doubles.toArray(hazard.curves().get(imt).yValues()), imtValues);
+        System.arraycopy(imtValues, 0, values, index, rateCount);
+        index += rateCount;
+      }
+      return new MapNode(longitude, latitude, values);
+    }
+  }
+
+  enum MapFormat {
+
+    CSV(CSV_CONTENT_TYPE) {
+      @Override
+      void writeHeader(MapRequest map, Writer writer) throws IOException {
+        writer.write("lon,lat");
+        for (String column : map.columns()) {
+          writer.write(',');
+          writer.write(column);
+        }
+        writer.write('\n');
+      }
+
+      @Override
+      void writeNode(MapRequest map, MapNode node, boolean first, Writer writer)
+          throws IOException {
+        writer.write(String.format(Locale.US, "%.5f,%.5f", node.longitude, node.latitude));
+        for (double value : node.values) {
+          writer.write(',');
+          writer.write(String.format(Locale.US, "%.8e", value));
+        }
+        writer.write('\n');
+      }
+
+      @Override
+      void writeFooter(Writer writer) {}
+    },
+
+    GEOJSON(GEOJSON_CONTENT_TYPE) {
+      @Override
+      void writeHeader(MapRequest map, Writer writer) throws IOException {
+        writer.write("{\"type\":\"FeatureCollection\",\"features\":[");
+      }
+
+      /* One feature per line; separators lead so each node ends a line. */
+      @Override
+      void writeNode(MapRequest map, MapNode node, boolean first, Writer writer)
+          throws IOException {
+        if (!first) {
+          writer.write(',');
+        }
+        writer.write(GSON_COMPACT.toJson(new Feature(map, node)));
+        writer.write('\n');
+      }
+
+      @Override
+      void writeFooter(Writer writer) throws IOException {
+        writer.write("]}\n");
+      }
+    };
+
+    final String contentType;
+
+    private MapFormat(String contentType) {
+      this.contentType = contentType;
+    }
+
+    abstract void writeHeader(MapRequest map, Writer writer) throws IOException;
+
+    abstract void writeNode(MapRequest map, MapNode node, boolean first, Writer writer)
+        throws IOException;
+
+    abstract void writeFooter(Writer writer) throws IOException;
+
+    @Override
+    public String toString() {
+      return name().toLowerCase();
+    }
+  }
+
+  /* Non-finite ground motions are omitted from feature properties. */
+  private static final class Feature {
+
+    final String type = "Feature";
+    final Geometry geometry;
+    final Map<String, Double> properties = new LinkedHashMap<>();
+
+    Feature(MapRequest map, MapNode node) {
+      this.geometry = new Geometry(node);
+      List<String> columns = map.columns();
+      for (int i = 0; i < columns.size(); i++) {
+        double value = node.values[i];
+        if (Double.isFinite(value)) {
+          properties.put(columns.get(i), value);
+        }
+      }
+    }
+  }
+
+  private static final class Geometry {
+
+    final String type = "Point";
+    final double[] coordinates;
+
+    Geometry(MapNode node) {
+      this.coordinates = new double[] { node.longitude, node.latitude };
+    }
+  }
+
+  @SuppressWarnings("unused")
+  private static final class Usage {
+
+    final String status = Status.USAGE.toString();
+    final String description = "Compute a gridded hazard map over a bounding box";
+    final List<String> syntax = ImmutableList.of(
+        "%s://%s/nshmp-haz-ws/hazard-map?model={model}&vs30={vs30}" +
+            "&spacing={spacing}&returnperiod={returnPeriod}" +
+            "[&minlatitude=&maxlatitude=&minlongitude=&maxlongitude=]" +
+            "[&imt={imt}][&format={csv|geojson}]",
+        "POST %s://%s/nshmp-haz-ws/jobs?type=map&...");
+    final String response = "CSV (lon,lat,IMT-returnPeriod...) or GeoJSON; one line per " +
+        "grid node in order of completion";
+    final int maxSites = MAX_SYNC_SITES;
+    final int maxJobSites = MAX_SITES;
+  }
+
+}
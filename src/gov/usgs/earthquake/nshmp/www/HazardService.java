@@ -5,7 +5,12 @@ import static gov.usgs.earthquake.nshmp.calc.HazardExport.curvesBySource;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.MODEL_CACHE_CONTEXT_ID;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.emptyRequest;
+import static gov.usgs.earthquake.nshmp.www.Util.parseDouble;
+import static gov.usgs.earthquake.nshmp.www.Util.parseDoubles;
+import static gov.usgs.earthquake.nshmp.www.Util.parseValue;
+import static gov.usgs.earthquake.nshmp.www.Util.parseValues;
 import static gov.usgs.earthquake.nshmp.www.Util.readDouble;
+import static gov.usgs.earthquake.nshmp.www.Util.readDoubles;
 import static gov.usgs.earthquake.nshmp.www.Util.readValue;
 import static gov.usgs.earthquake.nshmp.www.Util.readValues;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.EDITION;
@@ -24,8 +29,8 @@ import java.time.ZonedDateTime;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.OptionalDouble;
 import java.util.Set;
 
 import javax.servlet.ServletContext;
@@ -37,6 +42,8 @@ import javax.servlet.http.HttpServletResponse;
 import com.google.common.base.Joiner;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
 
 import gov.usgs.earthquake.nshmp.calc.CalcConfig;
 import gov.usgs.earthquake.nshmp.calc.CalcConfig.Builder;
@@ -79,9 +86,10 @@ public final class HazardService extends NshmpServlet {
    * package method HazardService.hazardCalc() to obtain a Hazard object, which
    * it then deaggregates. This method may combine Hazard objects from CEUS and
    * WUS models, otherwise it runs a single model. HazardService.RequestData
-   * objects are common to both services, with the understanding that Optional
-   * fields (1) 'imts' will always contain a Set<Imt> with a single entry for
-   * deagg, and that (2) 'returnPeriod' will be absent for hazard.
+   * objects are common to both services, with the understanding that
+   * 'returnPeriods' will be empty for hazard. Deagg requests may supply
+   * multiple IMTs and return periods; hazard is computed once and
+   * deaggregated at each return period.
    *
    * Nshmp-haz calculations are designed to leverage all available processors by
    * default distributing work using the ServletUtil.CALC_EXECUTOR. This can
@@ -113,6 +121,8 @@ public final class HazardService extends NshmpServlet {
    *
    */
 
+  private static final UsageDocument USAGE = UsageDocument.of(Metadata.HAZARD_USAGE);
+
   @Override
   protected void doGet(
       HttpServletRequest request,
@@ -124,7 +134,7 @@ public final class HazardService extends NshmpServlet {
     Optional<String> pathInfo = Optional.ofNullable(request.getPathInfo());
 
     if (emptyRequest(request)) {
-      urlHelper.writeResponse(Metadata.HAZARD_USAGE);
+      urlHelper.writeResponse(USAGE);
       return;
     }
 
@@ -145,25 +155,28 @@ public final class HazardService extends NshmpServlet {
     }
 
     RequestData requestData;
+    ResponseFilter filter = ResponseFilter.ALL;
     try {
       if (query != null) {
         /* process query '?' request */
-        requestData = buildRequest(request);
+        requestData = buildRequest(request.getParameterMap());
+        filter = ResponseFilter.fromParameters(request.getParameterMap());
       } else {
         /* process slash-delimited request */
         List<String> params = Parsing.splitToList(pathInfo.get(), Delimiter.SLASH);
         if (params.size() < 6) {
-          urlHelper.writeResponse(Metadata.HAZARD_USAGE);
+          urlHelper.writeResponse(USAGE);
           return;
         }
         requestData = buildRequest(params);
       }
 
       /* Submit as task to job executor */
-      HazardTask task = new HazardTask(urlHelper.url, getServletContext(), requestData);
+      HazardTask task = new HazardTask(urlHelper.url, getServletContext(), requestData, filter);
       Result result = ServletUtil.TASK_EXECUTOR.submit(task).get();
       // GSON.toJson(result, response.getWriter()); TODO test and use elsewhere?
-      String resultStr = GSON.toJson(result);
+      Gson gson = filter.allFields() ? GSON : ServletUtil.GSON_OMIT_NULLS;
+      String resultStr = gson.toJson(result);
       response.getWriter().print(resultStr);
 
     } catch (Exception e) {
@@ -177,27 +190,25 @@ public final class HazardService extends NshmpServlet {
    * Reduce query string key-value pairs. This method is shared with deagg.
    * Deagg must supply a single Imt. See RequestData notes below.
    */
-  static RequestData buildRequest(HttpServletRequest request) {
-
-    Map<String, String[]> paramMap = request.getParameterMap();
+  static RequestData buildRequest(Map<String, String[]> paramMap) {
 
     /* Read params as for hazard. */
-    double lon = readDouble(LONGITUDE, request);
-    double lat = readDouble(LATITUDE, request);
-    Vs30 vs30 = Vs30.fromValue(readDouble(VS30, request));
-    Edition edition = readValue(EDITION, request, Edition.class);
+    double lon = readDouble(LONGITUDE, paramMap);
+    double lat = readDouble(LATITUDE, paramMap);
+    Vs30 vs30 = Vs30.fromValue(readDouble(VS30, paramMap));
+    Edition edition = readValue(EDITION, paramMap, Edition.class);
     Region region = ServletUtil.checkRegion(
-        readValue(REGION, request, Region.class),
+        readValue(REGION, paramMap, Region.class),
         lon);
     Set<Imt> supportedImts = Metadata.commonImts(edition, region);
     Set<Imt> imts = paramMap.containsKey(IMT.toString())
-        ? readValues(IMT, request, Imt.class)
+        ? readValues(IMT, paramMap, Imt.class)
         : supportedImts;
-    OptionalDouble returnPeriod = OptionalDouble.empty();
+    List<Double> returnPeriods = ImmutableList.of();
 
     /* Possibly update for deagg. */
     if (paramMap.containsKey(RETURNPERIOD.toString())) {
-      returnPeriod = OptionalDouble.of(readDouble(RETURNPERIOD, request));
+      returnPeriods = readDoubles(RETURNPERIOD, paramMap);
     }
 
     return new RequestData(
@@ -207,7 +218,7 @@ public final class HazardService extends NshmpServlet {
         lat,
         imts,
         vs30,
-        returnPeriod);
+        returnPeriods);
   }
 
   /*
@@ -217,22 +228,22 @@ public final class HazardService extends NshmpServlet {
   static RequestData buildRequest(List<String> params) {
 
     /* Read params as for hazard */
-    double lon = Double.valueOf(params.get(2));
-    double lat = Double.valueOf(params.get(3));
-    Vs30 vs30 = Vs30.fromValue(Double.valueOf(params.get(5)));
-    Edition edition = Enum.valueOf(Edition.class, params.get(0));
+    double lon = parseDouble(LONGITUDE, params.get(2));
+    double lat = parseDouble(LATITUDE, params.get(3));
+    Vs30 vs30 = Vs30.fromValue(parseDouble(VS30, params.get(5)));
+    Edition edition = parseValue(EDITION, params.get(0), Edition.class);
     Region region = ServletUtil.checkRegion(
-        Enum.valueOf(Region.class, params.get(1)),
+        parseValue(REGION, params.get(1), Region.class),
         lon);
     Set<Imt> supportedImts = Metadata.commonImts(edition, region);
     Set<Imt> imts = (params.get(4).equalsIgnoreCase("any"))
         ? supportedImts
-        : readValues(params.get(4), Imt.class);
-    OptionalDouble returnPeriod = OptionalDouble.empty();
+        : parseValues(IMT, params.get(4), Imt.class);
+    List<Double> returnPeriods = ImmutableList.of();
 
     /* Possibly update for deagg. */
     if (params.size() == 7) {
-      returnPeriod = OptionalDouble.of(Double.valueOf(params.get(6)));
+      returnPeriods = parseDoubles(RETURNPERIOD, params.get(6));
     }
 
     return new RequestData(
@@ -242,16 +253,18 @@ public final class HazardService extends NshmpServlet {
         lat,
         imts,
         vs30,
-        returnPeriod);
+        returnPeriods);
   }
 
   private static class HazardTask extends TimedTask<Result> {
 
     final RequestData data;
+    final ResponseFilter filter;
 
-    HazardTask(String url, ServletContext context, RequestData data) {
+    HazardTask(String url, ServletContext context, RequestData data, ResponseFilter filter) {
       super(url, context);
       this.data = data;
+      this.filter = filter;
     }
 
     @Override
@@ -261,6 +274,7 @@ public final class HazardService extends NshmpServlet {
           .requestData(data)
           .url(url)
           .timer(timer)
+          .filter(filter)
           .hazard(hazard)
           .build();
     }
@@ -327,16 +341,14 @@ public final class HazardService extends NshmpServlet {
   /*
    * We use a single request object type for both hazard and deagg. With the
    * extension of deagg to support CMS, we need medians and sigmas for other
-   * spectral periods, but we don't (at least not yet) want to return serialized
-   * deaggs across all periods. Whereas both underlying programs support
-   * multiple Imts, the hazard service expects a set of Imts (that may
-   * correspond to 'any' implying all supportedImts), but the deagg service
-   * expects a single Imt. To address this, we've added the deaggImt field,
-   * which will be derived from the singleton imt URL argument as before, but
-   * hazard will always be computed across the set of Imts supplied so that the
-   * cms at the deaggImt can be computed. Under the hood the deagg application
-   * provides support for all specified Imts. Also note that the presence of a
-   * 'return period' is used to flag deagg service requests.
+   * spectral periods. Both underlying programs support multiple Imts; the
+   * hazard service expects a set of Imts (that may correspond to 'any'
+   * implying all supportedImts) and the deagg service returns a deaggregation
+   * for each supplied Imt at each supplied return period. Note that the
+   * presence of 'return periods' is used to flag deagg service requests.
+   * 
+   * Request data is immutable and hashable and may be used as a canonical
+   * request key by caches.
    */
   static final class RequestData {
 
@@ -346,7 +358,7 @@ public final class HazardService extends NshmpServlet {
     final double longitude;
     final Set<Imt> imts;
     final Vs30 vs30;
-    final OptionalDouble returnPeriod;
+    final List<Double> returnPeriods;
 
     RequestData(
         Edition edition,
@@ -355,41 +367,73 @@ public final class HazardService extends NshmpServlet {
         double latitude,
         Set<Imt> imts,
         Vs30 vs30,
-        OptionalDouble returnPeriod) {
+        List<Double> returnPeriods) {
 
       this.edition = edition;
       this.region = region;
       this.latitude = latitude;
       this.longitude = longitude;
-      this.imts = imts;
+      this.imts = Sets.immutableEnumSet(imts);
       this.vs30 = vs30;
-      this.returnPeriod = returnPeriod;
+      this.returnPeriods = ImmutableList.copyOf(returnPeriods);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof RequestData)) {
+        return false;
+      }
+      RequestData that = (RequestData) obj;
+      return edition == that.edition &&
+          region == that.region &&
+          Double.compare(latitude, that.latitude) == 0 &&
+          Double.compare(longitude, that.longitude) == 0 &&
+          imts.equals(that.imts) &&
+          vs30 == that.vs30 &&
+          returnPeriods.equals(that.returnPeriods);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(edition, region, latitude, longitude, imts, vs30, returnPeriods);
     }
   }
 
+  /* Fields excluded by a ResponseFilter are null. */
   private static final class ResponseData {
 
     final Edition edition;
     final Region region;
-    final double latitude;
-    final double longitude;
+    final Double latitude;
+    final Double longitude;
     final Imt imt;
     final Vs30 vs30;
-    final String xlabel = "Ground Motion (g)";
-    final String ylabel = "Annual Frequency of Exceedence";
+    final String xlabel;
+    final String ylabel;
     final List<Double> xvalues;
 
-    ResponseData(RequestData request, Imt imt, List<Double> xvalues) {
-      this.edition = request.edition;
-      this.region = request.region;
-      this.longitude = request.longitude;
-      this.latitude = request.latitude;
+    ResponseData(RequestData request, Imt imt, List<Double> xvalues, ResponseFilter filter) {
+      boolean model = filter.has(ResponseFilter.Field.MODEL);
+      boolean site = filter.has(ResponseFilter.Field.SITE);
+      boolean labels = filter.has(ResponseFilter.Field.LABELS);
+      this.edition = model ? request.edition : null;
+      this.region = model ? request.region : null;
+      this.longitude = site ? request.longitude : null;
+      this.latitude = site ? request.latitude : null;
       this.imt = imt;
-      this.vs30 = request.vs30;
+      this.vs30 = site ? request.vs30 : null;
+      this.xlabel = labels ? XLABEL : null;
+      this.ylabel = labels ? YLABEL : null;
       this.xvalues = xvalues;
     }
   }
 
+  private static final String XLABEL = "Ground Motion (g)";
+  private static final String YLABEL = "Annual Frequency of Exceedence";
+
   private static final class Response {
 
     final ResponseData metadata;
@@ -433,11 +477,13 @@ public final class HazardService extends NshmpServlet {
       String url;
       Timer timer;
       RequestData request;
+      ResponseFilter filter = ResponseFilter.ALL;
 
       Map<Imt, Map<SourceType, XySequence>> componentMaps;
       Map<Imt, XySequence> totalMap;
       Map<Imt, List<Double>> xValuesLinearMap;
 
+      /* Set any filter prior to adding hazard. */
       Builder hazard(Hazard hazardResult) {
         checkState(totalMap == null, "Hazard has already been added to this builder");
 
@@ -445,7 +491,11 @@ public final class HazardService extends NshmpServlet {
         totalMap = new EnumMap<>(Imt.class);
         xValuesLinearMap = new EnumMap<>(Imt.class);
 
-        Map<Imt, Map<SourceType, XySequence>> typeTotalMaps = curvesBySource(hazardResult);
+        /* Only aggregate source type curves if requested. */
+        Map<Imt, Map<SourceType, XySequence>> typeTotalMaps = filter.hasComponents()
+            ? curvesBySource(hazardResult)
+            : null;
+        boolean xValues = filter.has(ResponseFilter.Field.XVALUES);
 
         for (Imt imt : hazardResult.curves().keySet()) {
 
@@ -453,24 +503,34 @@ public final class HazardService extends NshmpServlet {
           hazardResult.curves().get(imt).addToMap(imt, totalMap);
 
           // component curves
-          Map<SourceType, XySequence> typeTotalMap = typeTotalMaps.get(imt);
           Map<SourceType, XySequence> componentMap = componentMaps.get(imt);
           if (componentMap == null) {
             componentMap = new EnumMap<>(SourceType.class);
             componentMaps.put(imt, componentMap);
           }
 
-          for (SourceType type : typeTotalMap.keySet()) {
-            typeTotalMap.get(type).addToMap(type, componentMap);
+          if (typeTotalMaps != null) {
+            Map<SourceType, XySequence> typeTotalMap = typeTotalMaps.get(imt);
+            for (SourceType type : typeTotalMap.keySet()) {
+              if (filter.components.contains(type)) {
+                typeTotalMap.get(type).addToMap(type, componentMap);
+              }
+            }
           }
 
           xValuesLinearMap.put(
               imt,
-              hazardResult.config().hazard.modelCurve(imt).xValues());
+              xValues ? hazardResult.config().hazard.modelCurve(imt).xValues() : null);
         }
         return this;
       }
 
+      Builder filter(ResponseFilter filter) {
+        checkState(totalMap == null, "Filter must be set before adding hazard");
+        this.filter = filter;
+        return this;
+      }
+
       Builder url(String url) {
         this.url = url;
         return this;
@@ -494,7 +554,8 @@ public final class HazardService extends NshmpServlet {
           ResponseData responseData = new ResponseData(
               request,
               imt,
-              xValuesLinearMap.get(imt));
+              xValuesLinearMap.get(imt),
+              filter);
 
           ImmutableList.Builder<Curve> curveListBuilder = ImmutableList.builder();
 
@@ -1,22 +1,37 @@
 package gov.usgs.earthquake.nshmp.www;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static gov.usgs.earthquake.nshmp.calc.HazardExport.curvesBySource;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.MODEL_CACHE_CONTEXT_ID;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.emptyRequest;
+import static gov.usgs.earthquake.nshmp.www.Util.parseDouble;
+import static gov.usgs.earthquake.nshmp.www.Util.parseDoubles;
+import static gov.usgs.earthquake.nshmp.www.Util.parseValueList;
+import static gov.usgs.earthquake.nshmp.www.Util.readBoolean;
 import static gov.usgs.earthquake.nshmp.www.Util.readDouble;
-import static gov.usgs.earthquake.nshmp.www.Util.readValue;
+import static gov.usgs.earthquake.nshmp.www.Util.readDoubles;
+import static gov.usgs.earthquake.nshmp.www.Util.readValueList;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.LATITUDE;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.LONGITUDE;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.MODEL;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.PERMODEL;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.VS30;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -24,8 +39,17 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Doubles;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.Gson;
 
 import gov.usgs.earthquake.nshmp.calc.CalcConfig;
 import gov.usgs.earthquake.nshmp.calc.CalcConfig.Builder;
@@ -84,22 +108,42 @@ public final class HazardService2 extends NshmpServlet {
    * ServletUtil.TASK_EXECUTOR and are processed one-at-a-time in the order
    * received.
    * 
-   * TODO Add support for multi model requests in order to combine models per
-   * the original hazard service.
+   * Multiple models may be requested (as repeated or comma-delimited 'model'
+   * values) in which case hazard is computed across the IMTs common to all
+   * models and the results are combined, as in the original hazard service.
+   * Per-model calculations are run concurrently on the DRIVER_EXECUTOR, each
+   * distributing its work over the CALC_EXECUTOR. Curves for each model may
+   * be returned alongside the combined result with 'permodel=true'.
+   *
+   * Per-model hazard curves for interactive requests are cached by
+   * RequestData so that follow-on requests for the same site (e.g. /uhs after
+   * /haz) do not repeat the calculation. Only the HazardCurves read by /haz,
+   * /uhs and /compare are cached; a Hazard result retains the per-source and
+   * per-rupture data needed for deaggregation and is released once its curves
+   * are extracted. A cached entry is of order 50 KB per model. Batch and map
+   * calculations bypass the cache so as not to evict interactive results.
+   *
+   * Per-source-type curves are aggregated only for requests that return them,
+   * so 'components=none', /uhs and /compare skip that work. Entries are keyed
+   * by whether they hold component curves; a request without components is
+   * served from an entry with them when one is present, but a request with
+   * components does not reuse an entry without them.
+   *
+   * Multiple vs30s may be requested (as repeated or comma-delimited 'vs30'
+   * values) in which case hazard for each vs30 is computed concurrently on the
+   * DRIVER_EXECUTOR and a single response keyed by vs30 is returned. Each vs30
+   * is cached individually, so single-vs30 follow-on requests are free. Hazard
+   * jobs also support multiple vs30s; other services that build requests with
+   * buildRequestData (e.g. /uhs) reject them.
    */
 
-  private LoadingCache<Model, HazardModel> modelCache;
+  private static final int HAZARD_CACHE_SIZE = 100;
 
-  private static final String USAGE = SourceServices.GSON.toJson(
-      new SourceServices.ResponseData());
-
-  @Override
-  @SuppressWarnings("unchecked")
-  public void init() {
-    ServletContext context = getServletConfig().getServletContext();
-    Object modelCache = context.getAttribute(MODEL_CACHE_CONTEXT_ID);
-    this.modelCache = (LoadingCache<Model, HazardModel>) modelCache;
-  }
+  private static final Cache<CurvesKey, List<HazardCurves>> HAZARD_CACHE =
+      CacheBuilder.newBuilder()
+          .maximumSize(HAZARD_CACHE_SIZE)
+          .expireAfterAccess(1, TimeUnit.HOURS)
+          .build();
 
   @Override
   protected void doGet(
@@ -110,17 +154,28 @@ public final class HazardService2 extends NshmpServlet {
     UrlHelper urlHelper = urlHelper(request, response);
 
     if (emptyRequest(request)) {
-      urlHelper.writeResponse(USAGE);
+      urlHelper.writeResponse(SourceServices.usage());
       return;
     }
 
     try {
-      RequestData requestData = buildRequestData(request);
+      List<RequestData> requests = buildRequests(request);
+      boolean query = request.getQueryString() != null;
+      ResponseFilter filter = query
+          ? ResponseFilter.fromParameters(request.getParameterMap())
+          : ResponseFilter.ALL;
+      boolean perModel = query && readBoolean(PERMODEL, request, false);
 
       /* Submit as task to job executor */
-      Hazard2Task task = new Hazard2Task(urlHelper.url, getServletContext(), requestData);
-      Result result = ServletUtil.TASK_EXECUTOR.submit(task).get();
-      GSON.toJson(result, response.getWriter());
+      TimedTask<?> task = createTask(
+          urlHelper.url,
+          getServletContext(),
+          requests,
+          filter,
+          perModel);
+      Object result = ServletUtil.TASK_EXECUTOR.submit(task).get();
+      Gson gson = filter.allFields() ? GSON : ServletUtil.GSON_OMIT_NULLS;
+      gson.toJson(result, response.getWriter());
 
     } catch (Exception e) {
       String message = Metadata.errorMessage(urlHelper.url, e, false);
@@ -129,123 +184,515 @@ public final class HazardService2 extends NshmpServlet {
     }
   }
 
-  /* Reduce query string key-value pairs. */
-  static RequestData buildRequestData(HttpServletRequest request) {
+  /* Reduce query string key-value pairs to one request per vs30. */
+  private static List<RequestData> buildRequests(HttpServletRequest request) {
 
     try {
 
-      Model model;
-      double lon;
-      double lat;
-      Vs30 vs30;
-
       if (request.getQueryString() != null) {
         /* process query '?' request */
-        model = readValue(MODEL, request, Model.class);
-        lon = readDouble(LONGITUDE, request);
-        lat = readDouble(LATITUDE, request);
-        vs30 = Vs30.fromValue(readDouble(VS30, request));
-
-      } else {
-        /* process slash-delimited request */
-        List<String> params = Parsing.splitToList(
-            request.getPathInfo(),
-            Delimiter.SLASH);
-        model = Model.valueOf(params.get(0));
-        lon = Double.valueOf(params.get(1));
-        lat = Double.valueOf(params.get(2));
-        vs30 = Vs30.fromValue(Double.valueOf(params.get(3)));
+        return buildRequests(request.getParameterMap());
       }
 
-      return new RequestData(
-          model,
-          lon,
-          lat,
-          vs30);
-
+      /* process slash-delimited request */
+      List<String> params = Parsing.splitToList(
+          request.getPathInfo(),
+          Delimiter.SLASH);
+      return buildRequests(
+          parseValueList(MODEL, params.get(0), Model.class),
+          parseDouble(LONGITUDE, params.get(1)),
+          parseDouble(LATITUDE, params.get(2)),
+          parseDoubles(VS30, params.get(3)));
+
+    } catch (IllegalArgumentException iae) {
+      throw iae;
     } catch (Exception e) {
       throw new IllegalArgumentException("Error parsing request URL", e);
     }
   }
 
-  private class Hazard2Task extends TimedTask<Result> {
+  /*
+   * Reduce parameter map key-value pairs to one request per vs30, in request
+   * order. Also used by JobService, which supports multiple vs30s.
+   */
+  static List<RequestData> buildRequests(Map<String, String[]> paramMap) {
+    return buildRequests(
+        readValueList(MODEL, paramMap, Model.class),
+        readDouble(LONGITUDE, paramMap),
+        readDouble(LATITUDE, paramMap),
+        readDoubles(VS30, paramMap));
+  }
+
+  /*
+   * Reduce parameter map key-value pairs. Also used by UhsService. Only a
+   * single vs30 is supported.
+   */
+  static RequestData buildRequestData(Map<String, String[]> paramMap) {
+    List<RequestData> requests = buildRequests(paramMap);
+    checkArgument(requests.size() == 1, "Multiple vs30s are only supported by /haz");
+    return requests.get(0);
+  }
+
+  private static List<RequestData> buildRequests(
+      List<Model> models,
+      double longitude,
+      double latitude,
+      List<Double> vs30s) {
+
+    return vs30s.stream()
+        .map(Vs30::fromValue)
+        .distinct()
+        .map(vs30 -> new RequestData(models, longitude, latitude, vs30))
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /* Create a single or multi-vs30 task. */
+  private static TimedTask<?> createTask(
+      String url,
+      ServletContext context,
+      List<RequestData> requests,
+      ResponseFilter filter,
+      boolean perModel) {
+
+    return (requests.size() == 1)
+        ? new Hazard2Task(url, context, requests.get(0), filter, perModel)
+        : new Vs30Task(url, context, requests, filter, perModel);
+  }
+
+  /*
+   * Compute and write the result for a query parameter map. Used by the
+   * JobService, which runs jobs on its own executor.
+   */
+  static void writeResult(
+      Map<String, String[]> paramMap,
+      String url,
+      ServletContext context,
+      Writer writer) throws Exception {
+
+    List<RequestData> requests = buildRequests(paramMap);
+    ResponseFilter filter = ResponseFilter.fromParameters(paramMap);
+    boolean perModel = paramMap.containsKey(PERMODEL.toString()) &&
+        Util.readBoolean(PERMODEL, paramMap);
+    Object result = createTask(url, context, requests, filter, perModel).call();
+    Gson gson = filter.allFields() ? GSON : ServletUtil.GSON_OMIT_NULLS;
+    gson.toJson(result, writer);
+  }
+
+  private static class Hazard2Task extends TimedTask<Result> {
 
     final RequestData data;
+    final ResponseFilter filter;
+    final boolean perModel;
+
+    Hazard2Task(
+        String url,
+        ServletContext context,
+        RequestData data,
+        ResponseFilter filter,
+        boolean perModel) {
 
-    Hazard2Task(String url, ServletContext context, RequestData data) {
       super(url, context);
       this.data = data;
+      this.filter = filter;
+      this.perModel = perModel;
     }
 
     @Override
     Result calc() throws Exception {
-      Hazard hazard = calcHazard(data, context);
+      List<HazardCurves> modelCurves =
+          cachedModelCurves(data, filter.hasComponents(), context);
       return new Result.Builder()
           .requestData(data)
           .url(url)
           .timer(timer)
-          .hazard(hazard)
+          .filter(filter)
+          .modelCurves(perModel && modelCurves.size() > 1 ? modelCurves : null)
+          .curves(HazardCurves.merge(modelCurves))
           .build();
     }
   }
 
-  Hazard calcHazard(RequestData data, ServletContext context) {
-    Location loc = Location.create(data.latitude, data.longitude);
-    HazardModel model = modelCache.getUnchecked(data.model);
+  /*
+   * Computes hazard for each of several vs30s concurrently on DRIVER_EXECUTOR,
+   * returning one response per vs30.
+   */
+  private static class Vs30Task extends TimedTask<Vs30Result> {
+
+    final List<RequestData> requests;
+    final ResponseFilter filter;
+    final boolean perModel;
+
+    Vs30Task(
+        String url,
+        ServletContext context,
+        List<RequestData> requests,
+        ResponseFilter filter,
+        boolean perModel) {
+
+      super(url, context);
+      this.requests = requests;
+      this.filter = filter;
+      this.perModel = perModel;
+    }
+
+    @Override
+    Vs30Result calc() throws Exception {
+      List<ListenableFuture<List<HazardCurves>>> futures = new ArrayList<>();
+      for (RequestData request : requests) {
+        futures.add(ServletUtil.DRIVER_EXECUTOR.submit(
+            () -> cachedModelCurves(request, filter.hasComponents(), context)));
+      }
+      List<List<HazardCurves>> vs30Curves = Futures.allAsList(futures).get();
+
+      Map<String, List<Response>> responses = new LinkedHashMap<>();
+      for (int i = 0; i < requests.size(); i++) {
+        RequestData request = requests.get(i);
+        List<HazardCurves> modelCurves = vs30Curves.get(i);
+        Result result = new Result.Builder()
+            .requestData(request)
+            .url(url)
+            .timer(timer)
+            .filter(filter)
+            .modelCurves(perModel && modelCurves.size() > 1 ? modelCurves : null)
+            .curves(HazardCurves.merge(modelCurves))
+            .build();
+        responses.put(Long.toString(Math.round(request.vs30.value())), result.response);
+      }
+      Object server = Metadata.serverData(ServletUtil.THREAD_COUNT, timer);
+      return new Vs30Result(url, server, responses);
+    }
+  }
+
+  /* Also used by HazardBatchService and HazardMapService */
+  static Hazard calcHazard(RequestData data, ServletContext context)
+      throws InterruptedException, ExecutionException {
+    return merge(calcModelHazards(data, context));
+  }
+
+  /* Also used by UhsService and CompareService; total curves only. */
+  static HazardCurves cachedCurves(RequestData data, ServletContext context)
+      throws InterruptedException, ExecutionException {
+    return HazardCurves.merge(cachedModelCurves(data, false, context));
+  }
+
+  /*
+   * Return per-model curves from the cache, computing hazard if absent.
+   * Concurrent requests for the same data and components wait on a single
+   * calculation.
+   */
+  private static List<HazardCurves> cachedModelCurves(
+      RequestData data,
+      boolean components,
+      ServletContext context) throws InterruptedException, ExecutionException {
+
+    if (!components) {
+      List<HazardCurves> cached = HAZARD_CACHE.getIfPresent(new CurvesKey(data, true));
+      if (cached != null) {
+        return cached;
+      }
+    }
+    try {
+      return HAZARD_CACHE.get(
+          new CurvesKey(data, components),
+          () -> calcModelHazards(data, context).stream()
+              .map(hazard -> HazardCurves.create(hazard, components))
+              .collect(ImmutableList.toImmutableList()));
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof InterruptedException) {
+        throw (InterruptedException) cause;
+      }
+      if (cause instanceof ExecutionException) {
+        throw (ExecutionException) cause;
+      }
+      throw e;
+    } catch (UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    }
+  }
+
+  private static final class CurvesKey {
+
+    final RequestData data;
+    final boolean components;
+
+    CurvesKey(RequestData data, boolean components) {
+      this.data = data;
+      this.components = components;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof CurvesKey)) {
+        return false;
+      }
+      CurvesKey that = (CurvesKey) obj;
+      return data.equals(that.data) && components == that.components;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(data, components);
+    }
+  }
+
+  /*
+   * Linear ground motions of the curves of an IMT. Hazard curve x-values are
+   * natural log ground motions.
+   */
+  static List<Double> imls(Hazard hazard, Imt imt) {
+    return hazard.config().hazard.modelCurve(imt).xValues();
+  }
+
+  /*
+   * The curves of a hazard result that are read by /haz, /uhs and /compare:
+   * for each IMT, the total curve, the curve of each source type, and the
+   * linear ground motions of the model curve. Source type curves are only
+   * aggregated on request; components is otherwise empty. Curves are immutable
+   * once created and may be shared across requests.
+   */
+  static final class HazardCurves {
+
+    final Map<Imt, XySequence> totals;
+    final Map<Imt, Map<SourceType, XySequence>> components;
+    final Map<Imt, List<Double>> imls;
+
+    private HazardCurves(
+        Map<Imt, XySequence> totals,
+        Map<Imt, Map<SourceType, XySequence>> components,
+        Map<Imt, List<Double>> imls) {
+
+      this.totals = totals;
+      this.components = components;
+      this.imls = imls;
+    }
+
+    static HazardCurves create(Hazard hazard, boolean components) {
+      Map<Imt, List<Double>> imls = new EnumMap<>(Imt.class);
+      for (Imt imt : hazard.curves().keySet()) {
+        imls.put(imt, imls(hazard, imt));
+      }
+      return new HazardCurves(
+          new EnumMap<>(hazard.curves()),
+          components ? curvesBySource(hazard) : new EnumMap<>(Imt.class),
+          imls);
+    }
+
+    boolean hasComponents() {
+      return !components.isEmpty();
+    }
+
+    /* Sum the curves of several models, as Hazard.merge does. */
+    static HazardCurves merge(List<HazardCurves> models) {
+      if (models.size() == 1) {
+        return models.get(0);
+      }
+      HazardCurves first = models.get(0);
+      boolean hasComponents = first.hasComponents();
+      Map<Imt, XySequence> totals = new EnumMap<>(Imt.class);
+      Map<Imt, Map<SourceType, XySequence>> components = new EnumMap<>(Imt.class);
+      for (Imt imt : first.totals.keySet()) {
+        List<Double> imls = first.imls.get(imt);
+        List<XySequence> imtTotals = new ArrayList<>();
+        Map<SourceType, List<XySequence>> imtComponents = new EnumMap<>(SourceType.class);
+        for (HazardCurves model : models) {
+          checkArgument(
+              imls.equals(model.imls.get(imt)),
+              "Models do not share ground motions for %s", imt);
+          imtTotals.add(model.totals.get(imt));
+          if (!hasComponents) {
+            continue;
+          }
+          model.components.get(imt).forEach((type, curve) -> imtComponents
+              .computeIfAbsent(type, t -> new ArrayList<>())
+              .add(curve));
+        }
+        totals.put(imt, sum(imtTotals));
+        if (!hasComponents) {
+          continue;
+        }
+        Map<SourceType, XySequence> typeTotals = new EnumMap<>(SourceType.class);
+        imtComponents.forEach((type, curves) -> typeTotals.put(type, sum(curves)));
+        components.put(imt, typeTotals);
+      }
+      return new HazardCurves(totals, components, first.imls);
+    }
+
+    private static XySequence sum(List<XySequence> curves) {
+      XySequence first = curves.get(0);
+      if (curves.size() == 1) {
+        return first;
+      }
+      double[] ys = new double[first.size()];
+      for (XySequence curve : curves) {
+        for (int i = 0; i < ys.length; i++) {
+          ys[i] += curve.y(i);
+        }
+      }
+      return XySequence.create(Doubles.toArray(first.xValues()), ys);
+    }
+  }
+
+  private static Hazard merge(List<Hazard> hazards) {
+    return (hazards.size() == 1) ? hazards.get(0) : Hazard.merge(hazards.toArray(new Hazard[0]));
+  }
+
+  /*
+   * Compute hazard for each requested model, in request order. Multiple models
+   * are run concurrently; see developer notes above.
+   */
+  private static List<Hazard> calcModelHazards(RequestData data, ServletContext context)
+      throws InterruptedException, ExecutionException {
+
+    @SuppressWarnings("unchecked")
+    LoadingCache<Model, HazardModel> modelCache =
+        (LoadingCache<Model, HazardModel>) context.getAttribute(MODEL_CACHE_CONTEXT_ID);
+
+    if (data.models.size() == 1) {
+      return ImmutableList.of(process(modelCache, data.models.get(0), data));
+    }
+    List<ListenableFuture<Hazard>> futures = new ArrayList<>();
+    for (Model model : data.models) {
+      futures.add(ServletUtil.DRIVER_EXECUTOR.submit(
+          () -> process(modelCache, model, data)));
+    }
+    return Futures.allAsList(futures).get();
+  }
+
+  private static Hazard process(
+      LoadingCache<Model, HazardModel> modelCache,
+      Model modelId,
+      RequestData data) {
+
+    HazardModel model = modelCache.getUnchecked(modelId);
     Builder configBuilder = CalcConfig.Builder.copyOf(model.config());
-    configBuilder.imts(data.model.imts);
+    configBuilder.imts(data.imts);
     CalcConfig config = configBuilder.build();
 
     Site site = Site.builder()
         .basinDataProvider(config.siteData.basinDataProvider)
-        .location(loc)
+        .location(Location.create(data.latitude, data.longitude))
         .vs30(data.vs30.value())
         .build();
 
     return HazardCalcs.hazard(model, config, site, ServletUtil.CALC_EXECUTOR);
   }
 
+  /*
+   * Request data is immutable and hashable and may be used as a canonical
+   * request key by caches. Model order is retained as it determines the order
+   * of hazard merging. IMTs are those common to all models unless a subset is
+   * supplied.
+   */
   static final class RequestData {
 
-    final Model model;
+    final List<Model> models;
+    final Set<Imt> imts;
     final double latitude;
     final double longitude;
     final Vs30 vs30;
 
     RequestData(
-        Model model,
+        List<Model> models,
         double longitude,
         double latitude,
         Vs30 vs30) {
 
-      this.model = model;
+      this(models, longitude, latitude, vs30, EnumSet.noneOf(Imt.class));
+    }
+
+    /* An empty set of IMTs selects all IMTs common to the models. */
+    RequestData(
+        List<Model> models,
+        double longitude,
+        double latitude,
+        Vs30 vs30,
+        Set<Imt> imts) {
+
+      checkArgument(!models.isEmpty(), "No models specified");
+      EnumSet<Imt> modelImts = EnumSet.copyOf(models.get(0).imts);
+      for (Model model : models) {
+        modelImts.retainAll(model.imts);
+      }
+      checkArgument(!modelImts.isEmpty(), "Models %s have no IMTs in common", models);
+      checkArgument(
+          modelImts.containsAll(imts),
+          "IMTs %s not supported by models %s", imts, models);
+
+      this.models = ImmutableList.copyOf(models);
+      this.imts = Sets.immutableEnumSet(imts.isEmpty() ? modelImts : imts);
       this.latitude = latitude;
       this.longitude = longitude;
       this.vs30 = vs30;
     }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof RequestData)) {
+        return false;
+      }
+      RequestData that = (RequestData) obj;
+      return models.equals(that.models) &&
+          Double.compare(latitude, that.latitude) == 0 &&
+          Double.compare(longitude, that.longitude) == 0 &&
+          vs30 == that.vs30 &&
+          imts.equals(that.imts);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(models, imts, latitude, longitude, vs30);
+    }
   }
 
+  /*
+   * Fields excluded by a ResponseFilter are null. The model field is a single
+   * SourceModel for single model requests and a list otherwise.
+   */
   private static final class ResponseData {
 
-    final SourceModel model;
-    final double latitude;
-    final double longitude;
+    final Object model;
+    final Double latitude;
+    final Double longitude;
     final Imt imt;
     final Vs30 vs30;
-    final String xlabel = "Ground Motion (g)";
-    final String ylabel = "Annual Frequency of Exceedence";
+    final String xlabel;
+    final String ylabel;
     final List<Double> xvalues;
 
-    ResponseData(RequestData request, Imt imt, List<Double> xvalues) {
-      this.model = new SourceModel(request.model);
-      this.latitude = request.latitude;
-      this.longitude = request.longitude;
+    ResponseData(RequestData request, Imt imt, List<Double> xvalues, ResponseFilter filter) {
+      boolean site = filter.has(ResponseFilter.Field.SITE);
+      boolean labels = filter.has(ResponseFilter.Field.LABELS);
+      this.model = filter.has(ResponseFilter.Field.MODEL) ? sourceModels(request.models) : null;
+      this.latitude = site ? request.latitude : null;
+      this.longitude = site ? request.longitude : null;
       this.imt = imt;
-      this.vs30 = request.vs30;
+      this.vs30 = site ? request.vs30 : null;
+      this.xlabel = labels ? XLABEL : null;
+      this.ylabel = labels ? YLABEL : null;
       this.xvalues = xvalues;
     }
   }
 
+  private static Object sourceModels(List<Model> models) {
+    if (models.size() == 1) {
+      return new SourceModel(models.get(0));
+    }
+    return models.stream()
+        .map(SourceModel::new)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  private static final String XLABEL = "Ground Motion (g)";
+  private static final String YLABEL = "Annual Frequency of Exceedence";
+
   private static final class Response {
 
     final ResponseData metadata;
@@ -270,6 +717,22 @@ public final class HazardService2 extends NshmpServlet {
 
   private static final String TOTAL_KEY = "Total";
 
+  /* Multi-vs30 result; responses are keyed by vs30 value in request order. */
+  private static final class Vs30Result {
+
+    final String status = Status.SUCCESS.toString();
+    final String date = ZonedDateTime.now().format(ServletUtil.DATE_FMT);
+    final String url;
+    final Object server;
+    final Map<String, List<Response>> response;
+
+    Vs30Result(String url, Object server, Map<String, List<Response>> response) {
+      this.url = url;
+      this.server = server;
+      this.response = response;
+    }
+  }
+
   private static final class Result {
 
     final String status = Status.SUCCESS.toString();
@@ -289,44 +752,65 @@ public final class HazardService2 extends NshmpServlet {
       String url;
       Timer timer;
       RequestData request;
+      ResponseFilter filter = ResponseFilter.ALL;
 
       Map<Imt, Map<SourceType, XySequence>> componentMaps;
       Map<Imt, XySequence> totalMap;
       Map<Imt, List<Double>> xValuesLinearMap;
+      List<HazardCurves> modelCurves;
 
-      Builder hazard(Hazard hazardResult) {
+      /* Per-model curves, in request model order; may be null. */
+      Builder modelCurves(List<HazardCurves> modelCurves) {
+        this.modelCurves = modelCurves;
+        return this;
+      }
+
+      /*
+       * Set any filter prior to adding curves. Cached curves are shared and
+       * only read.
+       */
+      Builder curves(HazardCurves curves) {
         checkState(totalMap == null, "Hazard has already been added to this builder");
 
         componentMaps = new EnumMap<>(Imt.class);
         totalMap = new EnumMap<>(Imt.class);
         xValuesLinearMap = new EnumMap<>(Imt.class);
 
-        Map<Imt, Map<SourceType, XySequence>> typeTotalMaps = curvesBySource(hazardResult);
+        boolean components = filter.hasComponents();
+        checkState(
+            !components || curves.hasComponents(),
+            "Component curves were not computed");
+        boolean xValues = filter.has(ResponseFilter.Field.XVALUES);
 
-        for (Imt imt : hazardResult.curves().keySet()) {
+        for (Imt imt : curves.totals.keySet()) {
 
           // total curve
-          hazardResult.curves().get(imt).addToMap(imt, totalMap);
+          totalMap.put(imt, curves.totals.get(imt));
 
           // component curves
-          Map<SourceType, XySequence> typeTotalMap = typeTotalMaps.get(imt);
-          Map<SourceType, XySequence> componentMap = componentMaps.get(imt);
-          if (componentMap == null) {
-            componentMap = new EnumMap<>(SourceType.class);
-            componentMaps.put(imt, componentMap);
-          }
-
-          for (SourceType type : typeTotalMap.keySet()) {
-            typeTotalMap.get(type).addToMap(type, componentMap);
+          Map<SourceType, XySequence> componentMap = new EnumMap<>(SourceType.class);
+          componentMaps.put(imt, componentMap);
+
+          if (components) {
+            Map<SourceType, XySequence> typeTotalMap = curves.components.get(imt);
+            for (SourceType type : typeTotalMap.keySet()) {
+              if (filter.components.contains(type)) {
+                componentMap.put(type, typeTotalMap.get(type));
+              }
+            }
           }
 
-          xValuesLinearMap.put(
-              imt,
-              hazardResult.config().hazard.modelCurve(imt).xValues());
+          xValuesLinearMap.put(imt, xValues ? curves.imls.get(imt) : null);
         }
         return this;
       }
 
+      Builder filter(ResponseFilter filter) {
+        checkState(totalMap == null, "Filter must be set before adding hazard");
+        this.filter = filter;
+        return this;
+      }
+
       Builder url(String url) {
         this.url = url;
         return this;
@@ -350,7 +834,8 @@ public final class HazardService2 extends NshmpServlet {
           ResponseData responseData = new ResponseData(
               request,
               imt,
-              xValuesLinearMap.get(imt));
+              xValuesLinearMap.get(imt),
+              filter);
 
           ImmutableList.Builder<Curve> curveListBuilder = ImmutableList.builder();
 
@@ -360,6 +845,16 @@ public final class HazardService2 extends NshmpServlet {
               totalMap.get(imt).yValues());
           curveListBuilder.add(totalCurve);
 
+          // model curves
+          if (modelCurves != null) {
+            for (int i = 0; i < modelCurves.size(); i++) {
+              Curve curve = new Curve(
+                  request.models.get(i).toString(),
+                  modelCurves.get(i).totals.get(imt).yValues());
+              curveListBuilder.add(curve);
+            }
+          }
+
           // component curves
           Map<SourceType, XySequence> typeMap = componentMaps.get(imt);
           for (SourceType type : typeMap.keySet()) {
@@ -0,0 +1,749 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON;
+import static gov.usgs.earthquake.nshmp.www.Util.parseValue;
+import static gov.usgs.earthquake.nshmp.www.Util.readValue;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.TYPE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import gov.usgs.earthquake.nshmp.www.HazardBatchService.BatchRequest;
+import gov.usgs.earthquake.nshmp.www.meta.Metadata;
+import gov.usgs.earthquake.nshmp.www.meta.Status;
+
+/**
+ * Asynchronous job service.
+ *
+ * <p>Hazard, deaggregation, hazard map, and batch hazard requests may be
+ * submitted as jobs with {@code POST /jobs?type=...} and the parameters of the
+ * corresponding synchronous service. Job status and progress are available at
+ * {@code GET /jobs/{id}} and completed results at {@code GET /jobs/{id}/result}.
+ *
+ * @author Peter Powers
+ */
+@WebServlet(
+    name = "Job Service",
+    description = "USGS NSHMP Asynchronous Job Service",
+    urlPatterns = {
+        "/jobs",
+        "/jobs/*" })
+public final class JobService extends NshmpServlet {
+
+  /*
+   * Developer notes:
+   *
+   * Jobs are persisted as files in a job directory: a descriptor (id.json), an
+   * optional request body (id.input) for batch jobs, and a result (id.result).
+   * Descriptors and results are written to temporary files and atomically
+   * moved into place so that a crash never leaves a partial file visible.
+   * Jobs that were queued or running when the service stopped are requeued
+   * on startup; the job directory thus serves as a local persistent queue.
+   *
+   * Jobs run on their own executor of MAX_RUNNING_JOBS threads rather than on
+   * TASK_EXECUTOR; a long map or batch job would otherwise stall every
+   * interactive hazard and deagg request queued behind it. Job calculations
+   * share CALC_EXECUTOR with interactive requests, and batch jobs use
+   * DRIVER_EXECUTOR for their per-site work, and hold a batch permit, as they
+   * would synchronously. At most MAX_PENDING_JOBS jobs may be queued or
+   * running; further submissions are rejected.
+   *
+   * Batch request bodies are copied to disk through a stream limited to
+   * MAX_INPUT_BYTES, so an oversized body is rejected as soon as the limit is
+   * passed.
+   *
+   * Large results are served with Tomcat's sendfile support, when the
+   * connector offers it, by setting the sendfile request attributes; the file
+   * is then written by the connector rather than copied through the servlet
+   * output stream. Otherwise results are streamed to the response.
+   *
+   * Progress is reported only for map and batch jobs, whose results are
+   * written one line per grid node or site, as the number of lines written.
+   *
+   * Finished jobs are pruned when they exceed a retention age or count; the
+   * directory may be set with the 'nshmp.jobs.dir' system property and
+   * otherwise defaults to a 'jobs' directory in the container temp dir.
+   */
+
+  static final String JOB_DIR_PROPERTY = "nshmp.jobs.dir";
+  static final int MAX_RETAINED_JOBS = 1000;
+  static final Duration MAX_RETENTION = Duration.ofDays(7);
+  static final long MAX_INPUT_BYTES = 64L * 1024 * 1024;
+  static final int MAX_RUNNING_JOBS = 2;
+  static final int MAX_PENDING_JOBS = 100;
+
+  private static final String DESCRIPTOR_EXT = ".json";
+  private static final String INPUT_EXT = ".input";
+  private static final String RESULT_EXT = ".result";
+  private static final String TMP_EXT = ".tmp";
+
+  private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+
+  private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+  private static final long MIN_SENDFILE_BYTES = 48 * 1024;
+
+  private static final UsageDocument USAGE = UsageDocument.of(() -> GSON.toJson(new Usage()));
+
+  private final ConcurrentMap<String, Job> jobs = new ConcurrentHashMap<>();
+  private Path jobDir;
+  private ExecutorService jobExecutor;
+
+  @Override
+  public void init() throws ServletException {
+    ServletContext context = getServletContext();
+    String dir = System.getProperty(JOB_DIR_PROPERTY);
+    if (dir == null) {
+      File tmp = (File) context.getAttribute("javax.servlet.context.tempdir");
+      dir = new File(tmp, "jobs").getPath();
+    }
+    try {
+      jobDir = Files.createDirectories(Paths.get(dir));
+      loadJobs();
+    } catch (IOException e) {
+      throw new ServletException(e);
+    }
+    prune();
+    jobExecutor = Executors.newFixedThreadPool(
+        MAX_RUNNING_JOBS,
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("job-%d")
+            .build());
+
+    /* Requeue unfinished jobs in order of submission. */
+    jobs.values().stream()
+        .filter(job -> !job.state.finished())
+        .sorted(Comparator.comparing(job -> job.created))
+        .forEach(this::submit);
+  }
+
+  @Override
+  public void destroy() {
+    /* Interrupted and queued jobs are left unfinished and requeued on restart. */
+    jobExecutor.shutdownNow();
+  }
+
+  @Override
+  protected void doGet(
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws ServletException, IOException {
+
+    UrlHelper urlHelper = urlHelper(request, response);
+    String pathInfo = request.getPathInfo();
+    if (pathInfo == null || pathInfo.equals("/")) {
+      urlHelper.writeResponse(USAGE);
+      return;
+    }
+
+    String[] parts = pathInfo.substring(1).split("/");
+    Job job = jobs.get(parts[0]);
+    if (job == null || parts.length > 2 ||
+        (parts.length == 2 && !parts[1].equals("result"))) {
+      response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+      String message = Metadata.errorMessage(
+          urlHelper.url,
+          new IllegalArgumentException("Unknown job [" + pathInfo + "]"),
+          false);
+      response.getWriter().print(message);
+      return;
+    }
+
+    if (parts.length == 1) {
+      GSON.toJson(new JobStatus(job, jobUrl(urlHelper, job)), response.getWriter());
+      return;
+    }
+
+    if (job.state != JobState.COMPLETE) {
+      response.setStatus(HttpServletResponse.SC_CONFLICT);
+      GSON.toJson(new JobStatus(job, jobUrl(urlHelper, job)), response.getWriter());
+      return;
+    }
+    writeResult(job, request, response);
+  }
+
+  @Override
+  protected void doPost(
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws ServletException, IOException {
+
+    UrlHelper urlHelper = urlHelper(request, response);
+
+    Job job;
+    try {
+      Map<String, String[]> paramMap = request.getParameterMap();
+      JobType type = parseValue(
+          TYPE,
+          readValue(TYPE, paramMap).toUpperCase(Locale.US),
+          JobType.class);
+
+      /* Validate parameters up front so that bad requests fail fast. */
+      Map<String, String[]> params = ImmutableMap.copyOf(paramMap);
+      type.validate(params);
+      if (pendingCount() >= MAX_PENDING_JOBS) {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        String message = Metadata.errorMessage(
+            urlHelper.url,
+            new IllegalStateException("Job queue is full; maximum of " +
+                MAX_PENDING_JOBS + " pending jobs"),
+            false);
+        response.getWriter().print(message);
+        return;
+      }
+
+      String id = UUID.randomUUID().toString();
+      String contentType = request.getContentType();
+      job = new Job(id, type, params, contentType, Instant.now());
+      if (type == JobType.BATCH) {
+        /* Reject unsupported content types before copying input. */
+        HazardBatchService.isGeoJson(contentType);
+        checkArgument(
+            request.getContentLengthLong() <= MAX_INPUT_BYTES,
+            "Job input exceeds maximum of %s bytes",
+            MAX_INPUT_BYTES);
+        copyInput(request.getInputStream(), inputPath(id));
+      }
+      prune();
+      jobs.put(id, job);
+      persist(job);
+      submit(job);
+
+    } catch (Exception e) {
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      String message = Metadata.errorMessage(urlHelper.url, e, false);
+      response.getWriter().print(message);
+      getServletContext().log(urlHelper.url, e);
+      return;
+    }
+
+    String url = jobUrl(urlHelper, job);
+    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    response.setHeader("Location", url);
+    GSON.toJson(new JobStatus(job, url), response.getWriter());
+  }
+
+  /* Job status URL, derived from the request URL. */
+  private static String jobUrl(UrlHelper urlHelper, Job job) {
+    String url = urlHelper.url;
+    int query = url.indexOf('?');
+    url = (query < 0) ? url : url.substring(0, query);
+    int index = url.lastIndexOf("/jobs");
+    return url.substring(0, index) + "/jobs/" + job.id;
+  }
+
+  private void submit(Job job) {
+    jobExecutor.submit(() -> run(job));
+  }
+
+  private long pendingCount() {
+    return jobs.values().stream()
+        .filter(job -> !job.state.finished())
+        .count();
+  }
+
+  private void run(Job job) {
+    ServletContext context = getServletContext();
+    String url = "jobs/" + job.id;
+    Path result = resultPath(job.id);
+    Path tmp = tmpPath(result);
+    try {
+      job.start();
+      persist(job);
+      Writer fileWriter = Files.newBufferedWriter(tmp, UTF_8);
+      try (Writer writer = job.type.lineProgress
+          ? new CountingWriter(fileWriter, job.progress)
+          : fileWriter) {
+        job.type.writeResult(job, this, url, context, writer);
+      }
+      Files.move(tmp, result, REPLACE_EXISTING, ATOMIC_MOVE);
+      job.finish(JobState.COMPLETE, null);
+    } catch (Exception e) {
+      try {
+        Files.deleteIfExists(tmp);
+      } catch (IOException ioe) {
+        context.log(url, ioe);
+      }
+      if (jobExecutor.isShutdown()) {
+        /* Leave the job running on disk so that it is requeued. */
+        return;
+      }
+      context.log(url, e);
+      job.finish(JobState.FAILED, e.getMessage());
+    }
+    try {
+      persist(job);
+    } catch (IOException e) {
+      context.log(url, e);
+    }
+  }
+
+  private void writeResult(
+      Job job,
+      HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+
+    Path result = resultPath(job.id);
+    long size = Files.size(result);
+    response.setContentType(job.type.contentType(job));
+    response.setContentLengthLong(size);
+    if (size >= MIN_SENDFILE_BYTES &&
+        Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+      request.setAttribute(SENDFILE_FILENAME, result.toAbsolutePath().toString());
+      request.setAttribute(SENDFILE_START, 0L);
+      request.setAttribute(SENDFILE_END, size);
+      return;
+    }
+    Files.copy(result, response.getOutputStream());
+  }
+
+  /*
+   * Copy a request body to disk, enforcing a size limit. At most one byte more
+   * than the limit is read.
+   */
+  private static void copyInput(InputStream in, Path input) throws IOException {
+    Path tmp = tmpPath(input);
+    long size = Files.copy(ByteStreams.limit(in, MAX_INPUT_BYTES + 1), tmp, REPLACE_EXISTING);
+    if (size > MAX_INPUT_BYTES) {
+      Files.delete(tmp);
+      throw new IllegalArgumentException(
+          "Job input exceeds maximum of " + MAX_INPUT_BYTES + " bytes");
+    }
+    Files.move(tmp, input, REPLACE_EXISTING, ATOMIC_MOVE);
+  }
+
+  /* Atomically write a job descriptor. */
+  private void persist(Job job) throws IOException {
+    Path descriptor = descriptorPath(job.id);
+    Path tmp = tmpPath(descriptor);
+    synchronized (job) {
+      try (Writer writer = Files.newBufferedWriter(tmp, UTF_8)) {
+        GSON.toJson(new Descriptor(job), writer);
+      }
+      Files.move(tmp, descriptor, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+  }
+
+  private void loadJobs() throws IOException {
+    try (DirectoryStream<Path> paths = Files.newDirectoryStream(jobDir, "*" + DESCRIPTOR_EXT)) {
+      for (Path path : paths) {
+        try (Reader reader = Files.newBufferedReader(path, UTF_8)) {
+          Job job = GSON.fromJson(reader, Descriptor.class).toJob();
+          jobs.put(job.id, job);
+        } catch (RuntimeException e) {
+          getServletContext().log("Skipping unreadable job: " + path, e);
+        }
+      }
+    }
+  }
+
+  /*
+   * Delete finished jobs older than the retention age and the oldest finished
+   * jobs in excess of the retained job count.
+   */
+  private synchronized void prune() {
+    Instant cutoff = Instant.now().minus(MAX_RETENTION);
+    List<Job> finished = new ArrayList<>();
+    for (Job job : jobs.values()) {
+      if (job.state.finished()) {
+        finished.add(job);
+      }
+    }
+    finished.sort(Comparator.comparing((Job job) -> job.created).reversed());
+    for (int i = 0; i < finished.size(); i++) {
+      Job job = finished.get(i);
+      if (i >= MAX_RETAINED_JOBS || job.created.isBefore(cutoff)) {
+        delete(job);
+      }
+    }
+  }
+
+  private void delete(Job job) {
+    jobs.remove(job.id);
+    try {
+      Files.deleteIfExists(descriptorPath(job.id));
+      Files.deleteIfExists(inputPath(job.id));
+      Files.deleteIfExists(resultPath(job.id));
+    } catch (IOException e) {
+      getServletContext().log("Error deleting job: " + job.id, e);
+    }
+  }
+
+  private Path descriptorPath(String id) {
+    return jobDir.resolve(id + DESCRIPTOR_EXT);
+  }
+
+  private Path inputPath(String id) {
+    return jobDir.resolve(id + INPUT_EXT);
+  }
+
+  private Path resultPath(String id) {
+    return jobDir.resolve(id + RESULT_EXT);
+  }
+
+  private static Path tmpPath(Path path) {
+    return path.resolveSibling(path.getFileName() + TMP_EXT);
+  }
+
+  enum JobType {
+
+    HAZARD(JSON_CONTENT_TYPE, false) {
+      @Override
+      void validate(Map<String, String[]> params) {
+        HazardService2.buildRequests(params);
+      }
+
+      @Override
+      void writeResult(
+          Job job,
+          JobService service,
+          String url,
+          ServletContext context,
+          Writer writer) throws Exception {
+        HazardService2.writeResult(job.params, url, context, writer);
+      }
+    },
+
+    DEAGG(JSON_CONTENT_TYPE, false) {
+      @Override
+      void validate(Map<String, String[]> params) {
+        DeaggService.buildRequest(params);
+        DeaggService.readCompact(params);
+      }
+
+      @Override
+      void writeResult(
+          Job job,
+          JobService service,
+          String url,
+          ServletContext context,
+          Writer writer) throws Exception {
+        DeaggService.writeResult(job.params, url, context, writer);
+      }
+    },
+
+    MAP(HazardMapService.CSV_CONTENT_TYPE, true) {
+      @Override
+      void validate(Map<String, String[]> params) {
+        HazardMapService.MapRequest.fromParameters(params);
+      }
+
+      @Override
+      String contentType(Job job) {
+        return HazardMapService.MapRequest.fromParameters(job.params).format.contentType;
+      }
+
+      @Override
+      void writeResult(
+          Job job,
+          JobService service,
+          String url,
+          ServletContext context,
+          Writer writer) throws Exception {
+        HazardMapService.process(
+            HazardMapService.MapRequest.fromParameters(job.params),
+            writer,
+            context);
+      }
+    },
+
+    BATCH(HazardBatchService.NDJSON_CONTENT_TYPE, true) {
+      @Override
+      void validate(Map<String, String[]> params) {
+        BatchRequest.fromParameters(params);
+      }
+
+      @Override
+      void writeResult(
+          Job job,
+          JobService service,
+          String url,
+          ServletContext context,
+          Writer writer) throws Exception {
+        boolean geoJson = HazardBatchService.isGeoJson(job.contentType);
+        try (BufferedReader reader = Files.newBufferedReader(
+            service.inputPath(job.id), UTF_8)) {
+          HazardBatchService.process(
+              BatchRequest.fromParameters(job.params),
+              HazardBatchService.readSites(reader, geoJson),
+              writer,
+              url,
+              context);
+        }
+      }
+    };
+
+    final String contentType;
+
+    /* Whether results are written one line per site or grid node. */
+    final boolean lineProgress;
+
+    private JobType(String contentType, boolean lineProgress) {
+      this.contentType = contentType;
+      this.lineProgress = lineProgress;
+    }
+
+    abstract void validate(Map<String, String[]> params);
+
+    String contentType(Job job) {
+      return contentType;
+    }
+
+    abstract void writeResult(
+        Job job,
+        JobService service,
+        String url,
+        ServletContext context,
+        Writer writer) throws Exception;
+
+    @Override
+    public String toString() {
+      return name().toLowerCase();
+    }
+  }
+
+  enum JobState {
+    QUEUED,
+    RUNNING,
+    COMPLETE,
+    FAILED;
+
+    boolean finished() {
+      return this == COMPLETE || this == FAILED;
+    }
+
+    @Override
+    public String toString() {
+      return name().toLowerCase();
+    }
+  }
+
+  /*
+   * Mutable job state. Progress is the number of result lines written, which
+   * for map and batch jobs is the number of grid nodes or sites processed; it
+   * is not tracked for other job types.
+   */
+  private static final class Job {
+
+    final String id;
+    final JobType type;
+    final Map<String, String[]> params;
+    final String contentType;
+    final Instant created;
+    final AtomicInteger progress = new AtomicInteger();
+
+    volatile JobState state = JobState.QUEUED;
+    volatile Instant started;
+    volatile Instant finished;
+    volatile String message;
+
+    Job(
+        String id,
+        JobType type,
+        Map<String, String[]> params,
+        String contentType,
+        Instant created) {
+
+      this.id = id;
+      this.type = type;
+      this.params = params;
+      this.contentType = contentType;
+      this.created = created;
+    }
+
+    synchronized void start() {
+      state = JobState.RUNNING;
+      started = Instant.now();
+      finished = null;
+      message = null;
+      progress.set(0);
+    }
+
+    synchronized void finish(JobState state, String message) {
+      this.state = state;
+      this.finished = Instant.now();
+      this.message = message;
+    }
+  }
+
+  /* Persisted job representation; times are epoch milliseconds. */
+  private static final class Descriptor {
+
+    String id;
+    JobType type;
+    Map<String, String[]> params;
+    String contentType;
+    long created;
+    Long started;
+    Long finished;
+    JobState state;
+    String message;
+    int progress;
+
+    Descriptor(Job job) {
+      this.id = job.id;
+      this.type = job.type;
+      this.params = job.params;
+      this.contentType = job.contentType;
+      this.created = job.created.toEpochMilli();
+      this.started = (job.started == null) ? null : job.started.toEpochMilli();
+      this.finished = (job.finished == null) ? null : job.finished.toEpochMilli();
+      this.state = job.state;
+      this.message = job.message;
+      this.progress = job.progress.get();
+    }
+
+    Job toJob() {
+      checkArgument(id != null && type != null && params != null && state != null,
+          "Incomplete job descriptor");
+      Job job = new Job(id, type, ImmutableMap.copyOf(params), contentType,
+          Instant.ofEpochMilli(created));
+      job.state = state;
+      job.started = (started == null) ? null : Instant.ofEpochMilli(started);
+      job.finished = (finished == null) ? null : Instant.ofEpochMilli(finished);
+      job.message = message;
+      job.progress.set(progress);
+      return job;
+    }
+  }
+
+  private static final class JobStatus {
+
+    final String status;
+    final String id;
+    final String type;
+    final String state;
+    final String created;
+    final String started;
+    final String finished;
+    final Integer progress;
+    final String message;
+    final String url;
+    final String result;
+
+    JobStatus(Job job, String url) {
+      synchronized (job) {
+        this.status = (job.state == JobState.FAILED)
+            ? Status.ERROR.toString()
+            : (job.state == JobState.COMPLETE)
+                ? Status.SUCCESS.toString()
+                : Status.BUSY.toString();
+        this.id = job.id;
+        this.type = job.type.toString();
+        this.state = job.state.toString();
+        this.created = format(job.created);
+        this.started = format(job.started);
+        this.finished = format(job.finished);
+        this.progress = job.type.lineProgress ? job.progress.get() : null;
+        this.message = job.message;
+        this.url = url;
+        this.result = (job.state == JobState.COMPLETE) ? url + "/result" : null;
+      }
+    }
+
+    private static String format(Instant instant) {
+      return Optional.ofNullable(instant)
+          .map(i -> i.atZone(ZoneId.systemDefault()).format(ServletUtil.DATE_FMT))
+          .orElse(null);
+    }
+  }
+
+  /* Counts newlines written as a measure of job progress. */
+  private static final class CountingWriter extends FilterWriter {
+
+    private final AtomicInteger count;
+
+    CountingWriter(Writer writer, AtomicInteger count) {
+      super(writer);
+      this.count = count;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      super.write(c);
+      if (c == '\n') {
+        count.incrementAndGet();
+      }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      super.write(cbuf, off, len);
+      countLines(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      super.write(str, off, len);
+      for (int i = off; i < off + len; i++) {
+        if (str.charAt(i) == '\n') {
+          count.incrementAndGet();
+        }
+      }
+    }
+
+    private void countLines(char[] cbuf, int off, int len) {
+      for (int i = off; i < off + len; i++) {
+        if (cbuf[i] == '\n') {
+          count.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unused")
+  private static final class Usage {
+
+    final String status = Status.USAGE.toString();
+    final String description = "Submit hazard, deagg, map, and batch jobs and retrieve results";
+    final List<String> syntax = ImmutableList.of(
+        "POST %s://%s/nshmp-haz-ws/jobs?type={hazard|deagg|map|batch}&...",
+        "GET %s://%s/nshmp-haz-ws/jobs/{id}[/result]");
+    final String parameters = "Job parameters are those of the /haz (type=hazard), " +
+        "/deagg (type=deagg), /hazard-map (type=map), and /hazard-batch (type=batch) " +
+        "services; batch sites are supplied in the request body as CSV or GeoJSON.";
+  }
+
+}
@@ -57,6 +57,7 @@ public abstract class NshmpServlet extends HttpServlet {
 
   public static class UrlHelper {
 
+    private final HttpServletRequest request;
     private final HttpServletResponse response;
     private final String host;
     private final String protocol;
@@ -85,6 +86,7 @@ public abstract class NshmpServlet extends HttpServlet {
       if (query != null) urlBuf.append('?').append(query);
       String url = urlBuf.toString().replace("http://", protocol + "://");
 
+      this.request = request;
       this.response = response;
       this.host = host;
       this.protocol = protocol;
@@ -101,6 +103,22 @@ public abstract class NshmpServlet extends HttpServlet {
       // TODO had to add duplicate fields to handle haz and g syntax strings
       response.getWriter().printf(usage, protocol, host, protocol, host);
     }
+
+    /**
+     * Write a precomputed usage document for the request protocol and host. A
+     * strong ETag is always set and requests with a matching
+     * {@code If-None-Match} header receive a 304 with no body.
+     */
+    public void writeResponse(UsageDocument usage) throws IOException {
+      UsageDocument.Encoded encoded = usage.encoded(protocol, host);
+      response.setHeader("ETag", encoded.etag);
+      if (encoded.matches(request.getHeader("If-None-Match"))) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+      response.setContentLength(encoded.bytes.length);
+      response.getOutputStream().write(encoded.bytes);
+    }
   }
 
 }
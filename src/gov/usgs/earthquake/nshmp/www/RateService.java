@@ -6,6 +6,8 @@ import static gov.usgs.earthquake.nshmp.calc.ValueFormat.POISSON_PROBABILITY;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.MODEL_CACHE_CONTEXT_ID;
 import static gov.usgs.earthquake.nshmp.www.ServletUtil.emptyRequest;
+import static gov.usgs.earthquake.nshmp.www.Util.parseDouble;
+import static gov.usgs.earthquake.nshmp.www.Util.parseValue;
 import static gov.usgs.earthquake.nshmp.www.Util.readDouble;
 import static gov.usgs.earthquake.nshmp.www.Util.readValue;
 import static gov.usgs.earthquake.nshmp.www.Util.Key.DISTANCE;
@@ -20,7 +22,9 @@ import static gov.usgs.earthquake.nshmp.www.meta.Region.WUS;
 import java.io.IOException;
 import java.time.ZonedDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -77,6 +81,10 @@ public final class RateService extends NshmpServlet {
    * WUS models.
    */
 
+  private static final UsageDocument RATE_USAGE = UsageDocument.of(Metadata.RATE_USAGE);
+  private static final UsageDocument PROBABILITY_USAGE =
+      UsageDocument.of(Metadata.PROBABILITY_USAGE);
+
   @Override
   protected void doGet(
       HttpServletRequest request,
@@ -91,7 +99,7 @@ public final class RateService extends NshmpServlet {
     String service = request.getServletPath();
 
     ValueFormat format = service.equals("/rate") ? ANNUAL_RATE : POISSON_PROBABILITY;
-    String usage = (format == ANNUAL_RATE) ? Metadata.RATE_USAGE : Metadata.PROBABILITY_USAGE;
+    UsageDocument usage = (format == ANNUAL_RATE) ? RATE_USAGE : PROBABILITY_USAGE;
     int paramCount = (format == ANNUAL_RATE) ? 5 : 6;
 
     if (emptyRequest(request)) {
@@ -103,7 +111,7 @@ public final class RateService extends NshmpServlet {
     try {
       if (query != null) {
         /* process query '?' request */
-        requestData = buildRequest(request, format);
+        requestData = buildRequest(request.getParameterMap(), format);
       } else {
         /* process slash-delimited request */
         List<String> params = Parsing.splitToList(pathInfo, Delimiter.SLASH);
@@ -132,32 +140,32 @@ public final class RateService extends NshmpServlet {
   }
 
   /* Reduce query string key-value pairs */
-  private RequestData buildRequest(HttpServletRequest request, ValueFormat format) {
+  static RequestData buildRequest(Map<String, String[]> paramMap, ValueFormat format) {
 
     Optional<Double> timespan = (format == POISSON_PROBABILITY)
-        ? Optional.of(readDouble(TIMESPAN, request)) : Optional.<Double> empty();
+        ? Optional.of(readDouble(TIMESPAN, paramMap)) : Optional.<Double> empty();
 
     return new RequestData(
-        readValue(EDITION, request, Edition.class),
-        readValue(REGION, request, Region.class),
-        readDouble(LONGITUDE, request),
-        readDouble(LATITUDE, request),
-        readDouble(DISTANCE, request),
+        readValue(EDITION, paramMap, Edition.class),
+        readValue(REGION, paramMap, Region.class),
+        readDouble(LONGITUDE, paramMap),
+        readDouble(LATITUDE, paramMap),
+        readDouble(DISTANCE, paramMap),
         timespan);
   }
 
   /* Reduce slash-delimited request */
-  private RequestData buildRequest(List<String> params, ValueFormat format) {
+  static RequestData buildRequest(List<String> params, ValueFormat format) {
 
     Optional<Double> timespan = (format == POISSON_PROBABILITY)
-        ? Optional.of(Double.valueOf(params.get(5))) : Optional.<Double> empty();
+        ? Optional.of(parseDouble(TIMESPAN, params.get(5))) : Optional.<Double> empty();
 
     return new RequestData(
-        Enum.valueOf(Edition.class, params.get(0)),
-        Enum.valueOf(Region.class, params.get(1)),
-        Double.valueOf(params.get(2)),
-        Double.valueOf(params.get(3)),
-        Double.valueOf(params.get(4)),
+        parseValue(EDITION, params.get(0), Edition.class),
+        parseValue(REGION, params.get(1), Region.class),
+        parseDouble(LONGITUDE, params.get(2)),
+        parseDouble(LATITUDE, params.get(3)),
+        parseDouble(DISTANCE, params.get(4)),
         timespan);
   }
 
@@ -265,6 +273,10 @@ public final class RateService extends NshmpServlet {
     return ServletUtil.CALC_EXECUTOR.submit(task);
   }
 
+  /*
+   * Request data is immutable and hashable and may be used as a canonical
+   * request key by caches.
+   */
   static final class RequestData {
 
     final Edition edition;
@@ -289,6 +301,28 @@ public final class RateService extends NshmpServlet {
       this.distance = distance;
       this.timespan = timespan;
     }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof RequestData)) {
+        return false;
+      }
+      RequestData that = (RequestData) obj;
+      return edition == that.edition &&
+          region == that.region &&
+          Double.compare(latitude, that.latitude) == 0 &&
+          Double.compare(longitude, that.longitude) == 0 &&
+          Double.compare(distance, that.distance) == 0 &&
+          timespan.equals(that.timespan);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(edition, region, latitude, longitude, distance, timespan);
+    }
   }
 
   private static final class ResponseData {
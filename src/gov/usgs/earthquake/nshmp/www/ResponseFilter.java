@@ -0,0 +1,127 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.COMPONENTS;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.FIELDS;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Enums;
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+
+import gov.usgs.earthquake.nshmp.eq.model.SourceType;
+import gov.usgs.earthquake.nshmp.internal.Parsing;
+import gov.usgs.earthquake.nshmp.internal.Parsing.Delimiter;
+
+/**
+ * Hazard curve response selection.
+ *
+ * <p>By default the hazard services return the total curve and every source
+ * type component curve, with full metadata, for each IMT. Query requests may
+ * limit the components returned with {@code components=none|all|<types>}
+ * (where types is a comma-delimited list of {@link SourceType}s) and the
+ * metadata fields with {@code fields=<fields>} (a comma-delimited list of
+ * {@link Field}s). Work associated with unrequested data, such as component
+ * curve aggregation, is skipped when building results.
+ *
+ * @author Peter Powers
+ */
+final class ResponseFilter {
+
+  private static final String NONE = "none";
+  private static final String ALL_VALUES = "all";
+
+  /** Default filter; returns all components and fields. */
+  static final ResponseFilter ALL = new ResponseFilter(
+      EnumSet.allOf(SourceType.class),
+      EnumSet.allOf(Field.class));
+
+  final Set<SourceType> components;
+  final Set<Field> fields;
+
+  private ResponseFilter(Set<SourceType> components, Set<Field> fields) {
+    this.components = Sets.immutableEnumSet(components);
+    this.fields = Sets.immutableEnumSet(fields);
+  }
+
+  /** Optional response metadata fields; the IMT is always returned. */
+  enum Field {
+    /** Model identifiers (edition and region, or model). */
+    MODEL,
+    /** Site location and vs30. */
+    SITE,
+    /** Axis labels. */
+    LABELS,
+    /** Curve x-values. */
+    XVALUES;
+
+    private final String label = name().toLowerCase();
+
+    @Override
+    public String toString() {
+      return label;
+    }
+  }
+
+  /* Whether any component curves have been requested. */
+  boolean hasComponents() {
+    return !components.isEmpty();
+  }
+
+  /* Whether a field has been requested. */
+  boolean has(Field field) {
+    return fields.contains(field);
+  }
+
+  /* Whether all metadata fields have been requested. */
+  boolean allFields() {
+    return fields.size() == Field.values().length;
+  }
+
+  /**
+   * Create a filter from a servlet request parameter map. Returns
+   * {@link #ALL} if neither {@code components} nor {@code fields} is present.
+   *
+   * @param params request parameter map
+   */
+  static ResponseFilter fromParameters(Map<String, String[]> params) {
+    String[] components = params.get(COMPONENTS.toString());
+    String[] fields = params.get(FIELDS.toString());
+    if (components == null && fields == null) {
+      return ALL;
+    }
+    return new ResponseFilter(
+        (components == null) ? ALL.components : readComponents(components[0]),
+        (fields == null) ? ALL.fields : readFields(fields[0]));
+  }
+
+  private static Set<SourceType> readComponents(String value) {
+    if (value.equalsIgnoreCase(NONE)) {
+      return EnumSet.noneOf(SourceType.class);
+    }
+    if (value.equalsIgnoreCase(ALL_VALUES)) {
+      return EnumSet.allOf(SourceType.class);
+    }
+    Set<SourceType> types = EnumSet.noneOf(SourceType.class);
+    for (String name : Parsing.splitToList(value, Delimiter.COMMA)) {
+      Optional<SourceType> type = Enums.getIfPresent(SourceType.class, name.toUpperCase());
+      checkArgument(type.isPresent(), "Invalid value [%s] for key [%s]", name, COMPONENTS);
+      types.add(type.get());
+    }
+    return types;
+  }
+
+  private static Set<Field> readFields(String value) {
+    Set<Field> fields = EnumSet.noneOf(Field.class);
+    for (String name : Parsing.splitToList(value, Delimiter.COMMA)) {
+      Optional<Field> field = Enums.getIfPresent(Field.class, name.toUpperCase());
+      checkArgument(field.isPresent(), "Invalid value [%s] for key [%s]", name, FIELDS);
+      fields.add(field.get());
+    }
+    return fields;
+  }
+
+}
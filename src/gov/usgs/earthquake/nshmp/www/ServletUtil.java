@@ -67,10 +67,32 @@ public class ServletUtil implements ServletContextListener {
   static final ListeningExecutorService CALC_EXECUTOR;
   static final ExecutorService TASK_EXECUTOR;
 
+  /*
+   * Coordinating tasks (e.g. per-site or per-model calculations) that in turn
+   * submit work to CALC_EXECUTOR and block on the results must not run on
+   * CALC_EXECUTOR itself. Callers are responsible for bounding the number of
+   * tasks they submit.
+   */
+  static final ListeningExecutorService DRIVER_EXECUTOR;
+
+  /*
+   * Ground motion model evaluations (POST lines and per-GMM evaluations of
+   * GET requests) are short and CPU bound and are run on a dedicated pool so
+   * they neither queue behind hazard calculations nor use the common
+   * fork-join pool. Tasks on this pool must not block on it.
+   */
+  static final ListeningExecutorService GMM_EXECUTOR;
+
   static final int THREAD_COUNT;
 
   public static final Gson GSON;
 
+  /* As GSON, but omits null fields; used for filtered responses. */
+  static final Gson GSON_OMIT_NULLS;
+
+  /* As GSON, but without pretty printing; used for line-delimited output. */
+  static final Gson GSON_COMPACT;
+
   static final String MODEL_CACHE_CONTEXT_ID = "model.cache";
 
   static Model[] INSTALLED_MODELS;
@@ -83,7 +105,9 @@ public class ServletUtil implements ServletContextListener {
     THREAD_COUNT = getRuntime().availableProcessors();
     CALC_EXECUTOR = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(THREAD_COUNT));
     TASK_EXECUTOR = Executors.newSingleThreadExecutor();
-    GSON = new GsonBuilder()
+    DRIVER_EXECUTOR = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+    GMM_EXECUTOR = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(THREAD_COUNT));
+    GsonBuilder gsonBuilder = new GsonBuilder()
         .registerTypeAdapter(Edition.class, new Util.EnumSerializer<Edition>())
         .registerTypeAdapter(Region.class, new Util.EnumSerializer<Region>())
         .registerTypeAdapter(Imt.class, new Util.EnumSerializer<Imt>())
@@ -92,16 +116,20 @@ public class ServletUtil implements ServletContextListener {
         .registerTypeAdapter(Double.class, new Util.DoubleSerializer())
         .registerTypeAdapter(ParamType.class, new Util.ParamTypeSerializer())
         .registerTypeAdapter(Site.class, new Util.SiteSerializer())
-        .disableHtmlEscaping()
-        .serializeNulls()
-        .setPrettyPrinting()
-        .create();
+        .registerTypeAdapter(SparseDeagg.class, SparseDeagg.SERIALIZER)
+        .disableHtmlEscaping();
+    GSON_COMPACT = gsonBuilder.create();
+    gsonBuilder.setPrettyPrinting();
+    GSON_OMIT_NULLS = gsonBuilder.create();
+    GSON = gsonBuilder.serializeNulls().create();
   }
 
   @Override
   public void contextDestroyed(ServletContextEvent e) {
     CALC_EXECUTOR.shutdown();
     TASK_EXECUTOR.shutdown();
+    DRIVER_EXECUTOR.shutdown();
+    GMM_EXECUTOR.shutdown();
   }
 
   @Override
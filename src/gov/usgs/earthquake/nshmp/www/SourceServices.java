@@ -8,6 +8,7 @@ import java.lang.reflect.Type;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -17,6 +18,7 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.base.Suppliers;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
@@ -63,22 +65,34 @@ public class SourceServices extends NshmpServlet {
         .create();
   }
 
+  /*
+   * Source model parameters are shared by the model based services and are
+   * only dependent on the installed models; they are built on first use, after
+   * the servlet context has been initialized.
+   */
+  private static final Supplier<Parameters> PARAMETERS = Suppliers.memoize(Parameters::new);
+
   @Override
   protected void doGet(
       HttpServletRequest request,
       HttpServletResponse response)
       throws ServletException, IOException {
 
-    ResponseData svcResponse = null;
     try {
-      svcResponse = new ResponseData();
-      String jsonString = GSON.toJson(svcResponse);
-      response.getWriter().print(jsonString);
+      response.getWriter().print(usage());
     } catch (Exception e) {
       e.printStackTrace();
     }
   }
 
+  /*
+   * Source model usage with current server data. Syntax strings are not
+   * formatted with the request protocol and host.
+   */
+  static String usage() {
+    return GSON.toJson(new ResponseData());
+  }
+
   /*
    * TODO service metadata should be in same package as services (why
    * ResponseData is currently public); rename meta package to
@@ -100,7 +114,7 @@ public class SourceServices extends NshmpServlet {
       this.deaggSyntax = "%s://%s/nshmp-haz-ws/deagg2/{model}/{longitude}/{latitude}/{imt}/{vs30}/{returnPeriod}/{basin}";
       this.status = Status.USAGE.toString();
       this.server = serverData(ServletUtil.THREAD_COUNT, ServletUtil.timer());
-      this.parameters = new Parameters();
+      this.parameters = PARAMETERS.get();
     }
   }
 
@@ -0,0 +1,328 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import com.google.common.base.Suppliers;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Sparse deaggregation encoding.
+ *
+ * <p>Deaggregation results are exported by nshmp-haz as a list of distance
+ * and magnitude bins, each carrying an array of epsilon bin objects, most of
+ * which are empty or zero. The sparse encoding replaces the {@code data} array
+ * of each deaggregation component with four parallel arrays, {@code r},
+ * {@code m}, {@code εbin}, and {@code value}, containing one entry per
+ * non-zero (r, m, ε) bin. All other component members (summary, sources, etc.)
+ * are left unchanged, as is any structure that does not contain binned data.
+ *
+ * <p>Sparse exports are serialized by {@link #SERIALIZER}, which must be
+ * registered for {@code SparseDeagg} with the {@code Gson} instance used to
+ * serialize a response. Bin fields are read once per bin into primitive
+ * arrays; the dense bin structure is never built. An empty bin list is written
+ * as an empty array.
+ *
+ * <p>nshmp-haz does not expose deaggregation bins other than through its
+ * export objects, so bins are identified by the names and types of export
+ * fields. A bin class that does not have the expected fields, or an export in
+ * which no bins are found, is an {@code IllegalStateException} rather than a
+ * silent fallback to the dense encoding.
+ *
+ * @author Peter Powers
+ */
+final class SparseDeagg {
+
+  private static final String R = "r";
+  private static final String M = "m";
+  private static final String ε_DATA = "εdata";
+  private static final String ε_BIN = "εbin";
+  private static final String VALUE = "value";
+
+  private final Object export;
+
+  private SparseDeagg(Object export) {
+    this.export = export;
+  }
+
+  /**
+   * Wrap a deaggregation export object (e.g. the result of
+   * {@code Deaggregation.toJson(Imt)}) for sparse serialization.
+   *
+   * @param deagg export object
+   */
+  static SparseDeagg encode(Object deagg) {
+    return new SparseDeagg(deagg);
+  }
+
+  /**
+   * Serializes {@code SparseDeagg} instances using the value formatting of
+   * {@link ServletUtil#GSON}. Null handling and pretty printing are those of
+   * the {@code Gson} instance the serializer is registered with.
+   */
+  static final JsonSerializer<SparseDeagg> SERIALIZER = new Serializer(() -> ServletUtil.GSON);
+
+  static final class Serializer implements JsonSerializer<SparseDeagg> {
+
+    final Supplier<Gson> sparseGson;
+    final BinsFactory bins = new BinsFactory();
+
+    Serializer(Supplier<Gson> gson) {
+      this.sparseGson = Suppliers.memoize(() -> gson.get().newBuilder()
+          .registerTypeAdapterFactory(bins)
+          .create());
+    }
+
+    @Override
+    public JsonElement serialize(
+        SparseDeagg deagg,
+        Type type,
+        JsonSerializationContext context) {
+
+      JsonElement json = sparseGson.get().toJsonTree(deagg.export);
+      if (!bins.recognized) {
+        throw new IllegalStateException(
+            "No deaggregation bins found in " + deagg.export.getClass().getName());
+      }
+      return json;
+    }
+  }
+
+  /*
+   * Collections are only identifiable as binned data by their elements, so
+   * every collection written by a sparse Gson is checked, via a per-class
+   * cache, before falling back to the default collection adapter. Bin lists
+   * are recognized by declared element type, when available, so that empty
+   * bin lists are recognized as well.
+   */
+  private static final class BinsFactory implements TypeAdapterFactory {
+
+    final Map<Class<?>, Optional<BinLayout>> layouts = new ConcurrentHashMap<>();
+    volatile boolean recognized;
+
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+      if (!Collection.class.isAssignableFrom(type.getRawType())) {
+        return null;
+      }
+      TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+      Type collectionType = type.getType();
+      if (collectionType instanceof ParameterizedType) {
+        Type element = ((ParameterizedType) collectionType).getActualTypeArguments()[0];
+        if (element instanceof Class && layout((Class<?>) element, gson) != null) {
+          recognized = true;
+        }
+      }
+      return new TypeAdapter<T>() {
+
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+          Collection<?> bins = (Collection<?>) value;
+          BinLayout layout = (bins == null) ? null : layout(bins, gson);
+          if (layout == null) {
+            delegate.write(out, value);
+            return;
+          }
+          layout.write(out, bins);
+        }
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+          return delegate.read(in);
+        }
+      };
+    }
+
+    private BinLayout layout(Collection<?> bins, Gson gson) {
+      if (bins.isEmpty()) {
+        return null;
+      }
+      Class<?> binClass = bins.iterator().next().getClass();
+      BinLayout layout = layout(binClass, gson);
+      if (layout == null) {
+        return null;
+      }
+      for (Object bin : bins) {
+        if (bin == null || bin.getClass() != binClass) {
+          return null;
+        }
+      }
+      recognized = true;
+      return layout;
+    }
+
+    private BinLayout layout(Class<?> binClass, Gson gson) {
+      return layouts
+          .computeIfAbsent(binClass, c -> Optional.ofNullable(BinLayout.create(c, gson)))
+          .orElse(null);
+    }
+  }
+
+  /*
+   * Field access for an (r, m, εdata) bin class and its ε bin element class.
+   * Only primitive double and int fields are supported. A class without an
+   * εdata field is not a bin and is left to default serialization; a class
+   * with one but without the expected fields and types is an error.
+   */
+  private static final class BinLayout {
+
+    final Column r;
+    final Column m;
+    final Field εData;
+    final Column εBin;
+    final Column value;
+
+    private BinLayout(Column r, Column m, Field εData, Column εBin, Column value) {
+      this.r = r;
+      this.m = m;
+      this.εData = εData;
+      this.εBin = εBin;
+      this.value = value;
+    }
+
+    static BinLayout create(Class<?> binClass, Gson gson) {
+      Field εData = field(binClass, ε_DATA);
+      if (εData == null) {
+        return null;
+      }
+      Column r = Column.of(field(binClass, R), gson);
+      Column m = Column.of(field(binClass, M), gson);
+      Type εType = εData.getGenericType();
+      Type εElement = (εType instanceof ParameterizedType)
+          ? ((ParameterizedType) εType).getActualTypeArguments()[0]
+          : null;
+      checkLayout(
+          r != null && m != null && εElement instanceof Class &&
+              Collection.class.isAssignableFrom(εData.getType()),
+          binClass);
+      Column εBin = Column.of(field((Class<?>) εElement, ε_BIN), gson);
+      Column value = Column.of(field((Class<?>) εElement, VALUE), gson);
+      checkLayout(εBin != null && value != null, (Class<?>) εElement);
+      return new BinLayout(r, m, εData, εBin, value);
+    }
+
+    private static void checkLayout(boolean expression, Class<?> type) {
+      if (!expression) {
+        throw new IllegalStateException("Unrecognized deaggregation bin layout: " + type.getName());
+      }
+    }
+
+    void write(JsonWriter out, Collection<?> bins) throws IOException {
+      int size = 0;
+      double[] rs = new double[bins.size()];
+      double[] ms = new double[rs.length];
+      double[] εBins = new double[rs.length];
+      double[] values = new double[rs.length];
+
+      try {
+        for (Object bin : bins) {
+          double binR = r.get(bin);
+          double binM = m.get(bin);
+          Collection<?> εData = (Collection<?>) this.εData.get(bin);
+          if (εData == null) {
+            continue;
+          }
+          for (Object εDatum : εData) {
+            double εValue = value.get(εDatum);
+            if (εValue == 0.0) {
+              continue;
+            }
+            if (size == rs.length) {
+              int capacity = Math.max(16, size * 2);
+              rs = Arrays.copyOf(rs, capacity);
+              ms = Arrays.copyOf(ms, capacity);
+              εBins = Arrays.copyOf(εBins, capacity);
+              values = Arrays.copyOf(values, capacity);
+            }
+            rs[size] = binR;
+            ms[size] = binM;
+            εBins[size] = εBin.get(εDatum);
+            values[size] = εValue;
+            size++;
+          }
+        }
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+
+      out.beginObject();
+      r.write(out.name(R), rs, size);
+      m.write(out.name(M), ms, size);
+      εBin.write(out.name(ε_BIN), εBins, size);
+      value.write(out.name(VALUE), values, size);
+      out.endObject();
+    }
+
+    private static Field field(Class<?> type, String name) {
+      try {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+      } catch (NoSuchFieldException | RuntimeException e) {
+        return null;
+      }
+    }
+  }
+
+  /*
+   * A primitive double or int field. Gson writes primitive fields with the
+   * adapter for their boxed runtime type, so values are written with the same
+   * adapter to match default value formatting.
+   */
+  private static final class Column {
+
+    final Field field;
+    final boolean integral;
+    final TypeAdapter<Number> adapter;
+
+    @SuppressWarnings("unchecked")
+    private Column(Field field, boolean integral, Gson gson) {
+      this.field = field;
+      this.integral = integral;
+      Class<?> boxed = integral ? Integer.class : Double.class;
+      this.adapter = (TypeAdapter<Number>) gson.getAdapter(boxed);
+    }
+
+    static Column of(Field field, Gson gson) {
+      if (field == null) {
+        return null;
+      }
+      if (field.getType() == double.class) {
+        return new Column(field, false, gson);
+      }
+      if (field.getType() == int.class) {
+        return new Column(field, true, gson);
+      }
+      return null;
+    }
+
+    double get(Object instance) throws IllegalAccessException {
+      return field.getDouble(instance);
+    }
+
+    void write(JsonWriter out, double[] values, int size) throws IOException {
+      out.beginArray();
+      for (int i = 0; i < size; i++) {
+        adapter.write(out, integral ? (Number) (int) values[i] : (Number) values[i]);
+      }
+      out.endArray();
+    }
+  }
+
+}
@@ -0,0 +1,278 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static gov.usgs.earthquake.nshmp.www.ServletUtil.GSON;
+import static gov.usgs.earthquake.nshmp.www.ServletUtil.emptyRequest;
+import static gov.usgs.earthquake.nshmp.www.Util.parseDouble;
+import static gov.usgs.earthquake.nshmp.www.Util.parseDoubles;
+import static gov.usgs.earthquake.nshmp.www.Util.parseValueList;
+import static gov.usgs.earthquake.nshmp.www.Util.readDoubles;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.LATITUDE;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.LONGITUDE;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.MODEL;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.RETURNPERIOD;
+import static gov.usgs.earthquake.nshmp.www.Util.Key.VS30;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Doubles;
+
+import gov.usgs.earthquake.nshmp.calc.Vs30;
+import gov.usgs.earthquake.nshmp.gmm.Imt;
+import gov.usgs.earthquake.nshmp.internal.Parsing;
+import gov.usgs.earthquake.nshmp.internal.Parsing.Delimiter;
+import gov.usgs.earthquake.nshmp.www.HazardService2.HazardCurves;
+import gov.usgs.earthquake.nshmp.www.ServletUtil.TimedTask;
+import gov.usgs.earthquake.nshmp.www.meta.Metadata;
+import gov.usgs.earthquake.nshmp.www.meta.Status;
+
+/**
+ * Uniform hazard spectrum service.
+ *
+ * <p>Returns, for each requested return period, the ground motion at each
+ * spectral period supported by the requested model(s). Only the spectra are
+ * returned; full hazard curves are available from the hazard service.
+ *
+ * @author Peter Powers
+ */
+@SuppressWarnings("unused")
+@WebServlet(
+    name = "Uniform Hazard Spectrum Service",
+    description = "USGS NSHMP Uniform Hazard Spectrum Calculator",
+    urlPatterns = {
+        "/uhs",
+        "/uhs/*" })
+public final class UhsService extends NshmpServlet {
+
+  /*
+   * Developer notes:
+   *
+   * Curves are obtained from the HazardService2 cache, computing them if absent,
+   * so that a UHS request following a hazard request for the same site does
+   * not repeat the calculation. As with other hazard services, requests are
+   * run on TASK_EXECUTOR. Each IMT curve is sliced with CurveSlicer at the
+   * annual rates corresponding to the requested return periods, extrapolating
+   * beyond the range of a curve as the map services do; PGA is reported at a
+   * period of 0 s.
+   */
+
+  private static final String X_LABEL = "Spectral Period (s)";
+  private static final String Y_LABEL = "Ground Motion (g)";
+
+  private static final UsageDocument USAGE = UsageDocument.of(() -> GSON.toJson(new Usage()));
+
+  @Override
+  protected void doGet(
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws ServletException, IOException {
+
+    UrlHelper urlHelper = urlHelper(request, response);
+
+    if (emptyRequest(request)) {
+      urlHelper.writeResponse(USAGE);
+      return;
+    }
+
+    try {
+      RequestData requestData = buildRequestData(request);
+
+      /* Submit as task to job executor */
+      UhsTask task = new UhsTask(urlHelper.url, getServletContext(), requestData);
+      Result result = ServletUtil.TASK_EXECUTOR.submit(task).get();
+      GSON.toJson(result, response.getWriter());
+
+    } catch (Exception e) {
+      String message = Metadata.errorMessage(urlHelper.url, e, false);
+      response.getWriter().print(message);
+      getServletContext().log(urlHelper.url, e);
+    }
+  }
+
+  /* Reduce query string key-value pairs. */
+  static RequestData buildRequestData(HttpServletRequest request) {
+
+    try {
+
+      if (request.getQueryString() != null) {
+        /* process query '?' request */
+        return buildRequestData(request.getParameterMap());
+      }
+
+      /* process slash-delimited request */
+      List<String> params = Parsing.splitToList(
+          request.getPathInfo(),
+          Delimiter.SLASH);
+      return new RequestData(
+          new HazardService2.RequestData(
+              parseValueList(MODEL, params.get(0), Model.class),
+              parseDouble(LONGITUDE, params.get(1)),
+              parseDouble(LATITUDE, params.get(2)),
+              Vs30.fromValue(parseDouble(VS30, params.get(3)))),
+          parseDoubles(RETURNPERIOD, params.get(4)));
+
+    } catch (IllegalArgumentException iae) {
+      throw iae;
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Error parsing request URL", e);
+    }
+  }
+
+  /* Reduce parameter map key-value pairs. */
+  static RequestData buildRequestData(Map<String, String[]> paramMap) {
+    return new RequestData(
+        HazardService2.buildRequestData(paramMap),
+        readDoubles(RETURNPERIOD, paramMap));
+  }
+
+  private static class UhsTask extends TimedTask<Result> {
+
+    final RequestData data;
+
+    UhsTask(String url, ServletContext context, RequestData data) {
+      super(url, context);
+      this.data = data;
+    }
+
+    @Override
+    Result calc() throws Exception {
+      HazardCurves curves = HazardService2.cachedCurves(data.hazard, context);
+      return new Result(url, Metadata.serverData(ServletUtil.THREAD_COUNT, timer),
+          new Response(data, spectra(curves, data)));
+    }
+  }
+
+  /* Spectra in return period order. */
+  static List<Spectrum> spectra(HazardCurves curves, RequestData data) {
+    List<Double> rates = new ArrayList<>();
+    for (double returnPeriod : data.returnPeriods) {
+      rates.add(1.0 / returnPeriod);
+    }
+
+    int imtCount = data.hazard.imts.size();
+    double[] periods = new double[imtCount];
+    double[][] motions = new double[rates.size()][imtCount];
+    double[] imtMotions = new double[rates.size()];
+    int index = 0;
+    for (Imt imt : data.hazard.imts) {
+      periods[index] = imt.isSA() ? imt.period() : 0.0;
+      CurveSlicer slicer = new CurveSlicer(Doubles.toArray(curves.imls.get(imt)), rates);
+      slicer.slice(Doubles.toArray(curves.totals.get(imt).yValues()), imtMotions);
+      for (int i = 0; i < imtMotions.length; i++) {
+        motions[i][index] = imtMotions[i];
+      }
+      index++;
+    }
+
+    ImmutableList.Builder<Spectrum> spectra = ImmutableList.builder();
+    for (int i = 0; i < motions.length; i++) {
+      spectra.add(new Spectrum(data.returnPeriods.get(i), periods, motions[i]));
+    }
+    return spectra.build();
+  }
+
+  static final class RequestData {
+
+    final HazardService2.RequestData hazard;
+    final List<Double> returnPeriods;
+
+    RequestData(HazardService2.RequestData hazard, List<Double> returnPeriods) {
+      checkArgument(!returnPeriods.isEmpty(), "Missing return period");
+      checkArgument(
+          returnPeriods.size() <= DeaggService.MAX_RETURN_PERIODS,
+          "UHS requests are limited to %s return periods",
+          DeaggService.MAX_RETURN_PERIODS);
+      for (double returnPeriod : returnPeriods) {
+        checkArgument(returnPeriod > 0.0, "Invalid return period [%s]", returnPeriod);
+      }
+      this.hazard = hazard;
+      this.returnPeriods = ImmutableList.copyOf(returnPeriods);
+    }
+  }
+
+  /* Non-finite ground motions (e.g. on flat curve segments) serialize as null. */
+  private static final class Spectrum {
+
+    final double returnperiod;
+    final String xlabel = X_LABEL;
+    final String ylabel = Y_LABEL;
+    final double[] xvalues;
+    final Double[] yvalues;
+
+    Spectrum(double returnPeriod, double[] periods, double[] motions) {
+      this.returnperiod = returnPeriod;
+      this.xvalues = periods;
+      this.yvalues = new Double[motions.length];
+      for (int i = 0; i < motions.length; i++) {
+        yvalues[i] = Double.isFinite(motions[i]) ? motions[i] : null;
+      }
+    }
+  }
+
+  private static final class ResponseData {
+
+    final List<Model> models;
+    final double longitude;
+    final double latitude;
+    final Vs30 vs30;
+    final List<Imt> imts;
+
+    ResponseData(RequestData request) {
+      this.models = request.hazard.models;
+      this.longitude = request.hazard.longitude;
+      this.latitude = request.hazard.latitude;
+      this.vs30 = request.hazard.vs30;
+      this.imts = ImmutableList.copyOf(request.hazard.imts);
+    }
+  }
+
+  private static final class Response {
+
+    final ResponseData metadata;
+    final List<Spectrum> data;
+
+    Response(RequestData request, List<Spectrum> data) {
+      this.metadata = new ResponseData(request);
+      this.data = data;
+    }
+  }
+
+  private static final class Result {
+
+    final String status = Status.SUCCESS.toString();
+    final String date = ZonedDateTime.now().format(ServletUtil.DATE_FMT);
+    final String url;
+    final Object server;
+    final Response response;
+
+    Result(String url, Object server, Response response) {
+      this.url = url;
+      this.server = server;
+      this.response = response;
+    }
+  }
+
+  private static final class Usage {
+
+    final String status = Status.USAGE.toString();
+    final String description = "Compute uniform hazard spectra at one or more return periods";
+    final List<String> syntax = ImmutableList.of(
+        "%s://%s/nshmp-haz-ws/uhs/{model}/{longitude}/{latitude}/{vs30}/{returnPeriod}",
+        "%s://%s/nshmp-haz-ws/uhs?model={model}&longitude={longitude}" +
+            "&latitude={latitude}&vs30={vs30}&returnperiod={returnPeriod}");
+    final String parameters = "Multiple models and return periods may be comma-delimited; " +
+        "see the /haz service for supported models and vs30 values.";
+  }
+
+}
@@ -0,0 +1,97 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.function.Supplier;
+
+import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Precomputed service usage (metadata) document.
+ *
+ * <p>Usage responses only change with the set of installed models but are
+ * polled constantly by monitors and client applications. A usage document is
+ * serialized once, on first use, and the UTF-8 encoded bytes are cached for
+ * each protocol and host combination together with a strong ETag so that
+ * conditional requests may be answered without a body.
+ *
+ * <p>Usage strings follow the {@link NshmpServlet} URL convention and should
+ * start with "%s://%s/service-name/...". Usage documents must not contain
+ * per-request data, such as server timing, which would be frozen at first use.
+ *
+ * @author Peter Powers
+ */
+public final class UsageDocument {
+
+  /* Host names are client supplied; bound the number retained. */
+  private static final int MAX_HOSTS = 32;
+
+  private final Supplier<String> usage;
+  private final Cache<String, Encoded> encodings;
+
+  private UsageDocument(Supplier<String> usage) {
+    this.usage = Suppliers.memoize(usage::get);
+    this.encodings = CacheBuilder.newBuilder()
+        .maximumSize(MAX_HOSTS)
+        .build();
+  }
+
+  /**
+   * Create a usage document that will be built on first use.
+   *
+   * @param usage document supplier
+   */
+  static UsageDocument of(Supplier<String> usage) {
+    return new UsageDocument(usage);
+  }
+
+  /**
+   * Create a usage document from an existing string.
+   *
+   * @param usage document
+   */
+  static UsageDocument of(String usage) {
+    return new UsageDocument(() -> usage);
+  }
+
+  /* Encoded usage for the supplied protocol and host. */
+  Encoded encoded(String protocol, String host) {
+    try {
+      return encodings.get(
+          protocol + "://" + host,
+          () -> new Encoded(String.format(usage.get(), protocol, host, protocol, host)));
+    } catch (Exception e) {
+      throw new UncheckedExecutionException(e);
+    }
+  }
+
+  static final class Encoded {
+
+    final byte[] bytes;
+    final String etag;
+
+    private Encoded(String usage) {
+      this.bytes = usage.getBytes(UTF_8);
+      this.etag = '"' + Hashing.sha256().hashBytes(bytes).toString() + '"';
+    }
+
+    /* Whether an If-None-Match header value matches this encoding. */
+    boolean matches(String ifNoneMatch) {
+      if (ifNoneMatch == null) {
+        return false;
+      }
+      for (String tag : ifNoneMatch.split(",")) {
+        String trimmed = tag.trim();
+        if (trimmed.equals("*") || trimmed.equals(etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+}
@@ -1,15 +1,20 @@
 package gov.usgs.earthquake.nshmp.www;
 
-import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Preconditions.checkArgument;
 
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import javax.servlet.ServletRequest;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+
 import gov.usgs.earthquake.nshmp.internal.Parsing;
 import gov.usgs.earthquake.nshmp.internal.Parsing.Delimiter;
 
@@ -22,7 +27,24 @@ public class Util {
    * @param request servlet request
    */
   public static <E extends Enum<E>> boolean readBoolean(E key, ServletRequest request) {
-    return Boolean.valueOf(readValue(key, request));
+    return readBoolean(key, request.getParameterMap());
+  }
+
+  /**
+   * Returns the value of a servlet request parameter as a boolean, or the
+   * supplied default if the parameter is absent.
+   * 
+   * @param key of value to get
+   * @param request servlet request
+   * @param defaultValue to return if parameter is absent
+   * @throws IllegalArgumentException if the value is not 'true' or 'false'
+   */
+  public static <E extends Enum<E>> boolean readBoolean(
+      E key,
+      ServletRequest request,
+      boolean defaultValue) {
+    String value = request.getParameter(key.toString());
+    return (value == null) ? defaultValue : parseBoolean(key, value);
   }
 
   /**
@@ -32,7 +54,7 @@ public class Util {
    * @param request servlet request
    */
   public static <E extends Enum<E>> double readDouble(E key, ServletRequest request) {
-    return Double.valueOf(readValue(key, request));
+    return readDouble(key, request.getParameterMap());
   }
 
   /**
@@ -42,7 +64,12 @@ public class Util {
    * @param request servlet request
    */
   public static <E extends Enum<E>> int readInteger(E key, ServletRequest request) {
-    return Integer.valueOf(readValue(key, request));
+    String value = readValue(key, request);
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException nfe) {
+      throw invalidValue(key, value);
+    }
   }
 
   /**
@@ -52,7 +79,7 @@ public class Util {
    * @param request servlet request
    */
   public static <E extends Enum<E>> String readValue(E key, ServletRequest request) {
-    return readValues(key, request)[0];
+    return readValue(key, request.getParameterMap());
   }
 
   /**
@@ -67,7 +94,7 @@ public class Util {
       E key,
       ServletRequest request,
       Class<T> type) {
-    return Enum.valueOf(type, readValue(key, request));
+    return readValue(key, request.getParameterMap(), type);
   }
 
   /**
@@ -77,14 +104,12 @@ public class Util {
    * @param request servlet request
    */
   public static <E extends Enum<E>> String[] readValues(E key, ServletRequest request) {
-    return checkNotNull(
-        request.getParameterValues(key.toString()),
-        "Missing query key [" + key.toString() + "]");
+    return readValues(key, request.getParameterMap());
   }
 
   /**
-   * Returns the value of a servlet request parameter as a enum set of specified
-   * type.
+   * Returns the value of a servlet request parameter as an immutable enum set
+   * of specified type. Parameters may be repeated and/or comma-delimited.
    * 
    * @param key of value to get
    * @param request servlet request
@@ -94,10 +119,7 @@ public class Util {
       E key,
       ServletRequest request,
       Class<T> type) {
-
-    return Arrays.stream(readValues(key, request))
-        .map((name) -> Enum.valueOf(type, name))
-        .collect(Collectors.toSet());
+    return readValues(key, request.getParameterMap(), type);
   }
 
   enum Key {
@@ -112,7 +134,17 @@ public class Util {
     DISTANCE,
     FORMAT,
     TIMESPAN,
-    BASIN;
+    BASIN,
+    COMPONENTS,
+    FIELDS,
+    COMPACT,
+    PERMODEL,
+    TYPE,
+    MINLATITUDE,
+    MAXLATITUDE,
+    MINLONGITUDE,
+    MAXLONGITUDE,
+    SPACING;
 
     private String label;
 
@@ -126,25 +158,168 @@ public class Util {
     }
   }
 
-  static <T extends Enum<T>> Set<T> readValues(String values, Class<T> type) {
-    return Parsing.splitToList(values, Delimiter.COMMA).stream()
-        .map((name) -> Enum.valueOf(type, name))
-        .collect(Collectors.toSet());
+  /*
+   * Parameter map parsing. The methods below operate on servlet request
+   * parameter maps, or on individual values parsed from slash-delimited
+   * requests, so that query, path, and job requests share a single typed
+   * parsing layer. Enum names are resolved against precomputed lookup tables
+   * and all parse failures are reported as IllegalArgumentExceptions of the
+   * form "Invalid value [value] for key [key]".
+   */
+
+  /* Enum constant lookup tables, built once per enum type. */
+  private static final ClassValue<Map<String, ?>> ENUM_TABLES = new ClassValue<Map<String, ?>>() {
+    @Override
+    protected Map<String, ?> computeValue(Class<?> type) {
+      ImmutableMap.Builder<String, Object> table = ImmutableMap.builder();
+      for (Object constant : type.getEnumConstants()) {
+        table.put(((Enum<?>) constant).name(), constant);
+      }
+      return table.build();
+    }
+  };
+
+  static <E extends Enum<E>> IllegalArgumentException invalidValue(E key, String value) {
+    return new IllegalArgumentException(
+        String.format("Invalid value [%s] for key [%s]", value, key));
+  }
+
+  static <E extends Enum<E>> String[] readValues(E key, Map<String, String[]> paramMap) {
+    String[] values = paramMap.get(key.toString());
+    checkArgument(values != null && values.length > 0, "Missing query key [%s]", key);
+    return values;
   }
 
   static <E extends Enum<E>> String readValue(E key, Map<String, String[]> paramMap) {
-    String keyStr = key.toString();
-    String[] values = paramMap.get(keyStr);
-    checkNotNull(values, "Missing query key: %s", keyStr);
-    checkState(values.length > 0, "Empty value array for key: %s", key);
-    return values[0];
+    return readValues(key, paramMap)[0];
+  }
+
+  static <E extends Enum<E>> double readDouble(E key, Map<String, String[]> paramMap) {
+    return parseDouble(key, readValue(key, paramMap));
+  }
+
+  /*
+   * Returns the distinct values of a parameter, in request order. Parameters
+   * may be repeated and/or comma-delimited.
+   */
+  static <E extends Enum<E>> List<Double> readDoubles(E key, Map<String, String[]> paramMap) {
+    Set<Double> set = new LinkedHashSet<>();
+    for (String values : readValues(key, paramMap)) {
+      addDoubles(key, values, set);
+    }
+    return ImmutableList.copyOf(set);
+  }
+
+  static <E extends Enum<E>> boolean readBoolean(E key, Map<String, String[]> paramMap) {
+    return parseBoolean(key, readValue(key, paramMap));
   }
 
   static <T extends Enum<T>, E extends Enum<E>> T readValue(
       E key,
       Map<String, String[]> paramMap,
       Class<T> type) {
-    return Enum.valueOf(type, readValue(key, paramMap));
+    return parseValue(key, readValue(key, paramMap), type);
+  }
+
+  static <T extends Enum<T>, E extends Enum<E>> Set<T> readValues(
+      E key,
+      Map<String, String[]> paramMap,
+      Class<T> type) {
+    EnumSet<T> set = EnumSet.noneOf(type);
+    for (String values : readValues(key, paramMap)) {
+      addValues(key, values, type, set);
+    }
+    return Sets.immutableEnumSet(set);
+  }
+
+  /*
+   * Returns the distinct values of a parameter, in request order, for cases
+   * where order is significant (e.g. model merging).
+   */
+  static <T extends Enum<T>, E extends Enum<E>> List<T> readValueList(
+      E key,
+      Map<String, String[]> paramMap,
+      Class<T> type) {
+    Set<T> set = new LinkedHashSet<>();
+    for (String values : readValues(key, paramMap)) {
+      addValues(key, values, type, set);
+    }
+    return ImmutableList.copyOf(set);
+  }
+
+  static <E extends Enum<E>> double parseDouble(E key, String value) {
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException nfe) {
+      throw invalidValue(key, value);
+    }
+  }
+
+  /* Parse a comma-delimited string of doubles, retaining order. */
+  static <E extends Enum<E>> List<Double> parseDoubles(E key, String values) {
+    Set<Double> set = new LinkedHashSet<>();
+    addDoubles(key, values, set);
+    return ImmutableList.copyOf(set);
+  }
+
+  private static <E extends Enum<E>> void addDoubles(
+      E key,
+      String values,
+      Collection<Double> collection) {
+    for (String value : Parsing.splitToList(values, Delimiter.COMMA)) {
+      collection.add(parseDouble(key, value));
+    }
+  }
+
+  static <E extends Enum<E>> boolean parseBoolean(E key, String value) {
+    if (value.equalsIgnoreCase("true")) {
+      return true;
+    }
+    if (value.equalsIgnoreCase("false")) {
+      return false;
+    }
+    throw invalidValue(key, value);
+  }
+
+  static <T extends Enum<T>, E extends Enum<E>> T parseValue(
+      E key,
+      String value,
+      Class<T> type) {
+    T constant = type.cast(ENUM_TABLES.get(type).get(value));
+    if (constant == null) {
+      throw invalidValue(key, value);
+    }
+    return constant;
+  }
+
+  /* Parse a comma-delimited string of enum names. */
+  static <T extends Enum<T>, E extends Enum<E>> Set<T> parseValues(
+      E key,
+      String values,
+      Class<T> type) {
+    EnumSet<T> set = EnumSet.noneOf(type);
+    addValues(key, values, type, set);
+    return Sets.immutableEnumSet(set);
   }
-  
+
+  /* Parse a comma-delimited string of enum names, retaining order. */
+  static <T extends Enum<T>, E extends Enum<E>> List<T> parseValueList(
+      E key,
+      String values,
+      Class<T> type) {
+    Set<T> set = new LinkedHashSet<>();
+    addValues(key, values, type, set);
+    return ImmutableList.copyOf(set);
+  }
+
+  private static <T extends Enum<T>, E extends Enum<E>> void addValues(
+      E key,
+      String values,
+      Class<T> type,
+      Collection<T> collection) {
+    for (String name : Parsing.splitToList(values, Delimiter.COMMA)) {
+      collection.add(parseValue(key, name, type));
+    }
+  }
+
 }
@@ -0,0 +1,144 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import static gov.usgs.earthquake.nshmp.aws.Util.GSON;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import gov.usgs.earthquake.nshmp.aws.HazardResultsMetadataLambda.HazardListing;
+import gov.usgs.earthquake.nshmp.aws.HazardResultsMetadataLambda.HazardResults;
+import gov.usgs.earthquake.nshmp.aws.HazardResultsMetadataLambda.S3Listing;
+
+/*
+ * Results metadata grouping of a generated listing of tens of thousands of
+ * results, compared with the per-user, per-result-prefix filtering it
+ * replaced. testListing prints the grouping time of each.
+ */
+@SuppressWarnings("javadoc")
+public class HazardResultsListingTests {
+
+  /* Select local storage before the lambda is loaded. */
+  private static final Path STORAGE_DIR = TestLambdas.STORAGE_DIR;
+
+  private static final List<String> IMTS = ImmutableList.of("PGA", "SA0P2", "SA1P0", "SA5P0");
+  private static final List<String> SOURCES = ImmutableList.of(
+      "source/FAULT",
+      "source/GRID",
+      "gmm/ASK_14",
+      "gmm/BSSA_14");
+
+  @Test
+  public void testListing() {
+    /* 120 users, 10 results each; 25 files per result. */
+    Set<String> keys = keys(120, 10);
+    Set<String> users = keys.stream()
+        .map(key -> key.substring(0, key.indexOf('/')))
+        .collect(Collectors.toCollection(TreeSet::new));
+    List<S3Listing> s3Listings = keys.stream()
+        .map(HazardResultsMetadataLambda::keyToHazardListing)
+        .collect(Collectors.toList());
+
+    long start = System.nanoTime();
+    List<HazardResults> expected = filterS3Listing(users, s3Listings);
+    double filterMs = (System.nanoTime() - start) / 1e6;
+
+    start = System.nanoTime();
+    List<HazardResults> actual = HazardResultsMetadataLambda.transformS3Listing(users, s3Listings);
+    double groupMs = (System.nanoTime() - start) / 1e6;
+
+    System.out.println(String.format(
+        "%,d results in %,d result directories: filtered %.1f ms; grouped %.1f ms",
+        keys.size(), expected.size(), filterMs, groupMs));
+
+    assertEquals(1200, expected.size());
+    assertEquals(GSON.toJson(expected), GSON.toJson(actual));
+    assertEquals(
+        GSON.toJson(expected),
+        GSON.toJson(HazardResultsMetadataLambda.transformKeys(users, keys)));
+  }
+
+  @Test
+  public void testUserWithoutResults() {
+    Set<String> keys = keys(3, 2);
+    Set<String> users = ImmutableList.of("user000", "user001", "user002", "user003")
+        .stream()
+        .collect(Collectors.toCollection(TreeSet::new));
+    assertEquals(
+        GSON.toJson(filterS3Listing(users, keys.stream()
+            .map(HazardResultsMetadataLambda::keyToHazardListing)
+            .collect(Collectors.toList()))),
+        GSON.toJson(HazardResultsMetadataLambda.transformKeys(users, keys)));
+  }
+
+  /*
+   * Total, source type and GMM curves for each IMT of each result; every
+   * third result is nested in a project directory.
+   */
+  private static Set<String> keys(int userCount, int resultCount) {
+    Set<String> keys = new TreeSet<>();
+    for (int i = 0; i < userCount; i++) {
+      String user = String.format("user%03d", i);
+      for (int j = 0; j < resultCount; j++) {
+        String result = (j % 3 == 0 ? "project/" : "") + String.format("run-%02d", j);
+        for (String imt : IMTS) {
+          String prefix = user + "/" + result + "/" + imt + "/";
+          keys.add(prefix + "curves.csv");
+          for (String source : SOURCES) {
+            keys.add(prefix + source + "/curves.csv");
+          }
+        }
+        keys.add(user + "/" + result + "/PGV/curves.csv");
+      }
+    }
+    return keys;
+  }
+
+  /* The grouping replaced by transformS3Listing. */
+  private static List<HazardResults> filterS3Listing(
+      Set<String> users,
+      List<S3Listing> s3Listings) {
+
+    List<HazardResults> hazardResults = new ArrayList<>();
+
+    users.forEach(user -> {
+      TreeSet<String> resultDirectories = s3Listings.stream()
+          .filter(listing -> listing.user.equals(user))
+          .map(listing -> listing.resultPrefix)
+          .collect(Collectors.toCollection(TreeSet::new));
+
+      resultDirectories.forEach(resultPrefix -> {
+        List<S3Listing> s3Filteredlistings = s3Listings.parallelStream()
+            .filter(listing -> listing.user.equals(user))
+            .filter(listing -> listing.resultPrefix.equals(resultPrefix))
+            .collect(Collectors.toList());
+
+        List<HazardListing> listings = s3Filteredlistings.parallelStream()
+            .map(listing -> new HazardListing(listing.dataType, listing.path, listing.file))
+            .collect(Collectors.toList());
+
+        S3Listing s3Listing = s3Filteredlistings.get(0);
+        String path = s3Listing.path.split(resultPrefix)[0];
+        String s3Path = s3Listing.user + "/" + path + resultPrefix;
+
+        hazardResults.add(new HazardResults(
+            user,
+            s3Listing.bucket,
+            resultPrefix,
+            s3Path,
+            listings));
+      });
+    });
+
+    return hazardResults;
+  }
+
+}
@@ -0,0 +1,144 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/*
+ * Results index rebuild and patch against local storage, including S3
+ * notifications delivered out of order.
+ */
+@SuppressWarnings("javadoc")
+public class HazardResultsMetadataLambdaTests {
+
+  private static final String RESULTS = "nshmp-hazout";
+  private static final Path INDEX = TestLambdas.STORAGE_DIR
+      .resolve("nshmp-haz-lambda")
+      .resolve("nshmp-haz-aws-results-index.json");
+
+  private static final String CURVES_1 = "user1/run1/PGA/curves.csv";
+  private static final String MAP_1 = "user1/run1/PGA/map.csv";
+  private static final String MAP_2 = "user2/run2/SA1P0/map.csv";
+  private static final String MAP_3 = "user3/run3/PGA/map.csv";
+
+  @Before
+  public void setUp() throws IOException {
+    TestLambdas.clear();
+    for (String key : ImmutableList.of(CURVES_1, MAP_1, MAP_2)) {
+      TestLambdas.put(RESULTS, key, "lon,lat\n");
+    }
+    /* A top-level prefix without results is not a user. */
+    TestLambdas.put(RESULTS, "user4/notes.txt", "");
+  }
+
+  @Test
+  public void testRebuild() throws IOException {
+    JsonObject response = invoke("{}");
+    assertEquals(ImmutableList.of(CURVES_1), index("curves"));
+    assertEquals(ImmutableList.of(MAP_1, MAP_2), index("map"));
+    assertEquals(ImmutableList.of("user1", "user2"), users(response, "curves"));
+    assertEquals(ImmutableList.of("user1", "user2"), users(response, "map"));
+  }
+
+  @Test
+  public void testPatch() throws IOException {
+    invoke("{}");
+    TestLambdas.put(RESULTS, MAP_3, "lon,lat\n");
+
+    JsonObject response = invoke(events(
+        record("ObjectCreated:Put", MAP_3, "005B2A3C41D09E7A01"),
+        record("ObjectRemoved:Delete", CURVES_1, "005B2A3C41D09E7A02"),
+        record("ObjectRemoved:Delete", MAP_1, "005B2A3C41D09E7A03")));
+
+    assertTrue(index("curves").isEmpty());
+    assertEquals(ImmutableList.of(MAP_2, MAP_3), index("map"));
+    assertEquals(ImmutableList.of("user2", "user3"), users(response, "map"));
+    assertEquals("005B2A3C41D09E7A03", sequencers().get(MAP_1).getAsString());
+  }
+
+  @Test
+  public void testOutOfOrder() throws IOException {
+    invoke("{}");
+
+    /* The removal of MAP_1 arrives before its earlier creation. */
+    invoke(events(record("ObjectRemoved:Delete", MAP_1, "005B2A3C41D09E7A05")));
+    JsonObject response = invoke(events(
+        record("ObjectCreated:Put", MAP_1, "005B2A3C41D09E7A04"),
+        record("ObjectCreated:Put", MAP_2, "005B2A3C41D09E7A06")));
+
+    assertEquals(ImmutableList.of(MAP_2), index("map"));
+    assertEquals(ImmutableList.of("user1", "user2"), users(response, "curves"));
+    assertEquals("005B2A3C41D09E7A05", sequencers().get(MAP_1).getAsString());
+
+    /* Sequencers of different lengths compare as if right-padded. */
+    invoke(events(record("ObjectCreated:Put", MAP_1, "005B2A3C41D09E7A0500")));
+    assertEquals(ImmutableList.of(MAP_2), index("map"));
+    invoke(events(record("ObjectCreated:Put", MAP_1, "005B2A3C41D09E7A0501")));
+    assertEquals(ImmutableList.of(MAP_1, MAP_2), index("map"));
+  }
+
+  @Test
+  public void testUnsupportedResult() throws IOException {
+    invoke("{}");
+    invoke(events(record("ObjectCreated:Put", "user5/run5/XYZ/map.csv", "0A")));
+    assertEquals(ImmutableList.of(MAP_1, MAP_2), index("map"));
+  }
+
+  private static JsonObject invoke(String request) throws IOException {
+    return TestLambdas.invoke(new HazardResultsMetadataLambda(), request);
+  }
+
+  private static String events(String... records) {
+    return "{\"Records\":[" + String.join(",", records) + "]}";
+  }
+
+  private static String record(String event, String key, String sequencer) {
+    return "{\"eventName\":\"" + event + "\",\"s3\":{" +
+        "\"bucket\":{\"name\":\"" + RESULTS + "\"}," +
+        "\"object\":{\"key\":\"" + key + "\",\"sequencer\":\"" + sequencer + "\"}}}";
+  }
+
+  private static JsonObject readIndex() throws IOException {
+    String json = new String(Files.readAllBytes(INDEX), UTF_8);
+    return new JsonParser().parse(json).getAsJsonObject();
+  }
+
+  private static List<String> index(String member) throws IOException {
+    return strings(readIndex().getAsJsonArray(member));
+  }
+
+  private static JsonObject sequencers() throws IOException {
+    return readIndex().getAsJsonObject("sequencers");
+  }
+
+  private static List<String> users(JsonObject response, String member) {
+    return strings(response
+        .getAsJsonObject("result")
+        .getAsJsonObject(member)
+        .getAsJsonArray("users"));
+  }
+
+  private static List<String> strings(JsonArray array) {
+    List<String> strings = new ArrayList<>();
+    for (JsonElement element : array) {
+      strings.add(element.getAsString());
+    }
+    return strings;
+  }
+
+}
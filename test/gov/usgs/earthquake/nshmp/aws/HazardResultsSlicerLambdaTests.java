@@ -0,0 +1,139 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonObject;
+
+import gov.usgs.earthquake.nshmp.www.CurveSlicer;
+import gov.usgs.earthquake.nshmp.www.meta.Status;
+
+/*
+ * The full slice pipeline against local storage: listing, in-process fan-out
+ * to the slice lambda, and zipping.
+ */
+@SuppressWarnings("javadoc")
+public class HazardResultsSlicerLambdaTests {
+
+  private static final String BUCKET = "results";
+  private static final Path ROOT = TestLambdas.STORAGE_DIR.resolve(BUCKET);
+
+  private static final double[] IMLS = { 0.0025, 0.0075, 0.0253, 0.0854, 0.288, 0.973, 3.28 };
+  private static final double[] LA =
+      { 1.05e-1, 4.58e-2, 1.20e-2, 1.80e-3, 1.04e-4, 8.95e-7, 2.34e-10 };
+  private static final double[] SF =
+      { 9.81e-2, 4.02e-2, 9.77e-3, 1.51e-3, 9.36e-5, 7.42e-7, 1.85e-10 };
+
+  private static final List<Double> SLICES = ImmutableList.of(1.0 / 2475, 1.0 / 475);
+
+  @Before
+  public void setUp() throws IOException {
+    TestLambdas.clear();
+    String curves = curves();
+    TestLambdas.put(BUCKET, "user1/run1/PGA/curves.csv", curves);
+    TestLambdas.put(BUCKET, "user1/run1/SA1P0/curves.csv", curves);
+    TestLambdas.put(BUCKET, "user1/run2/PGA/curves.csv", curves);
+  }
+
+  @Test
+  public void testSlice() throws IOException {
+    JsonObject response = invoke("user1/run1");
+    assertEquals(Status.SUCCESS.toString(), response.get("status").getAsString());
+    assertEquals(BUCKET + "/user1/run1.zip", response.get("zip").getAsString());
+
+    for (String imt : ImmutableList.of("PGA", "SA1P0")) {
+      List<String> lines = Files.readAllLines(ROOT.resolve("user1/run1/" + imt + "/map.csv"));
+      assertEquals(3, lines.size());
+      assertTrue(lines.get(0).startsWith("name,lon,lat,"));
+      checkRow(lines.get(1), "Los Angeles CA", LA);
+      checkRow(lines.get(2), "San Francisco CA", SF);
+    }
+
+    /* Other result directories are not sliced. */
+    assertTrue(!Files.exists(ROOT.resolve("user1/run2/PGA/map.csv")));
+
+    assertEquals(
+        ImmutableList.of(
+            "run1/PGA/curves.csv",
+            "run1/PGA/map.csv",
+            "run1/SA1P0/curves.csv",
+            "run1/SA1P0/map.csv"),
+        zipEntries(ROOT.resolve("user1/run1.zip")));
+  }
+
+  @Test
+  public void testSliceFailure() throws IOException {
+    TestLambdas.put(BUCKET, "user1/run1/SA1P0/curves.csv", "lon,lat\n");
+    JsonObject response = invoke("user1/run1");
+    assertEquals(Status.ERROR.toString(), response.get("status").getAsString());
+    assertTrue(!Files.exists(ROOT.resolve("user1/run1.zip")));
+  }
+
+  private static JsonObject invoke(String key) throws IOException {
+    String request = "{\"bucket\":\"" + BUCKET + "\",\"key\":\"" + key + "\"," +
+        "\"slices\":" + SLICES + "}";
+    return TestLambdas.invoke(new HazardResultsSlicerLambda(), request);
+  }
+
+  private static String curves() {
+    StringBuilder sb = new StringBuilder("name,lon,lat");
+    for (double iml : IMLS) {
+      sb.append(',').append(iml);
+    }
+    sb.append('\n');
+    appendRow(sb, "Los Angeles CA", "-118.25", "34.05", LA);
+    appendRow(sb, "San Francisco CA", "-122.40", "37.75", SF);
+    return sb.toString();
+  }
+
+  private static void appendRow(
+      StringBuilder sb,
+      String name,
+      String lon,
+      String lat,
+      double[] values) {
+
+    sb.append(name).append(',').append(lon).append(',').append(lat);
+    for (double value : values) {
+      sb.append(',').append(value);
+    }
+    sb.append('\n');
+  }
+
+  private static void checkRow(String line, String name, double[] values) {
+    String[] columns = line.split(",");
+    assertEquals(name, columns[0]);
+    double[] expected = new double[SLICES.size()];
+    new CurveSlicer(IMLS, SLICES).slice(values, expected);
+    for (int i = 0; i < expected.length; i++) {
+      /* Rates are written with 9 significant digits. */
+      double actual = Double.parseDouble(columns[3 + i]);
+      assertEquals(expected[i], actual, expected[i] * 1e-7);
+    }
+  }
+
+  private static List<String> zipEntries(Path zip) throws IOException {
+    List<String> entries = new ArrayList<>();
+    try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip), UTF_8)) {
+      ZipEntry entry;
+      while ((entry = in.getNextEntry()) != null) {
+        entries.add(entry.getName());
+      }
+    }
+    return entries;
+  }
+
+}
@@ -0,0 +1,136 @@
+package gov.usgs.earthquake.nshmp.aws;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/*
+ * Local storage and invocation of the hazard result lambdas. Lambdas select
+ * their storage once, at class initialization, so every test shares a single
+ * storage directory, which is created and selected before any lambda is
+ * loaded; tests clear it as needed.
+ */
+final class TestLambdas {
+
+  static final Path STORAGE_DIR;
+
+  static {
+    try {
+      STORAGE_DIR = Files.createTempDirectory("nshmp-storage");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    System.setProperty(ObjectStorage.STORAGE_DIR_PROPERTY, STORAGE_DIR.toString());
+  }
+
+  private TestLambdas() {}
+
+  /* Delete the contents of the storage directory. */
+  static void clear() throws IOException {
+    try (Stream<Path> paths = Files.walk(STORAGE_DIR)) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        if (!path.equals(STORAGE_DIR)) {
+          Files.delete(path);
+        }
+      }
+    }
+  }
+
+  /* Write an object to local storage. */
+  static void put(String bucket, String key, String content) throws IOException {
+    Path path = STORAGE_DIR.resolve(bucket).resolve(key);
+    Files.createDirectories(path.getParent());
+    Files.write(path, content.getBytes(UTF_8));
+  }
+
+  /* Invoke a lambda with a request, returning its response. */
+  static JsonObject invoke(RequestStreamHandler lambda, String request) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    lambda.handleRequest(
+        new ByteArrayInputStream(request.getBytes(UTF_8)),
+        output,
+        new TestContext(lambda.getClass().getSimpleName()));
+    return new JsonParser().parse(new String(output.toByteArray(), UTF_8)).getAsJsonObject();
+  }
+
+  /* Context of a local invocation; the log is written to standard out. */
+  static final class TestContext implements Context {
+
+    private final String functionName;
+
+    TestContext(String functionName) {
+      this.functionName = functionName;
+    }
+
+    @Override
+    public String getAwsRequestId() {
+      return "test";
+    }
+
+    @Override
+    public String getLogGroupName() {
+      return null;
+    }
+
+    @Override
+    public String getLogStreamName() {
+      return null;
+    }
+
+    @Override
+    public String getFunctionName() {
+      return functionName;
+    }
+
+    @Override
+    public String getFunctionVersion() {
+      return "$LATEST";
+    }
+
+    @Override
+    public String getInvokedFunctionArn() {
+      return null;
+    }
+
+    @Override
+    public CognitoIdentity getIdentity() {
+      return null;
+    }
+
+    @Override
+    public ClientContext getClientContext() {
+      return null;
+    }
+
+    @Override
+    public int getRemainingTimeInMillis() {
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getMemoryLimitInMB() {
+      return 3008;
+    }
+
+    @Override
+    public LambdaLogger getLogger() {
+      return System.out::print;
+    }
+  }
+
+}
@@ -0,0 +1,176 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import gov.usgs.earthquake.nshmp.www.BasinDataClient.Terms;
+
+/*
+ * Basin data client against the stub host and a local basin service whose
+ * responses are selected by path. Clients are shared by URL, so each test
+ * uses its own path.
+ */
+@SuppressWarnings("javadoc")
+public class BasinDataClientTests {
+
+  private static final String TERMS =
+      "{\"status\":\"success\",\"response\":" +
+          "{\"z1p0\":{\"value\":0.35},\"z2p5\":{\"value\":null}}}";
+
+  private static final String BARE_TERMS =
+      "{\"status\":\"success\",\"response\":{\"z1p0\":0.2}}";
+
+  private static final String NO_RESPONSE = "{\"status\":\"error\"}";
+
+  private static HttpServer server;
+  private static String host;
+  private static final List<String> QUERIES = new CopyOnWriteArrayList<>();
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", BasinDataClientTests::handle);
+    server.start();
+    host = "http://localhost:" + server.getAddress().getPort();
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    server.stop(0);
+  }
+
+  private static void handle(HttpExchange exchange) throws IOException {
+    String path = exchange.getRequestURI().getPath();
+    String query = exchange.getRequestURI().getQuery();
+    QUERIES.add(path + "?" + query);
+
+    /* Flaky paths fail at latitudes of 40° and above. */
+    boolean fail = path.startsWith("/error") ||
+        (path.startsWith("/flaky") && query.startsWith("latitude=4"));
+    int code = fail ? 500 : 200;
+    String body = path.startsWith("/bare")
+        ? BARE_TERMS
+        : path.startsWith("/invalid") ? NO_RESPONSE : TERMS;
+    byte[] bytes = body.getBytes(UTF_8);
+    exchange.sendResponseHeaders(code, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  @Test
+  public void testStub() {
+    BasinDataClient client = BasinDataClient.create(BasinDataClient.STUB_HOST, "/basin");
+    assertSame(client, BasinDataClient.create(BasinDataClient.STUB_HOST, "/other"));
+    assertSame(Terms.STUB, client.terms(34.05, -118.25));
+  }
+
+  @Test
+  public void testParse() {
+    Terms terms = BasinDataClient.create(host, "/parse").terms(34.05, -118.25);
+    assertEquals(0.35, terms.z1p0, 0.0);
+    assertTrue(Double.isNaN(terms.z2p5));
+
+    /* Bare values; missing values are NaN. */
+    terms = BasinDataClient.create(host, "/bare").terms(34.05, -118.25);
+    assertEquals(0.2, terms.z1p0, 0.0);
+    assertTrue(Double.isNaN(terms.z2p5));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testParseNoResponse() {
+    BasinDataClient.create(host, "/invalid").terms(34.05, -118.25);
+  }
+
+  @Test
+  public void testQuantizedCache() {
+    BasinDataClient client = BasinDataClient.create(host, "/cache");
+    Terms terms = client.terms(34.0501, -118.2502);
+
+    /* Locations within half a quantum share a request and terms. */
+    assertSame(terms, client.terms(34.0504, -118.2496));
+    assertEquals(1, queries("/cache").size());
+    assertEquals("/cache?latitude=34.050&longitude=-118.250", queries("/cache").get(0));
+
+    /* The next quantum is fetched. */
+    client.terms(34.0506, -118.25);
+    assertEquals(2, queries("/cache").size());
+    assertEquals("/cache?latitude=34.051&longitude=-118.250", queries("/cache").get(1));
+  }
+
+  @Test
+  public void testCircuitBreaker() {
+    BasinDataClient client = BasinDataClient.create(host, "/error");
+    for (int i = 0; i < 3; i++) {
+      assertUnavailable(client, 34.0 + i, "Basin data service error");
+    }
+    assertEquals(3, queries("/error").size());
+
+    /* Open after three failures; the service is not called. */
+    assertUnavailable(client, 40.0, "Basin data service unavailable");
+    assertEquals(3, queries("/error").size());
+  }
+
+  @Test
+  public void testCircuitBreakerCache() {
+    BasinDataClient client = BasinDataClient.create(host, "/flaky-cache");
+    Terms terms = client.terms(34.0, -118.25);
+    for (int i = 0; i < 3; i++) {
+      assertUnavailable(client, 40.0 + i, "Basin data service error");
+    }
+
+    /* Cached terms are served while open; others are not fetched. */
+    assertSame(terms, client.terms(34.0, -118.25));
+    assertUnavailable(client, 35.0, "Basin data service unavailable");
+    assertEquals(4, queries("/flaky-cache").size());
+  }
+
+  @Test
+  public void testFailureReset() {
+    /* A successful request resets the failure count. */
+    BasinDataClient client = BasinDataClient.create(host, "/flaky-reset");
+    assertUnavailable(client, 40.0, "Basin data service error");
+    assertUnavailable(client, 41.0, "Basin data service error");
+    client.terms(34.0, -118.25);
+    assertUnavailable(client, 42.0, "Basin data service error");
+    assertUnavailable(client, 43.0, "Basin data service error");
+    assertUnavailable(client, 44.0, "Basin data service error");
+    assertEquals(6, queries("/flaky-reset").size());
+  }
+
+  private static void assertUnavailable(BasinDataClient client, double latitude, String message) {
+    try {
+      client.terms(latitude, -118.25);
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+      return;
+    }
+    throw new AssertionError("Expected IllegalStateException");
+  }
+
+  private static List<String> queries(String path) {
+    List<String> queries = new CopyOnWriteArrayList<>();
+    for (String query : QUERIES) {
+      if (query.startsWith(path + "?")) {
+        queries.add(query);
+      }
+    }
+    return queries;
+  }
+
+}
@@ -0,0 +1,135 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Doubles;
+
+import gov.usgs.earthquake.nshmp.data.Interpolator;
+
+/*
+ * CurveSlicer must return the same ground motions as the nshmp-haz
+ * Interpolator it replaces, including extrapolation beyond a curve and
+ * targets that coincide with curve values. Below the last non-zero value of a
+ * curve, where log(value) is -∞, CurveSlicer's documented behavior is checked
+ * instead.
+ */
+@SuppressWarnings("javadoc")
+public class CurveSlicerTests {
+
+  private static final Interpolator INTERPOLATOR = Interpolator.builder()
+      .logx()
+      .logy()
+      .decreasingX()
+      .build();
+
+  /* Relative tolerance; allows for rounding in the exp(log(x)) round trip. */
+  private static final double TOLERANCE = 1e-12;
+
+  /* PGA ground motions and a western US hazard curve. */
+  private static final double[] PGA_IMLS = {
+      0.0025, 0.0045, 0.0075, 0.0113, 0.0169, 0.0253, 0.0380, 0.0570, 0.0854, 0.128,
+      0.192, 0.288, 0.432, 0.649, 0.973, 1.46, 2.19, 3.28, 4.92, 7.38 };
+
+  private static final double[] PGA_RATES = {
+      1.05e-1, 7.02e-2, 4.58e-2, 3.09e-2, 1.98e-2, 1.20e-2, 6.86e-3, 3.66e-3, 1.80e-3, 8.03e-4,
+      3.14e-4, 1.04e-4, 2.80e-5, 5.84e-6, 8.95e-7, 9.41e-8, 6.27e-9, 2.34e-10, 3.79e-12,
+      2.11e-14 };
+
+  /* 1 s ground motions and a central US hazard curve that reaches zero. */
+  private static final double[] SA1P0_IMLS = {
+      0.0025, 0.00375, 0.00563, 0.00844, 0.0127, 0.019, 0.0285, 0.0427, 0.0641, 0.0961,
+      0.144, 0.216, 0.324, 0.487, 0.73, 1.09, 1.64, 2.46, 3.69, 5.54 };
+
+  private static final double[] SA1P0_RATES = {
+      2.31e-2, 1.64e-2, 1.09e-2, 6.77e-3, 3.93e-3, 2.12e-3, 1.06e-3, 4.87e-4, 2.04e-4, 7.71e-5,
+      2.58e-5, 7.44e-6, 1.79e-6, 3.41e-7, 4.73e-8, 3.95e-9, 1.12e-10, 0.0, 0.0, 0.0 };
+
+  /* Common return periods, in no particular order. */
+  private static final List<Double> RATES = ImmutableList.of(
+      1.0 / 2475, 1.0 / 475, 1.0 / 10000, 1.0 / 975, 1.0 / 100000, 1.0 / 100);
+
+  @Test
+  public void testReturnPeriods() {
+    checkParity(PGA_IMLS, PGA_RATES, RATES);
+    checkParity(SA1P0_IMLS, SA1P0_RATES, RATES);
+  }
+
+  @Test
+  public void testCurveValues() {
+    /* Targets equal to curve values, including the first and last. */
+    checkParity(PGA_IMLS, PGA_RATES, Doubles.asList(PGA_RATES));
+  }
+
+  @Test
+  public void testOutOfRange() {
+    /* Above the first value and below the last value of the curve. */
+    checkParity(PGA_IMLS, PGA_RATES, ImmutableList.of(0.5, 1e-16, 0.2, 1e-20));
+  }
+
+  @Test
+  public void testZeroTail() {
+    /* Above the last non-zero value, targets are interpolated as usual. */
+    checkParity(SA1P0_IMLS, SA1P0_RATES, ImmutableList.of(1e-9, 2e-10));
+
+    /* Below it, the ground motion of the last non-zero value is returned. */
+    List<Double> targets = ImmutableList.of(5e-11, 1e-12, 1e-30);
+    double[] out = new double[targets.size()];
+    new CurveSlicer(SA1P0_IMLS, targets).slice(SA1P0_RATES, out);
+    for (int i = 0; i < targets.size(); i++) {
+      assertEquals("target " + targets.get(i), 1.64, out[i], 1.64 * TOLERANCE);
+    }
+  }
+
+  @Test
+  public void testReuse() {
+    /* A slicer is shared by every curve of a file. */
+    CurveSlicer slicer = new CurveSlicer(PGA_IMLS, RATES);
+    double[] out = new double[RATES.size()];
+    slicer.slice(PGA_RATES, out);
+    slicer.slice(scale(PGA_RATES, 0.5), out);
+    checkParity(PGA_IMLS, scale(PGA_RATES, 0.5), RATES, out);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSingleValueCurve() {
+    new CurveSlicer(new double[] { 0.1 }, RATES);
+  }
+
+  private static void checkParity(double[] imls, double[] values, List<Double> targets) {
+    double[] out = new double[targets.size()];
+    new CurveSlicer(imls, targets).slice(values, out);
+    checkParity(imls, values, targets, out);
+  }
+
+  private static void checkParity(
+      double[] imls,
+      double[] values,
+      List<Double> targets,
+      double[] actual) {
+
+    List<Double> imlList = Doubles.asList(imls);
+    List<Double> valueList = Doubles.asList(values);
+    for (int i = 0; i < targets.size(); i++) {
+      double expected = INTERPOLATOR.findX(imlList, valueList, targets.get(i));
+      assertEquals(
+          "target " + targets.get(i),
+          expected,
+          actual[i],
+          Math.abs(expected) * TOLERANCE);
+    }
+  }
+
+  private static double[] scale(double[] values, double scale) {
+    double[] scaled = new double[values.length];
+    for (int i = 0; i < values.length; i++) {
+      scaled[i] = values[i] * scale;
+    }
+    return scaled;
+  }
+
+}
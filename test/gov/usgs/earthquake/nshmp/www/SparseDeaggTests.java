@@ -0,0 +1,267 @@
+package gov.usgs.earthquake.nshmp.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import gov.usgs.earthquake.nshmp.www.meta.Util.DoubleSerializer;
+
+/*
+ * Sparse deaggregation encoding of synthetic exports with the structure of
+ * nshmp-haz deaggregation exports: components holding lists of (r, m, εdata)
+ * bins, each with a list of (εbin, value) elements, most of them zero.
+ *
+ * The WUS and CEUS cases approximate the bin counts and occupancy of western
+ * and central US deaggregations: 0-300 km and 0-1000 km in 10 and 20 km
+ * distance bins, M4.6-9.6 in 0.2 magnitude bins, 16 ε bins, a total and
+ * per-GMM components. testBenchmark prints payload size and serialization
+ * time for the dense and sparse encodings of each.
+ */
+@SuppressWarnings("javadoc")
+public class SparseDeaggTests {
+
+  private static final Gson DENSE = new GsonBuilder()
+      .registerTypeAdapter(Double.class, new DoubleSerializer())
+      .disableHtmlEscaping()
+      .create();
+
+  private static final int M_BINS = 25;
+  private static final int ε_BINS = 16;
+
+  @Test
+  public void testSparseValues() {
+    Export export = export("Total", 30, 10.0, 0.2, new Random(0));
+    JsonObject sparse = sparseGson().toJsonTree(SparseDeagg.encode(export)).getAsJsonObject();
+
+    assertEquals("Total", sparse.get("component").getAsString());
+    assertEquals(DENSE.toJsonTree(export.summary), sparse.get("summary"));
+
+    JsonObject data = sparse.getAsJsonObject("data");
+    JsonArray r = data.getAsJsonArray("r");
+    JsonArray m = data.getAsJsonArray("m");
+    JsonArray εbin = data.getAsJsonArray("εbin");
+    JsonArray value = data.getAsJsonArray("value");
+
+    int i = 0;
+    for (RmBin bin : export.data) {
+      for (εData datum : bin.εdata) {
+        if (datum.value == 0.0) {
+          continue;
+        }
+        assertEquals(DENSE.toJsonTree(bin.r), r.get(i));
+        assertEquals(DENSE.toJsonTree(bin.m), m.get(i));
+        assertEquals(datum.εbin, εbin.get(i).getAsInt());
+        assertEquals(DENSE.toJsonTree(datum.value), value.get(i));
+        i++;
+      }
+    }
+    assertEquals(i, value.size());
+    assertEquals(i, r.size());
+    assertEquals(i, m.size());
+    assertEquals(i, εbin.size());
+  }
+
+  @Test
+  public void testEmptyBins() {
+    /* Recognized by declared type and written as an empty array. */
+    Export export = new Export("Total", ImmutableList.of(), ImmutableList.of());
+    JsonArray data = sparseGson().toJsonTree(SparseDeagg.encode(export))
+        .getAsJsonObject()
+        .getAsJsonArray("data");
+    assertEquals(0, data.size());
+  }
+
+  @Test
+  public void testExportList() {
+    List<Export> exports = wus(new Random(0));
+    JsonElement sparse = sparseGson().toJsonTree(SparseDeagg.encode(exports));
+    assertEquals(exports.size(), sparse.getAsJsonArray().size());
+    for (JsonElement component : sparse.getAsJsonArray()) {
+      assertTrue(component.getAsJsonObject().get("data").isJsonObject());
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testUnrecognizedLayout() {
+    sparseGson().toJson(SparseDeagg.encode(new RenamedExport()));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoBins() {
+    sparseGson().toJson(SparseDeagg.encode(ImmutableList.of("not", "a", "deaggregation")));
+  }
+
+  @Test
+  public void testBenchmark() {
+    benchmark("WUS", wus(new Random(0)));
+    benchmark("CEUS", ceus(new Random(0)));
+  }
+
+  private static void benchmark(String label, List<Export> exports) {
+    Gson sparseGson = sparseGson();
+    SparseDeagg sparse = SparseDeagg.encode(exports);
+    int iterations = 20;
+
+    /* Warm up both encodings. */
+    String denseJson = DENSE.toJson(exports);
+    String sparseJson = sparseGson.toJson(sparse);
+    for (int i = 0; i < iterations; i++) {
+      DENSE.toJson(exports);
+      sparseGson.toJson(sparse);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      DENSE.toJson(exports);
+    }
+    double denseMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      sparseGson.toJson(sparse);
+    }
+    double sparseMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+    int denseBytes = denseJson.getBytes(StandardCharsets.UTF_8).length;
+    int sparseBytes = sparseJson.getBytes(StandardCharsets.UTF_8).length;
+    System.out.println(String.format(
+        "%s deagg: dense %,d bytes %.2f ms; sparse %,d bytes %.2f ms",
+        label, denseBytes, denseMs, sparseBytes, sparseMs));
+    assertTrue(sparseBytes < denseBytes);
+  }
+
+  private static Gson sparseGson() {
+    SparseDeagg.Serializer serializer = new SparseDeagg.Serializer(() -> DENSE);
+    return DENSE.newBuilder()
+        .registerTypeAdapter(SparseDeagg.class, serializer)
+        .create();
+  }
+
+  /* Total and 4 GMMs; 0-300 km in 10 km bins; 15% of ε bins non-zero. */
+  private static List<Export> wus(Random random) {
+    return components(5, 30, 10.0, 0.15, random);
+  }
+
+  /* Total and 8 GMMs; 0-1000 km in 20 km bins; 25% of ε bins non-zero. */
+  private static List<Export> ceus(Random random) {
+    return components(9, 50, 20.0, 0.25, random);
+  }
+
+  private static List<Export> components(
+      int count,
+      int rBins,
+      double Δr,
+      double occupancy,
+      Random random) {
+
+    List<Export> exports = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      String component = (i == 0) ? "Total" : "GMM " + i;
+      exports.add(export(component, rBins, Δr, occupancy, random));
+    }
+    return exports;
+  }
+
+  private static Export export(
+      String component,
+      int rBins,
+      double Δr,
+      double occupancy,
+      Random random) {
+
+    List<RmBin> bins = new ArrayList<>();
+    for (int i = 0; i < rBins; i++) {
+      for (int j = 0; j < M_BINS; j++) {
+        List<εData> εdata = new ArrayList<>();
+        for (int k = 0; k < ε_BINS; k++) {
+          double value = (random.nextDouble() < occupancy) ? random.nextDouble() * 10.0 : 0.0;
+          εdata.add(new εData(k, value));
+        }
+        bins.add(new RmBin((i + 0.5) * Δr, 4.7 + j * 0.2, εdata));
+      }
+    }
+    List<Summary> summary = ImmutableList.of(
+        new Summary("Recovered targets", "0.0400 g"),
+        new Summary("Mean (r, m, ε₀)", "26.4 km, 6.91, 0.84"));
+    return new Export(component, summary, bins);
+  }
+
+  @SuppressWarnings("unused")
+  private static final class Export {
+
+    final String component;
+    final List<Summary> summary;
+    final List<RmBin> data;
+
+    Export(String component, List<Summary> summary, List<RmBin> data) {
+      this.component = component;
+      this.summary = summary;
+      this.data = data;
+    }
+  }
+
+  @SuppressWarnings("unused")
+  private static final class Summary {
+
+    final String name;
+    final String value;
+
+    Summary(String name, String value) {
+      this.name = name;
+      this.value = value;
+    }
+  }
+
+  private static final class RmBin {
+
+    final double r;
+    final double m;
+    final List<εData> εdata;
+
+    RmBin(double r, double m, List<εData> εdata) {
+      this.r = r;
+      this.m = m;
+      this.εdata = εdata;
+    }
+  }
+
+  private static final class εData {
+
+    final int εbin;
+    final double value;
+
+    εData(int εbin, double value) {
+      this.εbin = εbin;
+      this.value = value;
+    }
+  }
+
+  /* A bin whose distance field has been renamed. */
+  @SuppressWarnings("unused")
+  private static final class RenamedExport {
+
+    final List<RenamedBin> data = ImmutableList.of(new RenamedBin());
+  }
+
+  @SuppressWarnings("unused")
+  private static final class RenamedBin {
+
+    final double distance = 10.0;
+    final double m = 6.5;
+    final List<εData> εdata = ImmutableList.of(new εData(0, 1.0));
+  }
+
+}